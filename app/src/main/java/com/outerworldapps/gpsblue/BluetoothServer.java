@@ -19,9 +19,12 @@
 //    http://www.gnu.org/licenses/gpl-2.0.html
 
 /**
- * Accept incoming bluetooth connections.
- * Ignore and flush any incoming data.
- * Send out GPS data in form of NMEA messages.
+ * Accept incoming bluetooth connections on one or more SPP UUIDs,
+ * as some EFB apps insist on the standard UUID and others use their own.
+ * Hand them to the TransportHub which sends out GPS data in whatever
+ * format each connection has selected, taking commands from the clients
+ * to change that, see ClientCommands.
+ * All UUIDs get the same format so share the same encoded epochs.
  * Runs in service context.
  */
 
@@ -32,40 +35,52 @@ import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothServerSocket;
 import android.bluetooth.BluetoothSocket;
 import android.content.Context;
+import android.os.Build;
 import android.util.Log;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Set;
 import java.util.UUID;
 
 public class BluetoothServer {
-    private final static ReceiveThread[] nullrtarray = new ReceiveThread[0];
+    private final static int DEFAULT_MTU = 990;  // typical RFCOMM frame size
 
-    private AcceptThread acceptThread;
-    private HashSet<ReceiveThread> rtlist;
+    private final HashMap<UUID,AcceptThread> acceptThreads = new HashMap<> ();
     private JSessionService jSessionService;
-    private ReceiveThread[] rtarray;
-    private UUID sppUUID;
+    private volatile OutputFormat outputFormat;
 
     public BluetoothServer (JSessionService jss)
     {
         jSessionService = jss;
-        rtarray = nullrtarray;
     }
 
     /**
-     * Start listening on the given bluetooth socket UUID.
+     * Start listening on the given bluetooth socket UUIDs.
+     * Stop listening on any others, leaving the rest undisturbed.
+     * New connections receive the given format.
      * Called in app UI thread.
      */
-    public void startup (UUID uuid)
+    public void startup (Collection<UUID> uuids, OutputFormat format)
     {
-        if ((acceptThread == null) || ! sppUUID.equals (uuid)) {
-            shutdown ();
-            sppUUID = uuid;
-            acceptThread = new AcceptThread ();
-            acceptThread.start ();
+        outputFormat = format;
+        for (Iterator<UUID> it = acceptThreads.keySet ().iterator (); it.hasNext ();) {
+            UUID uuid = it.next ();
+            if (! uuids.contains (uuid)) {
+                acceptThreads.get (uuid).finish ();
+                it.remove ();
+            }
+        }
+        for (UUID uuid : uuids) {
+            if (! acceptThreads.containsKey (uuid)) {
+                AcceptThread at = new AcceptThread (uuid);
+                acceptThreads.put (uuid, at);
+                at.start ();
+            }
         }
     }
 
@@ -76,53 +91,90 @@ public class BluetoothServer {
      */
     public void shutdown ()
     {
-        if (acceptThread != null) {
-            acceptThread.finish ();
-            acceptThread = null;
-        }
-        while (true) {
-            ReceiveThread rt;
-            synchronized (jSessionService.connectionLock) {
-                if (rtarray.length == 0) break;
-                rt = rtarray[0];
-            }
-            rt.finish ();
+        for (AcceptThread at : acceptThreads.values ()) {
+            at.finish ();
         }
+        acceptThreads.clear ();
     }
 
     /**
-     * Send message to all connections.
-     * Called in InternalGps.GPSRcvrThread.
+     * Get the main UUID followed by those in a more UUIDs setting.
+     * They are separated by commas or spaces and 8 hex digits is short
+     * for that in place of the first 8 of the main UUID.
+     * @throws IllegalArgumentException at first bad one
      */
-    public void write (byte[] buf, int ofs, int len)
+    public static void ParseUUIDs (Set<UUID> uuids, UUID uuid, String moreuuids)
     {
-        ReceiveThread[] rts = rtarray;
-        for (ReceiveThread rt : rts) {
-            if (! rt.senderr) {
-                try {
-                    rt.os.write (buf, ofs, len);
-                } catch (IOException ioe) {
-                    Log.w (GPSBlue.TAG, "error sending to bluetooth", ioe);
-                    rt.senderr = true;
-                }
-            }
+        uuids.add (uuid);
+        for (String more : moreuuids.split ("[,\\s]+")) {
+            if (more.equals ("")) continue;
+            if (more.length () == 8) more += uuid.toString ().substring (8);
+            uuids.add (UUID.fromString (more));
         }
     }
 
     /**
-     * Thread what listens for incoming bluetooth connections.
-     * Spawns receiver thread for each found.
+     * Thread what listens for incoming bluetooth connections on one UUID.
+     * Bluetooth server sockets can only block so it has a thread of its own.
+     * Gives each connection to the TransportHub.
+     * Is the Transport for those connections so each UUID keeps its own count.
      */
-    private class AcceptThread extends Thread {
-        private BluetoothServerSocket serverSocket;
-        private boolean finished;
+    private class AcceptThread extends Thread implements Transport {
+        private volatile BluetoothServerSocket serverSocket;
+        private volatile boolean finished;
+        private int connectionCount;
+        private String statusKey;
+        private UUID sppUUID;
+
+        public AcceptThread (UUID uuid)
+        {
+            sppUUID = uuid;
+            statusKey = "uuid: " + uuid.toString ().toUpperCase ();
+        }
 
         // stop listening and get thread to exit
+        // then terminate all its connections
+        // if run() hasn't got its socket yet, it sees finished once it does
         public void finish ()
         {
             finished = true;
             try { serverSocket.close (); } catch (Exception ignored) { }
             try { join (); } catch (InterruptedException ignored) { }
+            updateConnectionCount ();
+            jSessionService.transportHub.requestCloseAll (this);
+        }
+
+        // clients may send commands to change what they are sent
+        @Override  // Transport
+        public void received (Connection conn, byte[] buf, int len)
+        {
+            if (conn.attachment == null) {
+                conn.attachment = new ClientCommands (jSessionService.outputFormats, jSessionService.transportHub, conn);
+            }
+            ((ClientCommands) conn.attachment).received (buf, len);
+        }
+
+        /**
+         * One of our connections has closed.
+         * If no connections, turn the GPS receiver off and unlock CPU.
+         */
+        @Override  // Transport
+        public void connectionClosed (Connection conn)
+        {
+            synchronized (jSessionService.connectionLock) {
+                -- connectionCount;
+                updateConnectionCount ();
+            }
+        }
+
+        // tell service how many connections we have
+        // drop us from the display if stopped and none left
+        private void updateConnectionCount ()
+        {
+            synchronized (jSessionService.connectionLock) {
+                jSessionService.updateConnectionCount (statusKey,
+                        (finished && (connectionCount == 0)) ? -1 : connectionCount);
+            }
         }
 
         @Override
@@ -133,16 +185,40 @@ public class BluetoothServer {
                 BluetoothAdapter ba = bm.getAdapter ();
                 if (ba == null) throw new Exception ("no bluetooth on this device");
                 serverSocket = ba.listenUsingInsecureRfcommWithServiceRecord ("GPSBlue", sppUUID);
-                synchronized (jSessionService.connectionLock) {
-                    rtlist = new HashSet<> ();
-                    rtarray = nullrtarray;
-                    jSessionService.updateConnectionCount (sppUUID, 0);
+                if (finished) {
+                    // finish() was called before there was a socket for it to close
+                    serverSocket.close ();
+                    serverSocket = null;
+                    return;
                 }
+                updateConnectionCount ();
                 //noinspection InfiniteLoopStatement
                 while (true) {
-                    ReceiveThread rt = new ReceiveThread ();
-                    rt.bs = serverSocket.accept ();
-                    rt.start ();
+                    BluetoothSocket bs = serverSocket.accept ();
+                    InputStream is;
+                    OutputStream os;
+                    try {
+                        is = bs.getInputStream ();
+                        os = bs.getOutputStream ();
+                    } catch (IOException ioe) {
+                        Log.w (GPSBlue.TAG, "error opening bluetooth connection", ioe);
+                        try { bs.close (); } catch (IOException ignored) { }
+                        continue;
+                    }
+                    int mtu = DEFAULT_MTU;
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                        int max = bs.getMaxTransmitPacketSize ();
+                        if (max > 0) mtu = max;
+                    }
+
+                    // update the total number of inbound connections
+                    // this also makes sure the GPS is turned on and locks the CPU on
+                    synchronized (jSessionService.connectionLock) {
+                        connectionCount ++;
+                        updateConnectionCount ();
+                    }
+                    jSessionService.transportHub.addStream (is, os, bs, mtu,
+                            bs.getRemoteDevice ().getAddress (), outputFormat, this);
                 }
             } catch (Exception e) {
                 Log.w (GPSBlue.TAG, "error accepting bluetooth " + sppUUID, e);
@@ -150,61 +226,8 @@ public class BluetoothServer {
                 serverSocket = null;
                 if (! finished) {
                     jSessionService.fatalError ("Bluetooth Error",
-                            "try starting bluetooth\nor try different UUID\n\n" + e.getMessage ());
-                }
-            }
-        }
-    }
-
-    // we have a new inbound connection
-    // this thread runs as long as that device is connected
-    // we don't really receive anything meaningful from the device,
-    // ...but we use this thread to sense when it disconnects
-    private class ReceiveThread extends Thread {
-        public BluetoothSocket bs;
-        public boolean senderr;
-        public OutputStream os;
-
-        // drop connection and get thread to exit
-        public void finish ()
-        {
-            try { bs.close (); } catch (IOException ignored) { }
-            try { join (); } catch (InterruptedException ignored) { }
-        }
-
-        @Override
-        public void run ()
-        {
-            try {
-                os = bs.getOutputStream ();
-
-                // update list of who to send NMEA messages to
-                // update the total number of inbound connections
-                // this also makes sure the GPS is turned on and locks the CPU on
-                synchronized (jSessionService.connectionLock) {
-                    rtlist.add (this);
-                    rtarray = rtlist.toArray (nullrtarray);
-                    jSessionService.updateConnectionCount (sppUUID, rtarray.length);
-                }
-
-                // read from the connection simply to detect when it disconnects
-                byte[] buf = new byte[4096];
-                InputStream is = bs.getInputStream ();
-                while (! senderr) {
-                    int rc = is.read (buf);
-                    if (rc <= 0) break;
-                }
-            } catch (IOException ioe) {
-                Log.w (GPSBlue.TAG, "error receiving from bluetooth", ioe);
-            } finally {
-
-                // close the socket and tell service one less connection being handled
-                // if no connections, turn the GPS receiver off and unlock CPU
-                try { bs.close (); } catch (IOException ignored) { }
-                synchronized (jSessionService.connectionLock) {
-                    rtlist.remove (this);
-                    rtarray = rtlist.toArray (nullrtarray);
-                    jSessionService.updateConnectionCount (sppUUID, rtarray.length);
+                            "try starting bluetooth\nor try different UUID\n\n" +
+                            sppUUID.toString ().toUpperCase () + "\n" + e.getMessage ());
                 }
             }
         }
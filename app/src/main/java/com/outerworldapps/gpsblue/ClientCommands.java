@@ -0,0 +1,284 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+/**
+ * Commands received from a client to change what it is sent,
+ * so each client can have its own rate, format and sentences:
+ *
+ *   $PGPSB,FORMAT,name           output format, eg, NMEA-RMC, GDL90
+ *   $PGPSB,RATE,hz               epochs per second, eg, 0.2, 0 for all
+ *   $PGPSB,NMEA,sentence,...     NMEA sentences to output, eg, RMC,GGA
+ *   $PMTK220,ms                  milliseconds between fixes
+ *   $PMTK314,gll,rmc,vtg,gga,gsa,gsv,...
+ *                                NMEA sentences, non-zero to output, ZDA is 18th
+ *   $PMTK314,-1                  back to the format the connection started with
+ *   $PUBX,40,msg,rddc,rus1,rus2,rusb,rspi
+ *                                turn an NMEA sentence on (any rate non-zero) or off
+ *
+ * Checksums are optional so commands can be typed by hand, but must be
+ * right if given.  PGPSB commands are answered with $PGPSB,ACK,cmd or
+ * $PGPSB,NAK,cmd and PMTK commands with $PMTK001,cmd,flag.  Rates slower
+ * than the GPS rate setting skip epochs, faster just get every epoch.
+ * Changes take effect with the next epoch.
+ *
+ * Bytes are parsed as they arrive without creating any garbage,
+ * only the replies are allocated.
+ * Called only in the TransportHub thread servicing the connection.
+ */
+public class ClientCommands {
+    private final static int MAXLINE = 128;
+    private final static int MAXFIELDS = 24;
+
+    // PMTK314 field for each NMEAEncoder sentence bit, -1 if none
+    private final static int[] pmtk314fields = { 3, 1, 5, 4, 2, 0, 17, -1 };
+
+    private final byte[] line = new byte[MAXLINE];
+    private int len = -1;       // bytes in line so far, -1 if waiting for '$'
+    private final int[] fieldStarts = new int[MAXFIELDS];
+    private final int[] fieldEnds = new int[MAXFIELDS];
+    private int nfields;
+    private Connection conn;
+    private OutputFormat initialFormat;
+    private OutputFormats outputFormats;
+    private TransportHub transportHub;
+
+    public ClientCommands (OutputFormats formats, TransportHub hub, Connection conn)
+    {
+        outputFormats = formats;
+        transportHub = hub;
+        this.conn = conn;
+        initialFormat = conn.format;
+    }
+
+    /**
+     * Bytes received from the client, execute any commands completed by them.
+     */
+    public void received (byte[] buf, int n)
+    {
+        for (int i = 0; i < n; i ++) {
+            byte b = buf[i];
+            if (b == '$') {
+                len = 0;
+            } else if ((b == '\r') || (b == '\n')) {
+                if (len > 0) execute ();
+                len = -1;
+            } else if (len >= 0) {
+                // overlong line, discard it
+                if (len == MAXLINE) len = -1;
+                else line[len++] = b;
+            }
+        }
+    }
+
+    // line contains a whole command without the $ or line terminator
+    private void execute ()
+    {
+        // check and strip checksum, if any
+        int end = len;
+        int xor = 0;
+        for (int i = 0; i < len; i ++) {
+            if (line[i] == '*') {
+                if ((len != i + 3) || (hexdig (line[i+1]) * 16 + hexdig (line[i+2]) != xor)) return;
+                end = i;
+                break;
+            }
+            xor ^= line[i];
+        }
+
+        // find start and end of each field
+        nfields = 0;
+        int start = 0;
+        for (int i = 0; i <= end; i ++) {
+            if ((i == end) || (line[i] == ',')) {
+                if (nfields == MAXFIELDS) return;
+                fieldStarts[nfields] = start;
+                fieldEnds[nfields++] = i;
+                start = i + 1;
+            }
+        }
+
+        if (fieldIs (0, "PGPSB")) {
+            pgpsb ();
+        } else if (fieldIs (0, "PMTK220")) {
+            int ms = fieldInt (1);
+            if ((ms >= 100) && (ms <= 10000)) {
+                conn.intervalMs = ms;
+                reply ("PMTK001,220,3");
+            } else {
+                reply ("PMTK001,220,2");
+            }
+        } else if (fieldIs (0, "PMTK314")) {
+            if (fieldInt (1) == -1) {
+                conn.format = initialFormat;
+            } else {
+                int sentences = 0;
+                for (int i = 0; i < pmtk314fields.length; i ++) {
+                    int f = pmtk314fields[i] + 1;
+                    if ((f > 0) && (f < nfields) && (fieldInt (f) > 0)) sentences |= 1 << i;
+                }
+                setSentences (sentences);
+            }
+            reply ("PMTK001,314,3");
+        } else if (fieldIs (0, "PUBX") && fieldIs (1, "40") && (nfields > 2)) {
+            int bit = sentenceBit (2);
+            if (bit != 0) {
+                boolean on = false;
+                for (int f = 3; f < nfields; f ++) {
+                    if (fieldInt (f) > 0) on = true;
+                }
+                OutputFormat format = conn.format;
+                int sentences = ((format != null) && (format.encoder instanceof NMEAEncoder)) ?
+                        ((NMEAEncoder) format.encoder).getSentences () : 0;
+                setSentences (on ? sentences | bit : sentences & ~ bit);
+            }
+        }
+    }
+
+    // $PGPSB,command,...
+    private void pgpsb ()
+    {
+        boolean ok = false;
+        if (fieldIs (1, "FORMAT") && (nfields == 3)) {
+            OutputFormat format = outputFormats.find (line,
+                    fieldStarts[2], fieldEnds[2] - fieldStarts[2]);
+            if (format != null) {
+                conn.format = format;
+                ok = true;
+            }
+        } else if (fieldIs (1, "RATE") && (nfields == 3)) {
+            long millihz = fieldMillis (2);
+            if (millihz == 0) {
+                conn.intervalMs = 0;
+                ok = true;
+            } else if (millihz > 0) {
+                conn.intervalMs = (int) Math.max (1, 1000000 / millihz);
+                ok = true;
+            }
+        } else if (fieldIs (1, "NMEA") && (nfields > 2)) {
+            int sentences = 0;
+            ok = true;
+            for (int f = 2; f < nfields; f ++) {
+                int bit = sentenceBit (f);
+                if (bit == 0) ok = false;
+                sentences |= bit;
+            }
+            if (ok) setSentences (sentences);
+        }
+        if (nfields > 1) {
+            StringBuilder sb = new StringBuilder (ok ? "PGPSB,ACK," : "PGPSB,NAK,");
+            sb.append (new String (line, fieldStarts[1], fieldEnds[1] - fieldStarts[1]));
+            reply (sb.toString ());
+        }
+    }
+
+    // switch to NMEA with the given sentences, nothing if none
+    private void setSentences (int sentences)
+    {
+        conn.format = (sentences == 0) ? null : outputFormats.getNMEA (sentences);
+    }
+
+    // send response sentence to client
+    // rare enough that a new buffer each time is ok
+    private void reply (String body)
+    {
+        int xor = 0;
+        for (int i = 0; i < body.length (); i ++) xor ^= body.charAt (i);
+        String str = "$" + body + "*" + Integer.toHexString (0x100 | xor).substring (1).toUpperCase () + "\r\n";
+        EpochBuffer eb = new EpochBuffer ();
+        eb.ensure (str.length ());
+        for (int i = 0; i < str.length (); i ++) eb.bytes[i] = (byte) str.charAt (i);
+        eb.length = str.length ();
+        transportHub.send (conn, eb);
+    }
+
+    // see if field matches the given string, ignoring case
+    private boolean fieldIs (int f, String str)
+    {
+        if (f >= nfields) return false;
+        int start = fieldStarts[f];
+        if (fieldEnds[f] - start != str.length ()) return false;
+        for (int i = 0; i < str.length (); i ++) {
+            if (Character.toUpperCase ((char) line[start+i]) != str.charAt (i)) return false;
+        }
+        return true;
+    }
+
+    // get NMEAEncoder bit for sentence named by field, eg, RMC, 0 if unknown
+    private int sentenceBit (int f)
+    {
+        for (int i = 0; i < NMEAEncoder.NAMES.length; i ++) {
+            if (fieldIs (f, NMEAEncoder.NAMES[i])) return 1 << i;
+        }
+        return 0;
+    }
+
+    // get decimal integer field, Integer.MIN_VALUE if bad
+    private int fieldInt (int f)
+    {
+        if (f >= nfields) return Integer.MIN_VALUE;
+        int i = fieldStarts[f];
+        int end = fieldEnds[f];
+        boolean neg = (i < end) && (line[i] == '-');
+        if (neg) i ++;
+        if ((i == end) || (end - i > 9)) return Integer.MIN_VALUE;
+        int val = 0;
+        for (; i < end; i ++) {
+            int d = line[i] - '0';
+            if ((d < 0) || (d > 9)) return Integer.MIN_VALUE;
+            val = val * 10 + d;
+        }
+        return neg ? - val : val;
+    }
+
+    // get decimal number field in thousandths, eg, 0.2 => 200, -1 if bad
+    private long fieldMillis (int f)
+    {
+        if (f >= nfields) return -1;
+        long val = 0;
+        int scale = -1;
+        int end = fieldEnds[f];
+        if ((fieldStarts[f] == end) || (end - fieldStarts[f] > 12)) return -1;
+        for (int i = fieldStarts[f]; i < end; i ++) {
+            byte b = line[i];
+            if ((b == '.') && (scale < 0)) {
+                scale = 0;
+                continue;
+            }
+            int d = b - '0';
+            if ((d < 0) || (d > 9)) return -1;
+            if (scale < 3) {
+                val = val * 10 + d;
+                if (scale >= 0) scale ++;
+            }
+        }
+        for (scale = Math.max (scale, 0); scale < 3; scale ++) val *= 10;
+        return val;
+    }
+
+    private static int hexdig (byte b)
+    {
+        if ((b >= '0') && (b <= '9')) return b - '0';
+        if ((b >= 'A') && (b <= 'F')) return b - 'A' + 10;
+        if ((b >= 'a') && (b <= 'f')) return b - 'a' + 10;
+        return 256;
+    }
+}
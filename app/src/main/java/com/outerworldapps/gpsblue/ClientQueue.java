@@ -0,0 +1,111 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+/**
+ * Short queue of encoded epochs waiting to be written to one client.
+ * The GPS receiver thread puts buffers on the queue without blocking
+ * and the client's writer takes them off and writes them.
+ *
+ * If the client falls behind, an epoch replaces any older queued epoch
+ * with the same parts (latest wins), and if the queue is still full the
+ * oldest epoch is dropped.  Either way the drop is counted.
+ * Raw NMEA sentences never replace each other as each buffer holds
+ * different sentences.
+ */
+public class ClientQueue {
+    public final static int CAPACITY = 4;
+
+    private final EpochBuffer[] queue = new EpochBuffer[CAPACITY];
+    private int count;
+    private boolean closed;
+    private long dropped;
+    private long sent;
+
+    /**
+     * Queue buffer to be written to client.
+     * Called in InternalGps.GPSRcvrThread.
+     */
+    public synchronized void put (EpochBuffer eb)
+    {
+        if (closed) return;
+
+        // remove older epoch with same parts, else oldest if full
+        // one-off buffers (no parts) and raw NMEA don't replace each other
+        boolean replaces = (eb.parts != 0) && ((eb.parts & GpsEpoch.NMEA) == 0);
+        int i;
+        for (i = 0; i < count; i ++) {
+            if (replaces && (queue[i].parts == eb.parts)) break;
+        }
+        if ((i == count) && (count == CAPACITY)) i = 0;
+        if (i < count) {
+            queue[i].release ();
+            System.arraycopy (queue, i + 1, queue, i, -- count - i);
+            dropped ++;
+        }
+
+        eb.retain ();
+        queue[count++] = eb;
+    }
+
+    /**
+     * Get next buffer to write to client without waiting.
+     * Caller must release() the buffer when done with it.
+     * @return null if queue empty
+     */
+    public synchronized EpochBuffer poll ()
+    {
+        return (count == 0) ? null : remove ();
+    }
+
+    /**
+     * Release all queued buffers, nothing more gets queued.
+     */
+    public synchronized void close ()
+    {
+        closed = true;
+        while (count > 0) queue[--count].release ();
+    }
+
+    public synchronized int getQueued ()
+    {
+        return count;
+    }
+
+    public synchronized long getDropped ()
+    {
+        return dropped;
+    }
+
+    public synchronized long getSent ()
+    {
+        return sent;
+    }
+
+    private EpochBuffer remove ()
+    {
+        EpochBuffer eb = queue[0];
+        System.arraycopy (queue, 1, queue, 0, -- count);
+        queue[count] = null;
+        sent ++;
+        return eb;
+    }
+}
@@ -0,0 +1,55 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+/**
+ * One client connection serviced by the TransportHub.
+ * Epochs get queued to it by the GPS receiver thread and written by
+ * the hub's event loop or one of its blocking pool threads.
+ */
+public abstract class Connection {
+    public final String name;
+    public final Transport transport;
+    public final ClientQueue queue = new ClientQueue ();
+    public final StallMeter stalls = new StallMeter ();
+    public volatile OutputFormat format;        // null to not send epochs
+    public volatile int intervalMs;             // send at most one epoch per this much UTC time, 0 for all
+    public long lastLocationSlot = -1;          // UTC time / intervalMs of last location sent, GPS thread only
+    public long lastSatellitesSlot = -1;        // received ms / intervalMs of last satellites sent, GPS thread only
+    public Object attachment;                   // for use by the transport
+
+    public volatile boolean closed;             // closed and removed from hub
+    public volatile boolean closeRequested;     // to be closed by servicing thread
+    public volatile boolean closeWhenSent;      // close once everything queued has been sent
+    public volatile long writeStartNanos;       // System.nanoTime() since write has been waiting, 0 if not
+    public volatile long deadlineNanos;         // System.nanoTime() to be closed by unless cleared, 0 if none
+
+    protected Connection (String name, OutputFormat format, Transport transport)
+    {
+        this.name = name;
+        this.format = format;
+        this.transport = transport;
+    }
+
+    // close the underlying socket
+    // may be called in any thread, more than once
+    protected abstract void closeSocket ();
+}
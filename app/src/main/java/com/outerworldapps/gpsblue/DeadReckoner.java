@@ -0,0 +1,117 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+/**
+ * Predict where we are between GPS fixes from the latest fix's
+ * speed, course, vertical speed and the turn rate seen over the
+ * last few fixes.  Predictions are shifted forward by the average
+ * latency from when a fix is taken to when we receive it, so they
+ * are for about when the client receives them.
+ * Used only in InternalGps.GPSRcvrThread.
+ */
+public class DeadReckoner {
+    private final static double EARTH_RADIUS  = 6371000.0;  // metres
+    private final static long MAX_EXTRAPOLATE = 3000000000L; // don't predict more than 3 sec past fix
+    private final static double MIN_TURN_SPEED = 2.0;       // m/s, course is noise below this
+    private final static double MAX_TURN_RATE = 20.0;       // degrees per second
+    private final static double SMOOTHING     = 0.3;
+
+    private final GpsEpoch lastFix = new GpsEpoch ();
+    private double latency;     // average nanoseconds from fix to received
+    private double turnRate;    // degrees per second, clockwise is positive
+
+    // forget all history, eg, GPS receiver restarted
+    public void reset ()
+    {
+        lastFix.hasLocation = false;
+        latency  = 0.0;
+        turnRate = 0.0;
+    }
+
+    /**
+     * A real location was just received from the GPS receiver.
+     */
+    public void fix (GpsEpoch epoch)
+    {
+        double lat = epoch.receivedNanos - epoch.elapsedNanos;
+        if ((lat >= 0.0) && (lat < 1.0E9)) {
+            latency = (latency == 0.0) ? lat : latency + (lat - latency) * SMOOTHING;
+        }
+
+        double rate = 0.0;
+        if (lastFix.hasLocation && lastFix.hasBearing && epoch.hasBearing &&
+                (epoch.speed >= MIN_TURN_SPEED) && (epoch.elapsedNanos > lastFix.elapsedNanos)) {
+            double diff = epoch.bearing - lastFix.bearing;
+            while (diff < -180.0) diff += 360.0;
+            while (diff >= 180.0) diff -= 360.0;
+            rate = diff * 1.0E9 / (epoch.elapsedNanos - lastFix.elapsedNanos);
+            if (rate < -MAX_TURN_RATE) rate = -MAX_TURN_RATE;
+            if (rate >  MAX_TURN_RATE) rate =  MAX_TURN_RATE;
+        }
+        turnRate += (rate - turnRate) * SMOOTHING;
+
+        lastFix.copyLocation (epoch);
+    }
+
+    /**
+     * Fill in out's location with the position predicted for the given time plus latency.
+     * @param nowNanos = SystemClock.elapsedRealtimeNanos()
+     * @return false if no recent enough fix to predict from
+     */
+    public boolean extrapolate (GpsEpoch out, long nowNanos)
+    {
+        if (! lastFix.hasLocation) return false;
+        long dtnanos = nowNanos + (long) latency - lastFix.elapsedNanos;
+        if ((dtnanos < 0) || (dtnanos > MAX_EXTRAPOLATE)) return false;
+        double dt = dtnanos / 1.0E9;
+
+        out.copyLocation (lastFix);
+        out.extrapolated = true;
+        out.time += dtnanos / 1000000;
+        out.elapsedNanos += dtnanos;
+
+        double speed = lastFix.hasSpeed ? lastFix.speed : 0.0;
+        double crs0  = Math.toRadians (lastFix.bearing);
+        double north, east;
+        double w = (lastFix.hasBearing && (speed >= MIN_TURN_SPEED)) ? Math.toRadians (turnRate) : 0.0;
+        if (Math.abs (w) < 1.0E-4) {
+            north = speed * dt * Math.cos (crs0);
+            east  = speed * dt * Math.sin (crs0);
+        } else {
+            // constant speed and turn rate gives an arc
+            double crs1 = crs0 + w * dt;
+            north = speed / w * (Math.sin (crs1) - Math.sin (crs0));
+            east  = speed / w * (Math.cos (crs0) - Math.cos (crs1));
+            double bearing = Math.toDegrees (crs1) % 360.0;
+            out.bearing = (bearing < 0.0) ? bearing + 360.0 : bearing;
+        }
+
+        out.latitude  += Math.toDegrees (north / EARTH_RADIUS);
+        out.longitude += Math.toDegrees (east / (EARTH_RADIUS * Math.cos (Math.toRadians (lastFix.latitude))));
+        if (out.longitude >= 180.0) out.longitude -= 360.0;
+        if (out.longitude < -180.0) out.longitude += 360.0;
+        if (lastFix.hasVerticalSpeed) {
+            out.altitude += lastFix.verticalSpeed * dt;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,156 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bytes encoded by an OutputEncoder for one GpsEpoch.
+ * Once encoded, the buffer is shared by all clients using the same
+ * format and must not be modified until it is released by all of them.
+ * Buffers are reference counted so they can sit in client queues and
+ * get recycled by their OutputFormat when the last client is done.
+ */
+public class EpochBuffer {
+    public byte[] bytes;
+    public int length;
+    public int parts;       // GpsEpoch.parts the bytes were encoded from
+    public long seq;        // GpsEpoch.seq the bytes were encoded from
+
+    private final OutputFormat owner;
+    private int refs;
+    private ByteBuffer direct;      // copy of bytes for channel writes
+    private boolean directValid;    // direct holds the current bytes
+
+    public EpochBuffer ()
+    {
+        this (null);
+    }
+
+    public EpochBuffer (OutputFormat owner)
+    {
+        this.owner = owner;
+        bytes = new byte[1024];
+        seq = -1;
+    }
+
+    // make sure there is room for n more bytes
+    public void ensure (int n)
+    {
+        bytes = ensure (bytes, length, n);
+    }
+
+    /*******************************************************\
+     *  Formatting shared by the encoders that write        *
+     *  straight into a byte array, NMEA and JSON.          *
+     *  Each takes the array and its length so far and      *
+     *  returns the new array or length.                    *
+    \*******************************************************/
+
+    private final static long[] powers10 = { 1L, 10L, 100L, 1000L, 10000L, 100000L,
+                                             1000000L, 10000000L, 100000000L, 1000000000L };
+
+    public final static int PUTINT_MAX   = 21;  // most bytes putInt() appends
+    public final static int PUTFIXED_MAX = 32;  // most bytes putFixed() appends
+
+    // make sure buf has room for n bytes after len, returning a bigger copy if not
+    public static byte[] ensure (byte[] buf, int len, int n)
+    {
+        if (len + n > buf.length) {
+            byte[] newbuf = new byte[Math.max (buf.length * 2, len + n)];
+            System.arraycopy (buf, 0, newbuf, 0, len);
+            buf = newbuf;
+        }
+        return buf;
+    }
+
+    // append integer, zero-padded on the left to at least the given number of digits
+    // caller makes sure there is room for PUTINT_MAX bytes
+    public static int putInt (byte[] buf, int len, long val, int mindigs)
+    {
+        if (val < 0) {
+            buf[len++] = '-';
+            val = - val;
+        }
+        int ndigs = 1;
+        for (long v = val; v >= 10; v /= 10) ndigs ++;
+        if (ndigs < mindigs) ndigs = mindigs;
+        int i = len + ndigs;
+        len = i;
+        do {
+            buf[--i] = (byte) ('0' + (int) (val % 10));
+            val /= 10;
+        } while (-- ndigs > 0);
+        return len;
+    }
+
+    // append fixed-point number rounded to the given number of decimal places
+    // caller makes sure there is room for PUTFIXED_MAX bytes
+    public static int putFixed (byte[] buf, int len, double val, int decs)
+    {
+        long scaled = Math.round (val * powers10[decs]);
+        if (scaled < 0) {
+            buf[len++] = '-';
+            scaled = - scaled;
+        }
+        len = putInt (buf, len, scaled / powers10[decs], 1);
+        if (decs > 0) {
+            buf[len++] = '.';
+            len = putInt (buf, len, scaled % powers10[decs], decs);
+        }
+        return len;
+    }
+
+    /**
+     * Get the bytes in a direct buffer for writing to channels.
+     * Copied once however many channels write it, caller sets position and limit.
+     * Called only in the TransportHub event loop.
+     */
+    public ByteBuffer getDirect ()
+    {
+        if (! directValid) {
+            if ((direct == null) || (direct.capacity () < length)) {
+                direct = ByteBuffer.allocateDirect (Math.max (bytes.length, length));
+            }
+            direct.clear ();
+            direct.put (bytes, 0, length);
+            directValid = true;
+        }
+        return direct;
+    }
+
+    // someone else is hanging on to the buffer
+    public synchronized void retain ()
+    {
+        refs ++;
+    }
+
+    // someone is done with the buffer, recycle it if last one
+    public void release ()
+    {
+        boolean free;
+        synchronized (this) {
+            free = -- refs == 0;
+            if (free) directValid = false;
+        }
+        if (free && (owner != null)) owner.recycle (this);
+    }
+}
@@ -0,0 +1,172 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+/**
+ * Encode the whole epoch as compact length-prefixed binary records
+ * for in-house consumers that want every value Location provides.
+ * All values are big-endian, floating point values are IEEE bit images.
+ *
+ *   u16 length of rest of record
+ *   u8  record type 'L' or 'S'
+ *   u8  version = 1
+ *   i64 seq
+ *   i64 elapsedRealtimeNanos when received
+ *
+ *   'L' location:
+ *     u16 flags (FL_...), fields that are not present are zero,
+ *         FL_EXTRAPOLATED if dead-reckoned rather than from the receiver,
+ *         FL_STALE if an old location sent to a client that just connected
+ *     i64 UTC time ms, i64 elapsedRealtimeNanos of fix
+ *     f64 latitude, f64 longitude, f64 altitude
+ *     f32 speed, bearing, vertical speed
+ *     f32 accuracy, vertical accuracy, speed accuracy, bearing accuracy
+ *
+ *   'S' satellites:
+ *     u16 count, then count of
+ *       u8 constellation, u8 flags (1=used), u16 prn
+ *       f32 elevation, f32 azimuth, f32 snr
+ *
+ * Records are written field-by-field straight into the epoch buffer.
+ */
+public class FeedEncoder implements OutputEncoder {
+    public final static int FL_ALTITUDE     = 0x0001;
+    public final static int FL_SPEED        = 0x0002;
+    public final static int FL_BEARING      = 0x0004;
+    public final static int FL_VERTSPEED    = 0x0008;
+    public final static int FL_ACCURACY     = 0x0010;
+    public final static int FL_VERTACCURACY = 0x0020;
+    public final static int FL_SPEEDACCURACY = 0x0040;
+    public final static int FL_BEARINGACCURACY = 0x0080;
+    public final static int FL_EXTRAPOLATED = 0x0100;
+    public final static int FL_STALE        = 0x0200;
+
+    private final static int HEADER_LEN = 2 + 1 + 1 + 8 + 8;
+    private final static int LOCATION_LEN = HEADER_LEN + 2 + 8 + 8 + 3 * 8 + 7 * 4;
+    private final static int SATELLITE_LEN = 1 + 1 + 2 + 3 * 4;
+
+    private byte[] buf;
+    private int len;
+
+    @Override  // OutputEncoder
+    public String getName ()
+    {
+        return "FEED-BIN";
+    }
+
+    @Override  // OutputEncoder
+    public void encode (GpsEpoch epoch, EpochBuffer out)
+    {
+        if ((epoch.parts & GpsEpoch.LOCATION) != 0) {
+            out.ensure (LOCATION_LEN);
+            buf = out.bytes;
+            len = out.length;
+            putHeader (epoch, 'L', LOCATION_LEN);
+
+            int flags = 0;
+            if (epoch.hasAltitude)         flags |= FL_ALTITUDE;
+            if (epoch.hasSpeed)            flags |= FL_SPEED;
+            if (epoch.hasBearing)          flags |= FL_BEARING;
+            if (epoch.hasVerticalSpeed)    flags |= FL_VERTSPEED;
+            if (epoch.hasAccuracy)         flags |= FL_ACCURACY;
+            if (epoch.hasVerticalAccuracy) flags |= FL_VERTACCURACY;
+            if (epoch.hasSpeedAccuracy)    flags |= FL_SPEEDACCURACY;
+            if (epoch.hasBearingAccuracy)  flags |= FL_BEARINGACCURACY;
+            if (epoch.extrapolated)        flags |= FL_EXTRAPOLATED;
+            if (epoch.stale)               flags |= FL_STALE;
+            putShort (flags);
+            putLong (epoch.time);
+            putLong (epoch.elapsedNanos);
+            putDouble (epoch.latitude);
+            putDouble (epoch.longitude);
+            putDouble (epoch.hasAltitude ? epoch.altitude : 0.0);
+            putFloat (epoch.hasSpeed ? epoch.speed : 0.0);
+            putFloat (epoch.hasBearing ? epoch.bearing : 0.0);
+            putFloat (epoch.hasVerticalSpeed ? epoch.verticalSpeed : 0.0);
+            putFloat (epoch.hasAccuracy ? epoch.accuracy : 0.0);
+            putFloat (epoch.hasVerticalAccuracy ? epoch.verticalAccuracy : 0.0);
+            putFloat (epoch.hasSpeedAccuracy ? epoch.speedAccuracy : 0.0);
+            putFloat (epoch.hasBearingAccuracy ? epoch.bearingAccuracy : 0.0);
+            out.length = len;
+        }
+
+        if ((epoch.parts & GpsEpoch.SATELLITES) != 0) {
+            MyGpsSatellite[] satellites = epoch.satellites;
+            int nsats = Math.min (satellites.length, (65535 - HEADER_LEN - 2) / SATELLITE_LEN);
+            int reclen = HEADER_LEN + 2 + nsats * SATELLITE_LEN;
+            out.ensure (reclen);
+            buf = out.bytes;
+            len = out.length;
+            putHeader (epoch, 'S', reclen);
+            putShort (nsats);
+            for (int i = 0; i < nsats; i ++) {
+                MyGpsSatellite sat = satellites[i];
+                buf[len++] = (byte) sat.constellation;
+                buf[len++] = (byte) (sat.used ? 1 : 0);
+                putShort (sat.prn);
+                putFloat (sat.elev);
+                putFloat (sat.azim);
+                putFloat (sat.snr);
+            }
+            out.length = len;
+        }
+        buf = null;
+    }
+
+    private void putHeader (GpsEpoch epoch, char type, int reclen)
+    {
+        putShort (reclen - 2);
+        buf[len++] = (byte) type;
+        buf[len++] = 1;
+        putLong (epoch.seq);
+        putLong (epoch.receivedNanos);
+    }
+
+    private void putShort (int v)
+    {
+        buf[len++] = (byte) (v >> 8);
+        buf[len++] = (byte) v;
+    }
+
+    private void putInt (int v)
+    {
+        buf[len++] = (byte) (v >> 24);
+        buf[len++] = (byte) (v >> 16);
+        buf[len++] = (byte) (v >> 8);
+        buf[len++] = (byte) v;
+    }
+
+    private void putLong (long v)
+    {
+        putInt ((int) (v >> 32));
+        putInt ((int) v);
+    }
+
+    private void putFloat (double v)
+    {
+        putInt (Float.floatToRawIntBits ((float) v));
+    }
+
+    private void putDouble (double v)
+    {
+        putLong (Double.doubleToRawLongBits (v));
+    }
+}
@@ -0,0 +1,261 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+/**
+ * Encode location as GDL90 Heartbeat, Ownship Report and
+ * Ownship Geometric Altitude messages.
+ *  https://www.faa.gov/nextgen/programs/adsb/Archival/media/GDL90_Public_ICD_RevA.PDF
+ * Each message is a complete flag-delimited frame, so the encoded
+ * bytes can be written to a stream or sent as a datagram as is.
+ * Heartbeats also go out with satellite updates while there is no fix,
+ * so a receiver sees the device before the first fix.
+ * Not thread safe, each thread that encodes needs its own.
+ */
+public class GDL90Encoder implements OutputEncoder {
+    private final static int FLAG   = 0x7E;
+    private final static int ESCAPE = 0x7D;
+
+    private final static int MSG_HEARTBEAT   = 0;
+    private final static int MSG_OWNSHIP     = 10;
+    private final static int MSG_OWNSHIPGEOM = 11;
+
+    private final static double FtPerM   = 3.28084;
+    private final static double KtPerMPS = 1.94384;
+
+    private final static char[] crctable = MakeCrcTable ();
+
+    private final byte[] msg = new byte[32];
+    private final byte[] callsign;
+    private long lastHeartbeatSec = Long.MIN_VALUE;
+    private long lastHeartbeatNanos = Long.MIN_VALUE / 2;
+    private long lastFixNanos = Long.MIN_VALUE / 2;
+
+    public GDL90Encoder ()
+    {
+        callsign = new byte[] { 'G', 'P', 'S', 'B', 'L', 'U', 'E', ' ' };
+    }
+
+    @Override  // OutputEncoder
+    public String getName ()
+    {
+        return "GDL90";
+    }
+
+    @Override  // OutputEncoder
+    public void encode (GpsEpoch epoch, EpochBuffer out)
+    {
+        if ((epoch.parts & GpsEpoch.LOCATION) != 0) {
+
+            // heartbeat once per UTC second
+            long sec = epoch.time / 1000;
+            if (sec != lastHeartbeatSec) {
+                lastHeartbeatSec = sec;
+                lastHeartbeatNanos = epoch.receivedNanos;
+                putFrame (out, heartbeat (epoch.time, true));
+            }
+            lastFixNanos = epoch.receivedNanos;
+
+            putFrame (out, ownshipReport (epoch));
+            putFrame (out, ownshipGeometric (epoch));
+        } else if ((epoch.receivedNanos - lastFixNanos > 1500000000L) &&
+                   (epoch.receivedNanos - lastHeartbeatNanos >= 900000000L)) {
+
+            // no fixes coming in, keep sending heartbeats on the satellite updates
+            // so the receiver shows up before the first fix, marked position not valid
+            lastHeartbeatNanos = epoch.receivedNanos;
+            putFrame (out, heartbeat (System.currentTimeMillis (), false));
+        }
+    }
+
+    /**
+     * Build heartbeat message in msg[], return its length.
+     */
+    private int heartbeat (long time, boolean fix)
+    {
+        int secofday = (int) ((time / 1000) % 86400);
+        if (secofday < 0) secofday += 86400;
+        msg[0] = MSG_HEARTBEAT;
+        msg[1] = (byte) (fix ? 0x81 : 0x01);                    // GPS position valid; UAT initialized
+        msg[2] = (byte) (((secofday >> 9) & 0x80) | (fix ? 0x01 : 0x00));  // timestamp bit 16; UTC OK
+        msg[3] = (byte) secofday;                               // timestamp bits 0..15
+        msg[4] = (byte) (secofday >> 8);
+        msg[5] = 0;                                             // message counts
+        msg[6] = 0;
+        return 7;
+    }
+
+    /**
+     * Build ownship report message in msg[], return its length.
+     */
+    private int ownshipReport (GpsEpoch epoch)
+    {
+        msg[0] = MSG_OWNSHIP;
+        msg[1] = 0x00;                                          // no alert; ADS-B with ICAO address
+        msg[2] = 0;                                             // participant address
+        msg[3] = 0;
+        msg[4] = 0;
+        put24 (5, SemiCircles (epoch.latitude));
+        put24 (8, SemiCircles (epoch.longitude));
+
+        // no pressure altitude available so use GPS altitude
+        int alt = (int) Math.round ((epoch.altitude * FtPerM + 1000.0) / 25.0);
+        if ((alt < 0) || (alt > 0xFFE)) alt = 0xFFF;
+        msg[11] = (byte) (alt >> 4);
+        msg[12] = (byte) ((alt << 4) | (epoch.extrapolated ? 0x0D : 0x09));  // airborne; extrapolated; true track angle
+
+        msg[13] = (byte) ((NavIntegrity (epoch) << 4) | NavAccuracy (epoch));
+
+        int hvel = (int) Math.round (epoch.speed * KtPerMPS);
+        if (hvel > 0xFFE) hvel = 0xFFE;
+        int vvel = 0x800;                                       // vertical velocity not available
+        if (epoch.hasVerticalSpeed) {
+            vvel = (int) Math.round (epoch.verticalSpeed * FtPerM * 60.0 / 64.0);
+            if (vvel < -510) vvel = -510;                       // 0xE02, more than 32,576 fpm down
+            if (vvel >  510) vvel =  510;                       // 0x1FE, more than 32,576 fpm up
+            vvel &= 0xFFF;
+        }
+        msg[14] = (byte) (hvel >> 4);
+        msg[15] = (byte) ((hvel << 4) | (vvel >> 8));
+        msg[16] = (byte) vvel;
+
+        msg[17] = (byte) Math.round (epoch.bearing * 256.0 / 360.0);
+        msg[18] = 1;                                            // emitter category light
+        System.arraycopy (callsign, 0, msg, 19, 8);
+        msg[27] = 0;                                            // no emergency
+        return 28;
+    }
+
+    /**
+     * Build ownship geometric altitude message in msg[], return its length.
+     */
+    private int ownshipGeometric (GpsEpoch epoch)
+    {
+        int alt = (int) Math.round (epoch.altitude * FtPerM / 5.0);
+        if (alt < -32768) alt = -32768;
+        if (alt >  32767) alt =  32767;
+        msg[0] = MSG_OWNSHIPGEOM;
+        msg[1] = (byte) (alt >> 8);
+        msg[2] = (byte) alt;
+        msg[3] = 0x7F;                                          // no warning; vertical figure of merit unknown
+        msg[4] = (byte) 0xFF;
+        return 5;
+    }
+
+    private void put24 (int i, int val)
+    {
+        msg[i]   = (byte) (val >> 16);
+        msg[i+1] = (byte) (val >> 8);
+        msg[i+2] = (byte) val;
+    }
+
+    // convert degrees to 24-bit semicircles
+    private static int SemiCircles (double deg)
+    {
+        int sc = (int) Math.round (deg * (0x800000 / 180.0));
+        if (sc >  0x7FFFFF) sc =  0x7FFFFF;
+        if (sc < -0x800000) sc = -0x800000;
+        return sc & 0xFFFFFF;
+    }
+
+    // navigation integrity category from accuracy (containment radius)
+    private static int NavIntegrity (GpsEpoch epoch)
+    {
+        if (! epoch.hasAccuracy) return 0;
+        double acc = epoch.accuracy;
+        if (acc <    7.5) return 11;
+        if (acc <   25.0) return 10;
+        if (acc <   75.0) return  9;
+        if (acc <  185.2) return  8;
+        if (acc <  370.4) return  7;
+        if (acc < 1111.2) return  6;
+        return 0;
+    }
+
+    // navigation accuracy category for position from accuracy (estimated position uncertainty)
+    private static int NavAccuracy (GpsEpoch epoch)
+    {
+        if (! epoch.hasAccuracy) return 0;
+        double acc = epoch.accuracy;
+        if (acc <   3.0) return 11;
+        if (acc <  10.0) return 10;
+        if (acc <  30.0) return  9;
+        if (acc <  92.6) return  8;
+        if (acc < 185.2) return  7;
+        if (acc < 555.6) return  6;
+        return 0;
+    }
+
+    /**
+     * Append msg[0..len-1] to the output as a frame:
+     * flag, byte-stuffed message and CRC, flag.
+     */
+    private void putFrame (EpochBuffer out, int len)
+    {
+        // worst case every byte gets escaped
+        out.ensure (len * 2 + 6);
+        byte[] bytes = out.bytes;
+        int i = out.length;
+        int crc = Crc (msg, len);
+        bytes[i++] = FLAG;
+        for (int j = 0; j < len; j ++) {
+            i = putStuffed (bytes, i, msg[j] & 0xFF);
+        }
+        i = putStuffed (bytes, i, crc & 0xFF);
+        i = putStuffed (bytes, i, crc >> 8);
+        bytes[i++] = FLAG;
+        out.length = i;
+    }
+
+    private static int putStuffed (byte[] bytes, int i, int b)
+    {
+        if ((b == FLAG) || (b == ESCAPE)) {
+            bytes[i++] = ESCAPE;
+            b ^= 0x20;
+        }
+        bytes[i++] = (byte) b;
+        return i;
+    }
+
+    // CRC of msg[0..len-1], sent low byte first
+    static int Crc (byte[] msg, int len)
+    {
+        int crc = 0;
+        for (int j = 0; j < len; j ++) {
+            crc = crctable[crc>>8] ^ ((crc << 8) & 0xFFFF) ^ (msg[j] & 0xFF);
+        }
+        return crc;
+    }
+
+    // CRC-CCITT table as given in the GDL90 ICD
+    private static char[] MakeCrcTable ()
+    {
+        char[] table = new char[256];
+        for (int i = 0; i < 256; i ++) {
+            int crc = (i << 8) & 0xFFFF;
+            for (int bitctr = 0; bitctr < 8; bitctr ++) {
+                crc = ((crc << 1) & 0xFFFF) ^ (((crc & 0x8000) != 0) ? 0x1021 : 0);
+            }
+            table[i] = (char) crc;
+        }
+        return table;
+    }
+}
@@ -36,11 +36,13 @@ import android.os.IBinder;
 import android.support.annotation.NonNull;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
+import android.text.InputType;
 import android.util.DisplayMetrics;
 import android.util.TypedValue;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.EditText;
 import android.widget.LinearLayout;
 import android.widget.ScrollView;
 import android.widget.TextView;
@@ -61,6 +63,7 @@ public class GPSBlue extends Activity implements ServiceConnection {
     public  StatusTextView statusTextView;
     public  SatelliteRingView satelliteRingView;
     private ScrollView homeView;
+    private SettingsView settingsView;
     private UUIDView uuidView;
 
     /**
@@ -99,12 +102,36 @@ public class GPSBlue extends Activity implements ServiceConnection {
         uuidView.setVal (UUID.fromString (uuidpref));
         uuidView.setTextSize (TypedValue.COMPLEX_UNIT_PX, textSize);
 
+        // other settings
+        settingsView = new SettingsView (this, prefs);
+        settingsView.addChoice (JSessionService.PREF_OUTPUTFORMAT, "output format",
+                new OutputFormats ().getNames (), OutputFormats.DEFAULT);
+        settingsView.addChoice (JSessionService.PREF_GPSRATE, "GPS rate (Hz)",
+                JSessionService.GPSRATES, JSessionService.GPSRATES[0]);
+        settingsView.addChoice (JSessionService.PREF_DRRATE, "dead reckoning (Hz)",
+                JSessionService.DRRATES, JSessionService.DRRATES[0]);
+        settingsView.addChoice (JSessionService.PREF_SMOOTHING, "smoothing",
+                JSessionService.SMOOTHINGS, JSessionService.SMOOTHINGS[0]);
+        settingsView.addChoice (JSessionService.PREF_OUTPUTTIMING, "output timing",
+                JSessionService.OUTPUTTIMINGS, JSessionService.OUTPUTTIMINGS[0]);
+        settingsView.addChoice (JSessionService.PREF_REPLAY, "send last fix on connect, valid for",
+                JSessionService.REPLAYS, JSessionService.REPLAYS[0]);
+        settingsView.addChoice (JSessionService.PREF_WRITETIMEOUT, "drop client stalled for",
+                JSessionService.WRITETIMEOUTS, JSessionService.WRITETIMEOUTS[0]);
+        settingsView.addText (JSessionService.PREF_MOREUUIDS, "More bluetooth UUIDs, eg 00001102,... (blank for none)");
+        settingsView.addNumber (JSessionService.PREF_TCPPORT, "TCP port (blank for none)");
+        settingsView.addNumber (JSessionService.PREF_HTTPPORT, "HTTP port for browsers (blank for none)");
+        settingsView.addText (JSessionService.PREF_LOCALNAME, "Local socket name for apps on this device (blank for none)");
+        settingsView.addText (JSessionService.PREF_UDPDESTS, "UDP to ipaddr:port,... (blank for none)");
+        settingsView.addText (JSessionService.PREF_RINGFILE, "Ring file name for polling apps (blank for none)");
+
         // bundle them together in a vertically scrollable linear layout
         LinearLayout statusLinearLayout = new LinearLayout (this);
         statusLinearLayout.setOrientation (LinearLayout.VERTICAL);
         statusLinearLayout.addView (satelliteRingView);
         statusLinearLayout.addView (statusTextView);
         statusLinearLayout.addView (uuidView);
+        statusLinearLayout.addView (settingsView);
 
         // make all that scrollable in case it overflows screen
         homeView = new ScrollView (this);
@@ -223,7 +250,8 @@ public class GPSBlue extends Activity implements ServiceConnection {
         SharedPreferences.Editor editr = prefs.edit ();
         editr.putString ("btsppuuid", uuid.toString ());
         editr.apply ();
-        jSessionService.startListening (uuid);
+        settingsView.save ();
+        jSessionService.startListening (uuid, prefs);
 
         runOnUiThread (new Runnable () {
             @Override
@@ -278,6 +306,7 @@ public class GPSBlue extends Activity implements ServiceConnection {
         menu.add ("Close UI");
         menu.add ("Start BT");
         menu.add ("Stop BT");
+        menu.add ("BT UUIDs");
         menu.add ("Help");
         menu.add ("Home");
 
@@ -300,6 +329,9 @@ public class GPSBlue extends Activity implements ServiceConnection {
             if ("Stop BT".contentEquals (sel)) {
                 StopBt ();
             }
+            if ("BT UUIDs".contentEquals (sel)) {
+                EditUUIDs ();
+            }
             if ("Help".contentEquals (sel)) {
                 setContentView (helpView);
             }
@@ -329,6 +361,7 @@ public class GPSBlue extends Activity implements ServiceConnection {
             running = true;
             statusTextView.updateText ();
             uuidView.setVisibility (View.GONE);
+            settingsView.setVisibility (View.GONE);
 
             /*
              * Start JSessionService if not already running.
@@ -347,6 +380,56 @@ public class GPSBlue extends Activity implements ServiceConnection {
         }
     }
 
+    /**
+     * User clicked BT UUIDs - change the more bluetooth UUIDs setting while running
+     * without disturbing clients on UUIDs that are kept.  When stopped, it is on the
+     * home screen with the other settings.
+     */
+    private void EditUUIDs ()
+    {
+        if (jSessionService == null) {
+            setContentView (homeView);
+            return;
+        }
+
+        final SharedPreferences prefs = getPreferences (Context.MODE_PRIVATE);
+        final EditText editText = new EditText (this);
+        editText.setInputType (InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS);
+        editText.setSingleLine ();
+        SetTextSize (editText);
+        editText.setText (prefs.getString (JSessionService.PREF_MOREUUIDS, ""));
+
+        AlertDialog.Builder adb = new AlertDialog.Builder (this);
+        adb.setTitle ("More bluetooth UUIDs");
+        adb.setView (editText);
+        adb.setPositiveButton ("OK", new DialogInterface.OnClickListener () {
+            @Override
+            public void onClick (DialogInterface dialog, int which)
+            {
+                String more = editText.getText ().toString ().trim ();
+                String old = prefs.getString (JSessionService.PREF_MOREUUIDS, "");
+                SharedPreferences.Editor editr = prefs.edit ();
+                editr.putString (JSessionService.PREF_MOREUUIDS, more);
+                editr.apply ();
+                try {
+                    if (jSessionService != null) jSessionService.changeBluetoothUUIDs (prefs);
+                    settingsView.setText (JSessionService.PREF_MOREUUIDS, more);
+                } catch (IllegalArgumentException iae) {
+                    // leave everything as it was
+                    editr.putString (JSessionService.PREF_MOREUUIDS, old);
+                    editr.apply ();
+                    AlertDialog.Builder eadb = new AlertDialog.Builder (GPSBlue.this);
+                    eadb.setTitle ("Bluetooth Error");
+                    eadb.setMessage ("check more UUIDs\n\n" + iae.getMessage ());
+                    eadb.setPositiveButton ("OK", null);
+                    eadb.show ();
+                }
+            }
+        });
+        adb.setNegativeButton ("Cancel", null);
+        adb.show ();
+    }
+
     /**
      * User clicked Stop - abort any connections and stop listening and stop service
      */
@@ -358,6 +441,7 @@ public class GPSBlue extends Activity implements ServiceConnection {
         }
         stopService (jsessionserviceintent);
         uuidView.setVisibility (View.VISIBLE);
+        settingsView.setVisibility (View.VISIBLE);
         running = false;
         statusTextView.updateText ();
     }
@@ -0,0 +1,96 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+/**
+ * One GPS epoch, ie, whatever was just received from the GPS receiver
+ * along with the most recent of everything else, in a form that does
+ * not depend on Android classes so it can be handed to any OutputEncoder.
+ * Filled in and read only by InternalGps.GPSRcvrThread.
+ */
+public class GpsEpoch {
+    public final static int LOCATION   = 1;  // location fields were just updated
+    public final static int SATELLITES = 2;  // satellites array was just updated
+    public final static int NMEA       = 4;  // raw NMEA sentences were just received from the chipset
+
+    public  final static MyGpsSatellite[] nullsatarray = new MyGpsSatellite[0];
+
+    public long seq;        // incremented each time something is received
+    public int parts;       // what was received for this seq (LOCATION, SATELLITES, NMEA)
+    public long receivedNanos;  // SystemClock.elapsedRealtimeNanos() when received
+
+    public boolean hasLocation;
+    public boolean extrapolated;    // location was predicted, not received from GPS
+    public boolean stale;           // old location replayed to a new client, not current
+    public long time;       // milliseconds since 1970-01-01 00:00 UTC
+    public long elapsedNanos;   // SystemClock.elapsedRealtimeNanos() of the fix
+    public double latitude;
+    public double longitude;
+    public boolean hasAltitude;
+    public double altitude; // metres MSL
+    public boolean hasSpeed;
+    public double speed;    // metres per second
+    public boolean hasBearing;
+    public double bearing;  // degrees true
+    public boolean hasVerticalSpeed;
+    public double verticalSpeed;        // metres per second, up is positive
+    public boolean hasAccuracy;
+    public double accuracy; // metres horizontal, 68% confidence
+    public boolean hasVerticalAccuracy;
+    public double verticalAccuracy;     // metres, 68% confidence
+    public boolean hasSpeedAccuracy;
+    public double speedAccuracy;        // metres per second, 68% confidence
+    public boolean hasBearingAccuracy;
+    public double bearingAccuracy;      // degrees, 68% confidence
+
+    public MyGpsSatellite[] satellites = nullsatarray;
+
+    // sentences exactly as the chipset sent them, each ending with CR LF
+    public byte[] nmea = new byte[1024];
+    public int nmeaLength;
+
+    // copy location fields from another epoch
+    public void copyLocation (GpsEpoch from)
+    {
+        hasLocation         = from.hasLocation;
+        extrapolated        = from.extrapolated;
+        time                = from.time;
+        elapsedNanos        = from.elapsedNanos;
+        latitude            = from.latitude;
+        longitude           = from.longitude;
+        hasAltitude         = from.hasAltitude;
+        altitude            = from.altitude;
+        hasSpeed            = from.hasSpeed;
+        speed               = from.speed;
+        hasBearing          = from.hasBearing;
+        bearing             = from.bearing;
+        hasVerticalSpeed    = from.hasVerticalSpeed;
+        verticalSpeed       = from.verticalSpeed;
+        hasAccuracy         = from.hasAccuracy;
+        accuracy            = from.accuracy;
+        hasVerticalAccuracy = from.hasVerticalAccuracy;
+        verticalAccuracy    = from.verticalAccuracy;
+        hasSpeedAccuracy    = from.hasSpeedAccuracy;
+        speedAccuracy       = from.speedAccuracy;
+        hasBearingAccuracy  = from.hasBearingAccuracy;
+        bearingAccuracy     = from.bearingAccuracy;
+    }
+}
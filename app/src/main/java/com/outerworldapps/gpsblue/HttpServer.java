@@ -0,0 +1,279 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+/**
+ * Minimal HTTP server for browser-based displays:
+ *
+ *   GET /            small page showing the live position
+ *   GET /ws          WebSocket, FEED-JSON lines as text messages
+ *   GET /ws?bin      WebSocket, FEED-BIN records as binary messages
+ *   GET /events      Server-Sent Events, FEED-JSON lines as events
+ *
+ * Connections are serviced by the TransportHub event loop.  Once the
+ * request is answered, the connection is given the WebSocket or SSE
+ * format so it gets the same shared, latest-wins queued epochs as all
+ * other clients.  WebSocket clients get Ping and Close answered,
+ * anything else sent after the request is ignored.
+ *
+ * A connection counts toward keeping GPS on only once it is a WebSocket
+ * or SSE stream, and is closed if its request takes over REQUEST_MS.
+ *
+ * The position is only for pages we serve, so there are no CORS headers
+ * and WebSocket upgrades from pages of other origins are refused.
+ * Runs in service context.
+ */
+
+package com.outerworldapps.gpsblue;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashSet;
+import java.util.Locale;
+
+public class HttpServer implements Transport, TransportHub.Acceptor {
+    private final static int MAX_REQUEST = 8192;
+    private final static int REQUEST_MS = 5000;     // time allowed to send the whole request
+
+    private final static String PAGE =
+            "<HTML><HEAD><TITLE>GPSBlue</TITLE></HEAD><BODY><PRE ID=pos>waiting...</PRE><SCRIPT>\n" +
+            "new EventSource ('/events').onmessage = function (e) {\n" +
+            "  var m = JSON.parse (e.data);\n" +
+            "  if (m.type == 'location') document.getElementById ('pos').textContent =\n" +
+            "    new Date (m.time).toISOString () + '\\n' + m.lat.toFixed (6) + ' ' + m.lon.toFixed (6) +\n" +
+            "    '\\nalt ' + m.alt + ' m\\nspeed ' + m.speed + ' m/s\\nbearing ' + m.bearing;\n" +
+            "};\n" +
+            "</SCRIPT></BODY></HTML>\n";
+
+    private final OutputFormat wsJsonFormat = new OutputFormat (new WebSocketEncoder (new JSONEncoder (), true));
+    private final OutputFormat wsBinFormat  = new OutputFormat (new WebSocketEncoder (new FeedEncoder (), false));
+    private final OutputFormat sseFormat    = new OutputFormat (new SSEEncoder (new JSONEncoder ()));
+
+    private final HashSet<Connection> streaming = new HashSet<> ();  // WebSocket and SSE connections
+    private JSessionService jSessionService;
+    private ServerSocketChannel serverChannel;
+    private String statusKey;
+
+    public HttpServer (JSessionService jss)
+    {
+        jSessionService = jss;
+    }
+
+    /**
+     * Start listening on the given TCP port.
+     * Called in app UI thread.
+     */
+    public void startup (String port)
+    {
+        if (serverChannel == null) {
+            statusKey = "http port: " + port;
+            try {
+                ServerSocketChannel ssc = ServerSocketChannel.open ();
+                ssc.socket ().setReuseAddress (true);
+                ssc.socket ().bind (new InetSocketAddress (Integer.parseInt (port)));
+                serverChannel = ssc;
+                jSessionService.transportHub.addServer (ssc, this);
+                updateConnectionCount ();
+            } catch (Exception e) {
+                Log.w (GPSBlue.TAG, "error listening on http port " + port, e);
+                shutdown ();
+                jSessionService.fatalError ("HTTP Error",
+                        "try different port\n\n" + e.getMessage ());
+            }
+        }
+    }
+
+    /**
+     * Stop listening for new inbound connections.
+     * Terminate any existing connections.
+     * Called in app UI thread.
+     */
+    public void shutdown ()
+    {
+        if (serverChannel != null) {
+            try { serverChannel.close (); } catch (IOException ignored) { }
+            serverChannel = null;
+            updateConnectionCount ();
+        }
+        jSessionService.transportHub.requestCloseAll (this);
+    }
+
+    /**
+     * New HTTP connection, wait for its request.
+     * Not counted as a connection unless it becomes a WebSocket or SSE stream.
+     */
+    @Override  // TransportHub.Acceptor
+    public void accepted (SocketChannel sc)
+    {
+        try {
+            sc.socket ().setTcpNoDelay (true);
+            String name = "http " + sc.socket ().getInetAddress ().getHostAddress () + ":" + sc.socket ().getPort ();
+            Connection conn = jSessionService.transportHub.addChannel (sc, name, null, this);
+            conn.attachment = new StringBuilder ();
+            conn.deadlineNanos = System.nanoTime () + REQUEST_MS * 1000000L;
+        } catch (IOException ioe) {
+            Log.w (GPSBlue.TAG, "error opening http connection", ioe);
+            try { sc.close (); } catch (IOException ignored) { }
+        }
+    }
+
+    /**
+     * Collect request until the blank line then answer it.
+     * Called in TransportHub event loop.
+     */
+    @Override  // Transport
+    public void received (Connection conn, byte[] buf, int len)
+    {
+        if (conn.attachment instanceof WebSocketReader) {
+            ((WebSocketReader) conn.attachment).received (conn, buf, len);
+            return;
+        }
+        StringBuilder request = (StringBuilder) conn.attachment;
+        if (request == null) return;
+        for (int i = 0; i < len; i ++) request.append ((char) (buf[i] & 0xFF));
+        int end = request.indexOf ("\r\n\r\n");
+        if (end >= 0) {
+            conn.attachment = null;
+            conn.deadlineNanos = 0;
+            answer (conn, request.substring (0, end));
+        } else if (request.length () > MAX_REQUEST) {
+            conn.attachment = null;
+            reply (conn, "431 Request Header Fields Too Large", "text/plain", "request too large\n", true);
+        }
+    }
+
+    /**
+     * One of our connections has closed.
+     * If no connections, turn the GPS receiver off and unlock CPU.
+     */
+    @Override  // Transport
+    public void connectionClosed (Connection conn)
+    {
+        synchronized (jSessionService.connectionLock) {
+            if (streaming.remove (conn)) updateConnectionCount ();
+        }
+    }
+
+    // request answered with a WebSocket or SSE stream, count it as a connection
+    private void startStreaming (Connection conn)
+    {
+        synchronized (jSessionService.connectionLock) {
+            if (! conn.closed && streaming.add (conn)) updateConnectionCount ();
+        }
+    }
+
+    // tell service how many connections we have
+    // drop us from the display if stopped and none left
+    private void updateConnectionCount ()
+    {
+        synchronized (jSessionService.connectionLock) {
+            int count = streaming.size ();
+            jSessionService.updateConnectionCount (statusKey,
+                    ((serverChannel == null) && (count == 0)) ? -1 : count);
+        }
+    }
+
+    // answer a complete request
+    private void answer (Connection conn, String request)
+    {
+        String[] lines = request.split ("\r\n");
+        String[] words = lines[0].split (" ");
+        if ((words.length < 2) || ! words[0].equals ("GET")) {
+            reply (conn, "405 Method Not Allowed", "text/plain", "only GET supported\n", true);
+            return;
+        }
+        String path = words[1];
+
+        String host = null;
+        String origin = null;
+        String wskey = null;
+        boolean upgrade = false;
+        for (int i = 1; i < lines.length; i ++) {
+            String line = lines[i];
+            int j = line.indexOf (':');
+            if (j < 0) continue;
+            String name = line.substring (0, j).trim ().toLowerCase (Locale.US);
+            String value = line.substring (j + 1).trim ();
+            if (name.equals ("upgrade")) upgrade = value.equalsIgnoreCase ("websocket");
+            if (name.equals ("sec-websocket-key")) wskey = value;
+            if (name.equals ("host")) host = value;
+            if (name.equals ("origin")) origin = value;
+        }
+
+        switch (path) {
+            case "/": {
+                reply (conn, "200 OK", "text/html", PAGE, true);
+                break;
+            }
+            case "/events": {
+                send (conn, "HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\n" +
+                        "Cache-Control: no-cache\r\n\r\n");
+                conn.format = sseFormat;
+                startStreaming (conn);
+                jSessionService.transportHub.sendLatest (conn);
+                break;
+            }
+            case "/ws":
+            case "/ws?bin": {
+                if (! upgrade || (wskey == null)) {
+                    reply (conn, "400 Bad Request", "text/plain", "websocket upgrade required\n", true);
+                    break;
+                }
+                // browsers always send Origin, other clients don't have to
+                if ((origin != null) && ! origin.equalsIgnoreCase ("http://" + host) &&
+                        ! origin.equalsIgnoreCase ("https://" + host)) {
+                    reply (conn, "403 Forbidden", "text/plain", "cross-origin websocket not allowed\n", true);
+                    break;
+                }
+                send (conn, "HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\n" +
+                        "Connection: Upgrade\r\nSec-WebSocket-Accept: " + WebSocketReader.AcceptKey (wskey) + "\r\n\r\n");
+                conn.attachment = new WebSocketReader (jSessionService.transportHub);
+                conn.format = path.equals ("/ws") ? wsJsonFormat : wsBinFormat;
+                startStreaming (conn);
+                jSessionService.transportHub.sendLatest (conn);
+                break;
+            }
+            default: {
+                reply (conn, "404 Not Found", "text/plain", "not found\n", true);
+                break;
+            }
+        }
+    }
+
+    // send a complete response
+    private void reply (Connection conn, String status, String type, String body, boolean close)
+    {
+        send (conn, "HTTP/1.1 " + status + "\r\nContent-Type: " + type +
+                "\r\nContent-Length: " + body.length () + "\r\nConnection: close\r\n\r\n" + body);
+        conn.closeWhenSent = close;
+    }
+
+    private void send (Connection conn, String str)
+    {
+        EpochBuffer eb = new EpochBuffer ();
+        eb.ensure (str.length ());
+        for (int i = 0; i < str.length (); i ++) eb.bytes[i] = (byte) str.charAt (i);
+        eb.length = str.length ();
+        jSessionService.transportHub.send (conn, eb);
+    }
+}
@@ -21,12 +21,16 @@
 package com.outerworldapps.gpsblue;
 
 import android.content.Context;
+import android.location.GnssStatus;
 import android.location.GpsSatellite;
 import android.location.GpsStatus;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
+import android.location.OnNmeaMessageListener;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
@@ -36,17 +40,22 @@ import java.util.LinkedList;
  * Use Android device's internal GPS for location source.
  * Runs as part of the service.
  * Passes status & location messages to jSessionSerivce.
+ * Uses GnssStatus callbacks on Android N and up, GpsStatus on older versions.
+ * Raw NMEA sentences are received on N and up while something uses them.
  */
 public class InternalGps implements GpsStatus.Listener, LocationListener {
     public final static String TAG = "GPSBlue";
 
     private final static MyGpsSatellite[] nullsatarray = new MyGpsSatellite[0];
 
+    private volatile int updateInterval = 1000;
+    private GnssCallback gnssCallback;
     private GPSRcvrThread rcvrThread;
     private GpsStatus gpsStatus;
     private JSessionService jSessionService;
     private LinkedList<MyGpsSatellite> satellites;
     private LocationManager locationManager;
+    private NmeaListener nmeaListener;
 
     public InternalGps (JSessionService jss)
     {
@@ -82,36 +91,111 @@ public class InternalGps implements GpsStatus.Listener, LocationListener {
         }
     }
 
+    /**
+     * Set the interval between location updates requested from the GPS receiver.
+     * Takes effect immediately if the receiver is running.
+     * Called in any thread.
+     */
+    public void setUpdateInterval (int ms)
+    {
+        if (updateInterval != ms) {
+            updateInterval = ms;
+            synchronized (jSessionService.connectionLock) {
+                GPSRcvrThread rt = rcvrThread;
+                if ((rt != null) && (rt.handler != null)) {
+                    rt.handler.post (requestUpdates);
+                }
+            }
+        }
+    }
+
+    /**
+     * Start or stop passing the chipset's raw NMEA sentences to jSessionService.
+     * Needs Android N or later, does nothing before.
+     * Called in GPSRcvrThread.
+     */
+    public void setRawNmea (boolean on)
+    {
+        GPSRcvrThread rt = rcvrThread;
+        if ((rt == null) || (Build.VERSION.SDK_INT < Build.VERSION_CODES.N)) return;
+        if (on == (nmeaListener != null)) return;
+        try {
+            if (on) {
+                nmeaListener = new NmeaListener ();
+                locationManager.addNmeaListener (nmeaListener, rt.handler);
+            } else {
+                locationManager.removeNmeaListener (nmeaListener);
+                nmeaListener = null;
+            }
+        } catch (SecurityException se) {
+            Log.w (TAG, "error changing raw NMEA", se);
+            nmeaListener = null;
+        }
+    }
+
+    // (re-)request location updates at the current interval
+    // runs in GPSRcvrThread
+    private final Runnable requestUpdates = new Runnable () {
+        @Override
+        public void run ()
+        {
+            try {
+                locationManager.requestLocationUpdates (LocationManager.GPS_PROVIDER, updateInterval, 0.0F, InternalGps.this);
+            } catch (SecurityException se) {
+                Log.e (TAG, "error changing GPS rate", se);
+                jSessionService.fatalError ("GPS Rate Error", se.getMessage ());
+            }
+        }
+    };
+
     /**************************\
      *   GPS receiver thread  *
     \**************************/
 
     private class GPSRcvrThread extends Thread {
         public Looper thelooper;
+        public volatile Handler handler;
 
         @Override
         public void run ()
         {
             Looper.prepare ();
             thelooper = Looper.myLooper ();
+            handler = new Handler (thelooper);
 
             // start receiving status & location from internal GPS receiver
             try {
-                locationManager.requestLocationUpdates (LocationManager.GPS_PROVIDER, 1000, 0.0F, InternalGps.this);
-                locationManager.addGpsStatusListener (InternalGps.this);
-                satellites = new LinkedList<> ();
+                locationManager.requestLocationUpdates (LocationManager.GPS_PROVIDER, updateInterval, 0.0F, InternalGps.this);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                    gnssCallback = new GnssCallback ();
+                    locationManager.registerGnssStatusCallback (gnssCallback, handler);
+                } else {
+                    locationManager.addGpsStatusListener (InternalGps.this);
+                    satellites = new LinkedList<> ();
+                }
             } catch (SecurityException se) {
                 Log.e (TAG, "error starting GPS", se);
                 jSessionService.fatalError ("GPS Startup Error", se.getMessage ());
                 return;
             }
+            jSessionService.ReceiverStarted (handler);
 
             // process the incoming status & location messages from internal GPS receiver
             Looper.loop ();
 
             // stopSensor() was called, stop receiving messages
+            jSessionService.ReceiverStopped ();
             locationManager.removeUpdates (InternalGps.this);
-            locationManager.removeGpsStatusListener (InternalGps.this);
+            if (nmeaListener != null) {
+                locationManager.removeNmeaListener (nmeaListener);
+                nmeaListener = null;
+            }
+            if (gnssCallback != null) {
+                locationManager.unregisterGnssStatusCallback (gnssCallback);
+                gnssCallback = null;
+            } else {
+                locationManager.removeGpsStatusListener (InternalGps.this);
+            }
 
             // update display to show no longer active (removes inner rings from circle graphic)
             jSessionService.SatellitesReceived (null);
@@ -160,7 +244,7 @@ public class InternalGps implements GpsStatus.Listener, LocationListener {
                     MyGpsSatellite mysat = new MyGpsSatellite ();
                     mysat.azim = sat.getAzimuth ();
                     mysat.elev = sat.getElevation ();
-                    mysat.prn  = sat.getPrn ();
+                    mysat.setLegacyPrn (sat.getPrn ());
                     mysat.snr  = sat.getSnr ();
                     mysat.used = sat.usedInFix ();
                     satellites.addLast (mysat);
@@ -173,4 +257,69 @@ public class InternalGps implements GpsStatus.Listener, LocationListener {
             }
         }
     }
+
+    /*********************************************\
+     *  GnssStatus.Callback implementation       *
+     *  Android N and up.                        *
+     *  Receives incoming GPS satellite status.  *
+     *  Runs in GpsRcvrThread via Looper.loop()  *
+    \*********************************************/
+
+    private class GnssCallback extends GnssStatus.Callback {
+        @Override  // GnssStatus.Callback
+        public void onSatelliteStatusChanged (GnssStatus status)
+        {
+            // read satellites by index into an array of the final size
+            // skipping those of constellations NMEA has no talker for
+            int nsats = status.getSatelliteCount ();
+            int count = 0;
+            for (int i = 0; i < nsats; i ++) {
+                if (getConstellation (status.getConstellationType (i)) >= 0) count ++;
+            }
+            MyGpsSatellite[] satarray = (count == 0) ? nullsatarray : new MyGpsSatellite[count];
+            int j = 0;
+            for (int i = 0; i < nsats; i ++) {
+                int constellation = getConstellation (status.getConstellationType (i));
+                if (constellation < 0) continue;
+                MyGpsSatellite mysat = new MyGpsSatellite ();
+                mysat.azim = status.getAzimuthDegrees (i);
+                mysat.elev = status.getElevationDegrees (i);
+                mysat.setGnssSvid (constellation, status.getSvid (i));
+                mysat.snr  = status.getCn0DbHz (i);
+                mysat.used = status.usedInFix (i);
+                satarray[j++] = mysat;
+            }
+            jSessionService.SatellitesReceived (satarray);
+        }
+    }
+
+    // convert GnssStatus constellation type to MyGpsSatellite constellation
+    // returns -1 if not one that gets output
+    private static int getConstellation (int type)
+    {
+        switch (type) {
+            case GnssStatus.CONSTELLATION_GPS:     return MyGpsSatellite.GPS;
+            case GnssStatus.CONSTELLATION_SBAS:    return MyGpsSatellite.SBAS;
+            case GnssStatus.CONSTELLATION_GLONASS: return MyGpsSatellite.GLONASS;
+            case GnssStatus.CONSTELLATION_GALILEO: return MyGpsSatellite.GALILEO;
+            case GnssStatus.CONSTELLATION_BEIDOU:  return MyGpsSatellite.BEIDOU;
+            case GnssStatus.CONSTELLATION_QZSS:    return MyGpsSatellite.QZSS;
+            default: return -1;
+        }
+    }
+
+    /*********************************************\
+     *  OnNmeaMessageListener implementation     *
+     *  Android N and up.                        *
+     *  Receives chipset's raw NMEA sentences.   *
+     *  Runs in GpsRcvrThread via Looper.loop()  *
+    \*********************************************/
+
+    private class NmeaListener implements OnNmeaMessageListener {
+        @Override  // OnNmeaMessageListener
+        public void onNmeaMessage (String message, long timestamp)
+        {
+            jSessionService.NmeaReceived (message);
+        }
+    }
 }
@@ -0,0 +1,170 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+/**
+ * Encode the whole epoch as JSON lines, one object per line, eg,
+ *
+ *   {"type":"location","seq":12,"rcvns":123456789,"time":1592000000123,"fixns":123400000,
+ *    "lat":42.501234567,"lon":-71.123456789,"alt":123.456,"speed":10.123,...}
+ *   {"type":"satellites","seq":13,"rcvns":124456789,"sats":[{"con":0,"prn":5,...},...]}
+ *
+ * Same values as FeedEncoder, optional location values are omitted
+ * when not present.  Dead-reckoned locations have "extrap":true and old
+ * locations sent to a client that just connected have "stale":true.
+ * Floating point values are written with fixed
+ * decimal places finer than the receiver's resolution (1e-9 degree
+ * for latitude/longitude, millimetres for distances).
+ * Written field-by-field straight into the epoch buffer.
+ */
+public class JSONEncoder implements OutputEncoder {
+    private byte[] buf;
+    private int len;
+
+    @Override  // OutputEncoder
+    public String getName ()
+    {
+        return "FEED-JSON";
+    }
+
+    @Override  // OutputEncoder
+    public void encode (GpsEpoch epoch, EpochBuffer out)
+    {
+        buf = out.bytes;
+        len = out.length;
+
+        if ((epoch.parts & GpsEpoch.LOCATION) != 0) {
+            put ("{\"type\":\"location\"");
+            putHeader (epoch);
+            put (",\"time\":");
+            putInt (epoch.time, 1);
+            put (",\"fixns\":");
+            putInt (epoch.elapsedNanos, 1);
+            put (",\"lat\":");
+            putFixed (epoch.latitude, 9);
+            put (",\"lon\":");
+            putFixed (epoch.longitude, 9);
+            if (epoch.hasAltitude) {
+                put (",\"alt\":");
+                putFixed (epoch.altitude, 3);
+            }
+            if (epoch.hasSpeed) {
+                put (",\"speed\":");
+                putFixed (epoch.speed, 3);
+            }
+            if (epoch.hasBearing) {
+                put (",\"bearing\":");
+                putFixed (epoch.bearing, 3);
+            }
+            if (epoch.hasVerticalSpeed) {
+                put (",\"vspeed\":");
+                putFixed (epoch.verticalSpeed, 3);
+            }
+            if (epoch.hasAccuracy) {
+                put (",\"acc\":");
+                putFixed (epoch.accuracy, 3);
+            }
+            if (epoch.hasVerticalAccuracy) {
+                put (",\"vacc\":");
+                putFixed (epoch.verticalAccuracy, 3);
+            }
+            if (epoch.hasSpeedAccuracy) {
+                put (",\"sacc\":");
+                putFixed (epoch.speedAccuracy, 3);
+            }
+            if (epoch.hasBearingAccuracy) {
+                put (",\"bacc\":");
+                putFixed (epoch.bearingAccuracy, 3);
+            }
+            if (epoch.extrapolated) {
+                put (",\"extrap\":true");
+            }
+            if (epoch.stale) {
+                put (",\"stale\":true");
+            }
+            put ("}\n");
+        }
+
+        if ((epoch.parts & GpsEpoch.SATELLITES) != 0) {
+            put ("{\"type\":\"satellites\"");
+            putHeader (epoch);
+            put (",\"sats\":[");
+            boolean first = true;
+            for (MyGpsSatellite sat : epoch.satellites) {
+                put (first ? "{\"con\":" : ",{\"con\":");
+                first = false;
+                putInt (sat.constellation, 1);
+                put (",\"prn\":");
+                putInt (sat.prn, 1);
+                put (",\"used\":");
+                put (sat.used ? "true" : "false");
+                put (",\"elev\":");
+                putFixed (sat.elev, 1);
+                put (",\"azim\":");
+                putFixed (sat.azim, 1);
+                put (",\"snr\":");
+                putFixed (sat.snr, 1);
+                put ("}");
+            }
+            put ("]}\n");
+        }
+
+        out.bytes = buf;
+        out.length = len;
+        buf = null;
+    }
+
+    private void putHeader (GpsEpoch epoch)
+    {
+        put (",\"seq\":");
+        putInt (epoch.seq, 1);
+        put (",\"rcvns\":");
+        putInt (epoch.receivedNanos, 1);
+    }
+
+    private void put (String st)
+    {
+        int n = st.length ();
+        ensure (n);
+        for (int i = 0; i < n; i ++) {
+            buf[len++] = (byte) st.charAt (i);
+        }
+    }
+
+    // append integer, zero-padded on the left to at least the given number of digits
+    private void putInt (long val, int mindigs)
+    {
+        ensure (EpochBuffer.PUTINT_MAX);
+        len = EpochBuffer.putInt (buf, len, val, mindigs);
+    }
+
+    // append fixed-point number rounded to the given number of decimal places
+    private void putFixed (double val, int decs)
+    {
+        ensure (EpochBuffer.PUTFIXED_MAX);
+        len = EpochBuffer.putFixed (buf, len, val, decs);
+    }
+
+    private void ensure (int n)
+    {
+        buf = EpochBuffer.ensure (buf, len, n);
+    }
+}
@@ -35,43 +35,101 @@ import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.location.Location;
 import android.os.Binder;
 import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.util.Log;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Locale;
-import java.util.TimeZone;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 public class JSessionService extends Service {
     public final static String TAG = "GPSBlue";
 
-    private final static double KtPerMPS  = 1.94384;
+    public final static String PREF_DRRATE = "drrate";
+    public final static String PREF_GPSRATE = "gpsrate";
+    public final static String PREF_HTTPPORT = "httpport";
+    public final static String PREF_LOCALNAME = "localname";
+    public final static String PREF_MOREUUIDS = "moreuuids";
+    public final static String PREF_OUTPUTFORMAT = "outputformat";
+    public final static String PREF_OUTPUTTIMING = "outputtiming";
+    public final static String PREF_REPLAY = "replay";
+    public final static String PREF_RINGFILE = "ringfile";
+    public final static String PREF_SMOOTHING = "smoothing";
+    public final static String PREF_TCPPORT = "tcpport";
+    public final static String PREF_UDPDESTS = "udpdests";
+    public final static String PREF_WRITETIMEOUT = "writetimeout";
+    public final static String[] GPSRATES = { "1", "2", "5", "10" };
+    public final static String[] DRRATES = { "off", "10", "20" };
+    public final static String[] SMOOTHINGS = { "off", "on" };
+    public final static String[] OUTPUTTIMINGS = { "as received", "1000 ms", "500 ms", "200 ms", "100 ms" };
+    public final static String[] REPLAYS = { "5 s", "2 s", "10 s", "60 s", "off" };
+    public final static String[] WRITETIMEOUTS = { "10 s", "5 s", "2 s", "30 s", "none" };
+
+    private final static int ASSEMBLE_MS = 50;  // wait this long for rest of epoch
     private final static int NOTIFY_ID = 423112313;
     private final static String APP_NAME = "GPSBlue";
     private final static String CHANNEL_ID = "connectioncount";
 
     public  BluetoothServer bluetoothServer;
+    public  TcpServer tcpServer;
+    public  HttpServer httpServer;
+    public  LocalServer localServer;
+    public  UdpSender udpSender;
+    private volatile RingFile ringFile;
+    private File ringFilePath;
+    private String ringFileKey;
+    private int ringFileReaders;    // descriptors open via RingFileProvider
+    public  TransportHub transportHub;
+    private final LinkedHashMap<String,Integer> connectionCounts = new LinkedHashMap<> ();
     private boolean gpsStarted;
     private boolean listening;
     private GPSBlue gpsBlue;
     public  int numlocationsrcvd;
+    public  final RateMeter locationRate = new RateMeter ();
+    public  final JitterMeter outputJitter = new JitterMeter ();
     public  int numstatusesrcvd;
-    private int numsats;
     public  InternalGps internalGps;
     public  Location latestLocation;
     private final MyBinder myBinder = new MyBinder ();
     private MyGpsSatellite[] latestSatellites;
+    private final GpsEpoch gpsEpoch = new GpsEpoch ();
+    private final GpsEpoch outEpoch = new GpsEpoch ();
+    private final GpsEpoch rawEpoch = new GpsEpoch ();  // chipset's NMEA sentences being collected
+    private final DeadReckoner deadReckoner = new DeadReckoner ();
+    private final PositionFilter positionFilter = new PositionFilter ();
+    private volatile boolean smoothing;
+    private Handler rcvrHandler;
+    private volatile boolean deadReckoning;
+    private volatile int outputInterval;   // milliseconds between scheduled locations, 0 = as received
+    private long epochSeq;
+    private long rawSeq;
+    private volatile OutputFormat listenFormat;  // format chosen in settings, null when not listening
+    private UUID listenUUID;        // main bluetooth UUID being listened on
+    private int pendingParts;       // GpsEpoch parts in gpsEpoch waiting to be transmitted
+    private long lastFixNanos;      // gpsEpoch.elapsedNanos of latest location
+    private long lastFixRcvdNanos;  // gpsEpoch.receivedNanos of latest location
+    private long lastSentFixNanos;  // gpsEpoch.elapsedNanos of latest location transmitted by outputTick
+    private long nextOutputTime;    // UTC ms outputTick is scheduled for
+    private boolean nextOutputGps;  // nextOutputTime was scheduled from GPS time
+    public  final OutputFormats outputFormats = new OutputFormats ();
     private NotificationManager notificationManager;
     public  final Object connectionLock = new Object ();
     private PowerManager.WakeLock partialWakeLock;
-    private SimpleDateFormat sdfhms;
-    private SimpleDateFormat sdfdmy;
     public  String latestStatusText;
     private String pendingAlertMessage;
     private String pendingAlertTitle;
@@ -95,13 +153,36 @@ public class JSessionService extends Service {
         partialWakeLock = powerManager.newWakeLock (PowerManager.PARTIAL_WAKE_LOCK,
             APP_NAME + ":bluetooth connections");
 
-        sdfhms = new SimpleDateFormat ("HHmmss.SSS", Locale.US);
-        sdfhms.setTimeZone (TimeZone.getTimeZone ("UTC"));
+        transportHub = new TransportHub (new TransportHub.Host () {
+            @Override  // TransportHub.Host
+            public long elapsedRealtimeNanos ()
+            {
+                return SystemClock.elapsedRealtimeNanos ();
+            }
 
-        sdfdmy = new SimpleDateFormat ("ddMMyy", Locale.US);
-        sdfdmy.setTimeZone (TimeZone.getTimeZone ("UTC"));
+            @Override  // TransportHub.Host
+            public void info (String msg)
+            {
+                Log.i (TAG, msg);
+            }
 
+            @Override  // TransportHub.Host
+            public void warn (String msg, Throwable t)
+            {
+                Log.w (TAG, msg, t);
+            }
+        });
+        try {
+            transportHub.startup ();
+        } catch (IOException ioe) {
+            Log.e (TAG, "error starting transports", ioe);
+            fatalError ("Transport Error", ioe.getMessage ());
+        }
         bluetoothServer = new BluetoothServer (this);
+        tcpServer = new TcpServer (this);
+        httpServer = new HttpServer (this);
+        localServer = new LocalServer (this);
+        udpSender = new UdpSender (this);
         internalGps = new InternalGps (this);
     }
 
@@ -112,12 +193,23 @@ public class JSessionService extends Service {
         Log.d (TAG, "JSessionService destroyed");
         notificationManager.cancelAll ();
         bluetoothServer.shutdown ();
+        tcpServer.shutdown ();
+        httpServer.shutdown ();
+        localServer.shutdown ();
+        udpSender.shutdown ();
+        stopRingFile ();
+        transportHub.shutdown ();
         internalGps.stopSensor ();
         if (gpsStarted) {
             partialWakeLock.release ();
             gpsStarted = false;
         }
         bluetoothServer = null;
+        tcpServer = null;
+        httpServer = null;
+        localServer = null;
+        udpSender = null;
+        transportHub = null;
         internalGps = null;
         notificationManager = null;
         partialWakeLock = null;
@@ -168,24 +260,187 @@ public class JSessionService extends Service {
         gpsBlue = null;
     }
 
-    public void startListening (UUID uuid)
+    public void startListening (UUID uuid, SharedPreferences prefs)
     {
         if (! listening) {
             Log.d (TAG, "JSessionService start listening");
             listening = true;
-            bluetoothServer.startup (uuid);
+            int hz = Integer.parseInt (prefs.getString (PREF_GPSRATE, GPSRATES[0]));
+            internalGps.setUpdateInterval (1000 / hz);
+            String drrate = prefs.getString (PREF_DRRATE, DRRATES[0]);
+            String timing = prefs.getString (PREF_OUTPUTTIMING, OUTPUTTIMINGS[0]);
+            deadReckoning = ! drrate.equals (DRRATES[0]);
+            if (deadReckoning) {
+                outputInterval = 1000 / Integer.parseInt (drrate);
+            } else if (timing.equals (OUTPUTTIMINGS[0])) {
+                outputInterval = 0;
+            } else {
+                outputInterval = Integer.parseInt (timing.substring (0, timing.indexOf (' ')));
+            }
+            smoothing = prefs.getString (PREF_SMOOTHING, SMOOTHINGS[0]).equals (SMOOTHINGS[1]);
+            String replay = prefs.getString (PREF_REPLAY, REPLAYS[0]);
+            transportHub.setReplayValid (replay.equals ("off") ? -1 :
+                    Integer.parseInt (replay.substring (0, replay.indexOf (' '))) * 1000);
+            String wto = prefs.getString (PREF_WRITETIMEOUT, WRITETIMEOUTS[0]);
+            transportHub.setWriteTimeout (wto.equals ("none") ? 0 :
+                    Integer.parseInt (wto.substring (0, wto.indexOf (' '))) * 1000);
+            OutputFormat format = outputFormats.get (prefs.getString (PREF_OUTPUTFORMAT, OutputFormats.DEFAULT));
+            if (format == null) format = outputFormats.getDefault ();
+            listenFormat = format;
+            listenUUID = uuid;
+            LinkedHashSet<UUID> uuids = new LinkedHashSet<> ();
+            try {
+                getBluetoothUUIDs (uuids, uuid, prefs);
+            } catch (IllegalArgumentException iae) {
+                fatalError ("Bluetooth Error", "check more UUIDs\n\n" + iae.getMessage ());
+            }
+            bluetoothServer.startup (uuids, format);
+            String tcpport = prefs.getString (PREF_TCPPORT, "").trim ();
+            if (! tcpport.equals ("")) {
+                tcpServer.startup (tcpport, format);
+            }
+            String httpport = prefs.getString (PREF_HTTPPORT, "").trim ();
+            if (! httpport.equals ("")) {
+                httpServer.startup (httpport);
+            }
+            String localname = prefs.getString (PREF_LOCALNAME, "").trim ();
+            if (! localname.equals ("")) {
+                localServer.startup (localname, format);
+            }
+            String udpdests = prefs.getString (PREF_UDPDESTS, "").trim ();
+            if (! udpdests.equals ("")) {
+                udpSender.startup (udpdests, format);
+            }
+            String ringfile = prefs.getString (PREF_RINGFILE, "").trim ();
+            if (! ringfile.equals ("")) {
+                startRingFile (ringfile);
+            }
         }
     }
 
+    /**
+     * The more UUIDs setting was changed while listening.
+     * Starts listening on added UUIDs and stops removed ones,
+     * clients on the rest stay connected.
+     * @throws IllegalArgumentException if a UUID is bad, nothing is changed
+     * Called in app UI thread.
+     */
+    public void changeBluetoothUUIDs (SharedPreferences prefs)
+    {
+        if (listening) {
+            LinkedHashSet<UUID> uuids = new LinkedHashSet<> ();
+            getBluetoothUUIDs (uuids, listenUUID, prefs);
+            bluetoothServer.startup (uuids, listenFormat);
+        }
+    }
+
+    // main UUID followed by those in the more UUIDs setting
+    // throws IllegalArgumentException at first bad one
+    private static void getBluetoothUUIDs (Set<UUID> uuids, UUID uuid, SharedPreferences prefs)
+    {
+        BluetoothServer.ParseUUIDs (uuids, uuid, prefs.getString (PREF_MOREUUIDS, ""));
+    }
+
     public void stopListening ()
     {
         if (listening) {
             listening = false;
+            listenFormat = null;
             bluetoothServer.shutdown ();
+            tcpServer.shutdown ();
+            httpServer.shutdown ();
+            localServer.shutdown ();
+            udpSender.shutdown ();
+            stopRingFile ();
             Log.d (TAG, "JSessionService stop listening");
         }
     }
 
+    /**
+     * Create the ring file and start writing epochs to it.
+     * Other apps open it through RingFileProvider.
+     * @param name = file name in app's files directory
+     */
+    private void startRingFile (String name)
+    {
+        if (name.contains ("/")) {
+            fatalError ("Ring File Error", "ring file name must not contain /");
+            return;
+        }
+        File file = new File (getFilesDir (), name);
+        RingFile rf;
+        try {
+            rf = new RingFile (file);
+        } catch (IOException ioe) {
+            Log.w (TAG, "error creating ring file " + file, ioe);
+            fatalError ("Ring File Error", "check ring file name\n\n" + ioe.getMessage ());
+            return;
+        }
+
+        // GPS runs only while some app has the file open
+        synchronized (connectionLock) {
+            ringFile = rf;
+            ringFilePath = file;
+            ringFileReaders = 0;
+            ringFileKey = "ring file: content://" + RingFileProvider.AUTHORITY + "/" + name;
+            updateConnectionCount (ringFileKey, 0);
+        }
+        RingFileProvider.jSessionService = this;
+    }
+
+    // stop writing epochs to the ring file
+    // apps that still have it open keep their mapping but see no more records
+    private void stopRingFile ()
+    {
+        RingFileProvider.jSessionService = null;
+        synchronized (connectionLock) {
+            RingFile rf = ringFile;
+            if (rf != null) {
+                ringFile = null;
+                rf.close ();
+                updateConnectionCount (ringFileKey, -1);
+            }
+        }
+    }
+
+    /**
+     * Another app is opening the ring file through RingFileProvider.
+     * It counts as a connection until the app closes the descriptor or dies.
+     * Called in a binder thread.
+     */
+    public ParcelFileDescriptor openRingFile (String name)
+            throws FileNotFoundException
+    {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            throw new FileNotFoundException ("ring file needs Android 4.4 or later");
+        }
+        synchronized (connectionLock) {
+            final RingFile rf = ringFile;
+            if ((rf == null) || ! ringFilePath.getName ().equals (name)) {
+                throw new FileNotFoundException ("no ring file " + name);
+            }
+            ParcelFileDescriptor pfd;
+            try {
+                pfd = ParcelFileDescriptor.open (ringFilePath, ParcelFileDescriptor.MODE_READ_ONLY,
+                        new Handler (Looper.getMainLooper ()), new ParcelFileDescriptor.OnCloseListener () {
+                    @Override  // OnCloseListener
+                    public void onClose (IOException e)
+                    {
+                        synchronized (connectionLock) {
+                            // ignore if the file was closed or re-created since
+                            if (ringFile == rf) updateConnectionCount (ringFileKey, -- ringFileReaders);
+                        }
+                    }
+                });
+            } catch (IOException ioe) {
+                Log.w (TAG, "error opening ring file " + ringFilePath, ioe);
+                throw new FileNotFoundException (ioe.getMessage ());
+            }
+            updateConnectionCount (ringFileKey, ++ ringFileReaders);
+            return pfd;
+        }
+    }
+
     /****************************************************\
      *  Called from various threads within the service  *
     \****************************************************/
@@ -208,17 +463,35 @@ public class JSessionService extends Service {
     }
 
     /**
-     * Current number of connections has changed.
-     * If zero, let CPU and screen go to sleep.
+     * Current number of connections to a transport has changed.
+     * If total is zero, let CPU and screen go to sleep.
      * If non-zero, keep CPU on, let screen shut off.
      * Update in-app count and notification count.
      * Called with connectionLock locked.
+     * @param transport = transport description, eg, "uuid: ..." or "tcp port: ..."
+     * @param count = number of connections, -1 if transport stopped with none
      */
     @SuppressLint("WakelockTimeout")
-    public void updateConnectionCount (UUID sppUUID, int count)
+    public void updateConnectionCount (String transport, int count)
     {
+        if (count < 0) {
+            connectionCounts.remove (transport);
+        } else {
+            connectionCounts.put (transport, count);
+        }
+        StringBuilder sb = new StringBuilder ();
+        count = 0;
+        for (Map.Entry<String,Integer> entry : connectionCounts.entrySet ()) {
+            if (sb.length () > 0) sb.append ('\n');
+            sb.append (entry.getKey ());
+            sb.append ("\nconnections: ");
+            sb.append (entry.getValue ());
+            count += entry.getValue ();
+        }
+
         if (count > 0) {
             if (! gpsStarted) {
+                locationRate.reset ();
                 partialWakeLock.acquire ();
                 internalGps.startSensor ();
                 gpsStarted = true;
@@ -231,8 +504,7 @@ public class JSessionService extends Service {
             }
         }
 
-        latestStatusText = "uuid: " + sppUUID.toString ().toUpperCase () +
-                "\nconnections: " + count;
+        latestStatusText = sb.toString ();
         final GPSBlue gpsb = gpsBlue;
         if (gpsb != null) {
             gpsb.runOnUiThread (new Runnable () {
@@ -258,38 +530,16 @@ public class JSessionService extends Service {
      */
     public void LocationReceived (Location loc)
     {
-        Date date = new Date (loc.getTime ());
-        String strhms = sdfhms.format (date);   // hhmmss.sss
-        String strdmy = sdfdmy.format (date);   // ddmmyy
-
-        double lat = loc.getLatitude ();
-        double lon = loc.getLongitude ();
-        double alt = loc.getAltitude ();
-
-        // http://www.gpsinformation.org/dale/nmea.htm#GGA
-        StringBuilder sb = new StringBuilder ();
-        sb.append ("$GPGGA,");
-        sb.append (strhms);
-        sb.append (',');
-        LatLonDegMin (sb, lat, 'N', 'S');
-        sb.append (',');
-        LatLonDegMin (sb, lon, 'E', 'W');
-        sb.append (String.format (Locale.US, ",1,%d,0.9,%.1f,M,,,,", numsats, alt));
-        NMEAChecksum (sb);
-
-        // http://www.gpsinformation.org/dale/nmea.htm#RMC
-        sb.append ("$GPRMC,");
-        sb.append (strhms);
-        sb.append (",A,");
-        LatLonDegMin (sb, lat, 'N', 'S');
-        sb.append (',');
-        LatLonDegMin (sb, lon, 'E', 'W');
-        sb.append (String.format (Locale.US, ",%.1f,%.1f,", loc.getSpeed () * KtPerMPS, loc.getBearing ()));
-        sb.append (strdmy);
-        sb.append (",,");
-        NMEAChecksum (sb);
-
-        TransmitString (sb.toString ());
+        gpsEpoch.receivedNanos = SystemClock.elapsedRealtimeNanos ();
+        SetEpochLocation (gpsEpoch, loc);
+        if (smoothing) positionFilter.filter (gpsEpoch);
+        locationRate.tick (gpsEpoch.receivedNanos);
+        lastFixNanos = gpsEpoch.elapsedNanos;
+        lastFixRcvdNanos = gpsEpoch.receivedNanos;
+        if (deadReckoning) deadReckoner.fix (gpsEpoch);
+        if (outputInterval == 0) {
+            AssemblePart (GpsEpoch.LOCATION);
+        }
 
         latestLocation = loc;
         numlocationsrcvd ++;
@@ -314,63 +564,11 @@ public class JSessionService extends Service {
     public void SatellitesReceived (final MyGpsSatellite[] satellites)
     {
         if (satellites == null) {
-            numsats = 0;
+            gpsEpoch.satellites = GpsEpoch.nullsatarray;
         } else {
-            numsats = satellites.length;
-
-            // http://www.gpsinformation.org/dale/nmea.htm#GSV
-            int totalsentences = (numsats + 3) / 4;
-            if (totalsentences == 0) ++totalsentences;
-            int satelliteindex = 0;
-            StringBuilder sb = new StringBuilder ();
-            MyGpsSatellite[] usedprns = new MyGpsSatellite[12];
-            int nusedprns = 0;
-            for (MyGpsSatellite sat : satellites) {
-                if (satelliteindex % 4 == 0) {
-                    sb.append ("$GPGSV,");
-                    sb.append (totalsentences);
-                    sb.append (',');
-                    sb.append (satelliteindex / 4 + 1);
-                    sb.append (',');
-                    sb.append (numsats);
-                }
-                sb.append (',');
-                sb.append (sat.prn);
-                sb.append (',');
-                sb.append (sat.elev);
-                sb.append (',');
-                sb.append (sat.azim);
-                sb.append (',');
-                sb.append (sat.snr);
-                if (++ satelliteindex % 4 == 0) {
-                    NMEAChecksum (sb);
-                }
-                if (sat.used) {
-                    int i;
-                    for (i = 0; i < nusedprns; i ++) {
-                        if (sat.snr > usedprns[i].snr) break;
-                    }
-                    if (nusedprns < usedprns.length) nusedprns ++;
-                    if (i < nusedprns) {
-                        System.arraycopy (usedprns, i, usedprns, i + 1, nusedprns - i - 1);
-                        usedprns[i] = sat;
-                    }
-                }
-            }
-            if (satelliteindex % 4 != 0) {
-                NMEAChecksum (sb);
-            }
-            sb.append ("$GPGSA,A,3");
-            for (int i = 0; i < usedprns.length; i ++) {
-                sb.append (',');
-                if (i < nusedprns) {
-                    sb.append (usedprns[i].prn);
-                }
-            }
-            sb.append (",1.2,1.2,1.2");
-            NMEAChecksum (sb);
-
-            TransmitString (sb.toString ());
+            if (pendingParts == 0) gpsEpoch.receivedNanos = SystemClock.elapsedRealtimeNanos ();
+            gpsEpoch.satellites = satellites;
+            AssemblePart (GpsEpoch.SATELLITES);
 
             numstatusesrcvd ++;
         }
@@ -389,43 +587,255 @@ public class JSessionService extends Service {
         }
     }
 
-    // convert a number of degrees to ddmm.1000s string
-    private static void LatLonDegMin (StringBuilder sb, double ll, char pos, char neg)
+    /**
+     * Raw NMEA sentence received from GPS chipset.
+     * Only received while something uses NMEA-RAW, see updateRawNmea().
+     * Sentences are collected for ASSEMBLE_MS from the first so the chipset's
+     * burst goes out in one write, separately from location and satellites.
+     * Called in InternalGps.GPSRcvrThread.
+     */
+    public void NmeaReceived (String sentence)
     {
-        int min1000 = (int) Math.round (ll * 60000.0);
-        if (min1000 < 0) {
-            min1000 = - min1000;
-            pos = neg;
-        }
-        int deg  = min1000 / 60000;
-        min1000 %= 60000;
-        int min  = min1000 / 1000;
-        min1000 %= 1000;
-        sb.append (String.format (Locale.US, "%d%02d.%03d", deg, min, min1000));
-        sb.append (',');
-        sb.append (pos);
+        int len = sentence.length ();
+        while ((len > 0) && (sentence.charAt (len - 1) <= ' ')) -- len;
+        if (len == 0) return;
+
+        int n = rawEpoch.nmeaLength;
+        if (n == 0) {
+            rawEpoch.receivedNanos = SystemClock.elapsedRealtimeNanos ();
+            Handler handler = rcvrHandler;
+            if (handler != null) handler.postDelayed (flushRawNmea, ASSEMBLE_MS);
+        }
+        if (n + len + 2 > rawEpoch.nmea.length) {
+            rawEpoch.nmea = Arrays.copyOf (rawEpoch.nmea, Math.max (rawEpoch.nmea.length * 2, n + len + 2));
+        }
+        byte[] nmea = rawEpoch.nmea;
+        for (int i = 0; i < len; i ++) nmea[n++] = (byte) sentence.charAt (i);
+        nmea[n++] = '\r';
+        nmea[n++] = '\n';
+        rawEpoch.nmeaLength = n;
+        if (rcvrHandler == null) flushRawNmea.run ();
     }
 
-    // append NMEA checksum and CRLF to a string
-    private static void NMEAChecksum (StringBuilder sb)
+    // transmit the raw NMEA sentences collected so far
+    // only NMEA-RAW connections and UDP sender get them
+    // runs in InternalGps.GPSRcvrThread
+    private final Runnable flushRawNmea = new Runnable () {
+        @Override
+        public void run ()
+        {
+            Handler handler = rcvrHandler;
+            if (handler != null) handler.removeCallbacks (this);
+            if (rawEpoch.nmeaLength > 0) {
+                rawEpoch.seq = ++ rawSeq;
+                rawEpoch.parts = GpsEpoch.NMEA;
+                TransportHub th = transportHub;
+                if (th != null) th.write (rawEpoch);
+                UdpSender us = udpSender;
+                if (us != null) us.write (rawEpoch);
+                rawEpoch.nmeaLength = 0;
+            }
+        }
+    };
+
+    /**
+     * Have the chipset's raw NMEA sentences passed to NmeaReceived() only
+     * while the default format, a connection or the UDP sender uses NMEA-RAW,
+     * everyone else doesn't pay for receiving and buffering them.
+     * Called in InternalGps.GPSRcvrThread.
+     */
+    private void updateRawNmea ()
     {
-        int len = sb.length ();
-        int xor = 0;
-        for (int i = len; -- i > 0;) {
-            char c = sb.charAt (i);
-            if (c == '$') break;
-            xor ^= c;
-        }
-        sb.append (String.format (Locale.US, "*%02X\r\n", xor));
+        OutputFormat raw = outputFormats.get (RawNMEAEncoder.NAME);
+        TransportHub th = transportHub;
+        UdpSender us = udpSender;
+        boolean wanted = (listenFormat == raw) ||
+                ((th != null) && th.usesFormat (raw)) ||
+                ((us != null) && us.usesFormat (raw));
+        internalGps.setRawNmea (wanted);
+    }
+
+    /**
+     * Part of an epoch has been put in gpsEpoch.
+     * Transmit the epoch once all parts are in or ASSEMBLE_MS has passed,
+     * so everything from one epoch goes out together in one write.
+     * Called in InternalGps.GPSRcvrThread.
+     */
+    private void AssemblePart (int part)
+    {
+        Handler handler = rcvrHandler;
+        if ((pendingParts == 0) && (handler != null)) {
+            handler.postDelayed (flushEpoch, ASSEMBLE_MS);
+        }
+        pendingParts |= part;
+        if ((pendingParts == (GpsEpoch.LOCATION | GpsEpoch.SATELLITES)) || (handler == null)) {
+            flushEpoch.run ();
+        }
+    }
+
+    // transmit whatever parts of the epoch have been assembled
+    // runs in InternalGps.GPSRcvrThread
+    private final Runnable flushEpoch = new Runnable () {
+        @Override
+        public void run ()
+        {
+            Handler handler = rcvrHandler;
+            if (handler != null) handler.removeCallbacks (this);
+            if (pendingParts != 0) {
+                gpsEpoch.seq = ++ epochSeq;
+                gpsEpoch.parts = pendingParts;
+                pendingParts = 0;
+                TransmitEpoch (gpsEpoch);
+            }
+        }
+    };
+
+    /**
+     * GPS receiver thread has started receiving.
+     * If output is scheduled, start transmitting locations on the UTC grid.
+     * Called in InternalGps.GPSRcvrThread.
+     */
+    public void ReceiverStarted (Handler handler)
+    {
+        gpsEpoch.hasLocation = false;
+        pendingParts = 0;
+        rawEpoch.nmeaLength = 0;
+        deadReckoner.reset ();
+        positionFilter.reset ();
+        outputJitter.reset ();
+        rcvrHandler = handler;
+        updateRawNmea ();
+        if (outputInterval > 0) {
+            nextOutputTime = (currentUTCTime (SystemClock.elapsedRealtimeNanos ()) / outputInterval + 1) * outputInterval;
+            scheduleOutputTick ();
+        }
+    }
+
+    /**
+     * GPS receiver thread is about to stop.
+     * Called in InternalGps.GPSRcvrThread.
+     */
+    public void ReceiverStopped ()
+    {
+        if (rcvrHandler != null) {
+            rcvrHandler.removeCallbacks (outputTick);
+            rcvrHandler.removeCallbacks (flushEpoch);
+            rcvrHandler.removeCallbacks (flushRawNmea);
+            rcvrHandler = null;
+        }
+        pendingParts = 0;
+    }
+
+    // transmit a location on each outputInterval boundary of UTC time
+    // the latest location if not already sent, else extrapolated to now
+    // any satellites waiting to be transmitted go along with it
+    // one timer for all clients, runs in InternalGps.GPSRcvrThread
+    private final Runnable outputTick = new Runnable () {
+        @Override
+        public void run ()
+        {
+            long now = SystemClock.elapsedRealtimeNanos ();
+            long utc = currentUTCTime (now);
+            // phone clock to GPS time switch isn't jitter
+            if (nextOutputGps) outputJitter.record (utc - nextOutputTime);
+
+            // a new real fix goes out as is, predictions only fill in between fixes
+            outEpoch.parts = 0;
+            if (gpsEpoch.hasLocation && (lastSentFixNanos != lastFixNanos)) {
+                lastSentFixNanos = lastFixNanos;
+                outEpoch.copyLocation (gpsEpoch);
+                outEpoch.parts = GpsEpoch.LOCATION;
+                outEpoch.receivedNanos = lastFixRcvdNanos;
+            } else if (deadReckoning && deadReckoner.extrapolate (outEpoch, now)) {
+                outEpoch.parts = GpsEpoch.LOCATION;
+                outEpoch.receivedNanos = now;
+            }
+            // satellite counts in location sentences come from the latest satellites
+            if (outEpoch.parts != 0) outEpoch.satellites = gpsEpoch.satellites;
+            if ((outEpoch.parts != 0) && ((pendingParts & GpsEpoch.SATELLITES) != 0)) {
+                rcvrHandler.removeCallbacks (flushEpoch);
+                pendingParts = 0;
+                outEpoch.parts |= GpsEpoch.SATELLITES;
+            }
+            if (outEpoch.parts != 0) {
+                outEpoch.seq = ++ epochSeq;
+                TransmitEpoch (outEpoch);
+            }
+
+            // stay on the grid but don't try to catch up if we fell behind
+            nextOutputTime += outputInterval;
+            if (nextOutputTime <= utc) nextOutputTime = (utc / outputInterval + 1) * outputInterval;
+            scheduleOutputTick ();
+        }
+    };
+
+    // post outputTick to run at nextOutputTime
+    private void scheduleOutputTick ()
+    {
+        Handler handler = rcvrHandler;
+        if (handler != null) {
+            nextOutputGps = gpsEpoch.hasLocation;
+            long delay = nextOutputTime - currentUTCTime (SystemClock.elapsedRealtimeNanos ());
+            handler.postAtTime (outputTick, SystemClock.uptimeMillis () + Math.max (delay, 0));
+        }
+    }
+
+    // UTC ms at the given elapsedRealtimeNanos
+    // based on GPS time once we have a location, the phone's clock can be off
+    private long currentUTCTime (long nowNanos)
+    {
+        if (! gpsEpoch.hasLocation) return System.currentTimeMillis ();
+        return gpsEpoch.time + (nowNanos - gpsEpoch.elapsedNanos) / 1000000;
+    }
+
+    // copy location fields to the epoch
+    // vertical speed comes from the altitude change since the previous location
+    private static void SetEpochLocation (GpsEpoch epoch, Location loc)
+    {
+        long elapsed = loc.getElapsedRealtimeNanos ();
+        double altitude = loc.getAltitude ();
+        boolean hasAltitude = loc.hasAltitude ();
+        epoch.hasVerticalSpeed = hasAltitude && epoch.hasLocation && epoch.hasAltitude &&
+                (elapsed > epoch.elapsedNanos);
+        if (epoch.hasVerticalSpeed) {
+            epoch.verticalSpeed = (altitude - epoch.altitude) * 1.0E9 / (elapsed - epoch.elapsedNanos);
+        }
+
+        epoch.hasLocation  = true;
+        epoch.time         = loc.getTime ();
+        epoch.elapsedNanos = elapsed;
+        epoch.latitude     = loc.getLatitude ();
+        epoch.longitude    = loc.getLongitude ();
+        epoch.hasAltitude  = hasAltitude;
+        epoch.altitude     = altitude;
+        epoch.hasSpeed     = loc.hasSpeed ();
+        epoch.speed        = loc.getSpeed ();
+        epoch.hasBearing   = loc.hasBearing ();
+        epoch.bearing      = loc.getBearing ();
+        epoch.hasAccuracy  = loc.hasAccuracy ();
+        epoch.accuracy     = loc.getAccuracy ();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            epoch.hasVerticalAccuracy = loc.hasVerticalAccuracy ();
+            epoch.verticalAccuracy    = loc.getVerticalAccuracyMeters ();
+            epoch.hasSpeedAccuracy    = loc.hasSpeedAccuracy ();
+            epoch.speedAccuracy       = loc.getSpeedAccuracyMetersPerSecond ();
+            epoch.hasBearingAccuracy  = loc.hasBearingAccuracy ();
+            epoch.bearingAccuracy     = loc.getBearingAccuracyDegrees ();
+        }
     }
 
-    // transmit to all connected bluetooth EFB apps
+    // transmit epoch to all connected EFB apps
+    // each in the format it has chosen
     // called in InternalGps.GPSRcvrThread.
-    private void TransmitString (String st)
+    private void TransmitEpoch (GpsEpoch epoch)
     {
-        byte[] bytes = st.getBytes ();
-        BluetoothServer bs = bluetoothServer;
-        if (bs != null) bs.write (bytes, 0, bytes.length);
+        TransportHub th = transportHub;
+        if (th != null) th.write (epoch);
+        UdpSender us = udpSender;
+        if (us != null) us.write (epoch);
+        RingFile rf = ringFile;
+        if (rf != null) rf.write (epoch);
+        updateRawNmea ();
     }
 
     /**************\
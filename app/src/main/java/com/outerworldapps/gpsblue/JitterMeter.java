@@ -0,0 +1,66 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+/**
+ * Measure how late something happens compared to when it was scheduled.
+ * Keeps an exponential average and the maximum of the lateness.
+ */
+public class JitterMeter {
+    private final static double SMOOTHING = 0.1;
+
+    private double avgLate;     // average milliseconds late
+    private double maxLate;     // most milliseconds late since reset
+    private boolean started;
+
+    /**
+     * Record an occurrence.
+     * @param lateMs = milliseconds after the scheduled time it actually happened
+     *                 (negative if early)
+     */
+    public void record (double lateMs)
+    {
+        double late = Math.abs (lateMs);
+        avgLate = started ? avgLate + (late - avgLate) * SMOOTHING : late;
+        if (maxLate < late) maxLate = late;
+        started = true;
+    }
+
+    // forget everything, eg, when schedule is restarted
+    public void reset ()
+    {
+        avgLate = 0.0;
+        maxLate = 0.0;
+        started = false;
+    }
+
+    // get average lateness in milliseconds
+    public double getAverage ()
+    {
+        return avgLate;
+    }
+
+    // get maximum lateness in milliseconds since reset
+    public double getMax ()
+    {
+        return maxLate;
+    }
+}
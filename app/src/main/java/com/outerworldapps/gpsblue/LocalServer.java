@@ -0,0 +1,224 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+/**
+ * Accept incoming local socket connections from apps on this same device.
+ * Saves EFB apps on the same tablet going out over bluetooth and back.
+ * Hand them to the TransportHub which sends out GPS data in whatever
+ * format each connection has selected, taking commands from the clients
+ * to change that, see ClientCommands.
+ * The socket is in the abstract namespace, eg, for name gpsblue:
+ *   socat ABSTRACT-CONNECT:gpsblue -
+ * Only apps allowed to get the location from android themselves may connect.
+ * Runs in service context.
+ */
+
+package com.outerworldapps.gpsblue;
+
+import android.Manifest;
+import android.content.pm.PackageManager;
+import android.net.Credentials;
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class LocalServer implements Transport {
+    private final static int MTU = 65536;  // no packets, write epoch all at once
+
+    private AcceptThread acceptThread;
+    private int connectionCount;
+    private JSessionService jSessionService;
+    private OutputFormat outputFormat;
+    private String socketName;
+    private String statusKey;
+
+    public LocalServer (JSessionService jss)
+    {
+        jSessionService = jss;
+    }
+
+    /**
+     * Start listening on the given local socket name.
+     * New connections receive the given format.
+     * Called in app UI thread.
+     */
+    public void startup (String name, OutputFormat format)
+    {
+        outputFormat = format;
+        if ((acceptThread == null) || ! socketName.equals (name)) {
+            shutdown ();
+            socketName = name;
+            statusKey = "local socket: " + name;
+            try {
+                acceptThread = new AcceptThread (new LocalServerSocket (name));
+                acceptThread.start ();
+                updateConnectionCount ();
+            } catch (IOException ioe) {
+                Log.w (GPSBlue.TAG, "error listening on local socket " + name, ioe);
+                jSessionService.fatalError ("Local Socket Error",
+                        "try different name\n\n" + ioe.getMessage ());
+            }
+        }
+    }
+
+    /**
+     * Stop listening for new inbound connections.
+     * Terminate any existing connections.
+     * Called in app UI thread.
+     */
+    public void shutdown ()
+    {
+        if (acceptThread != null) {
+            acceptThread.finish ();
+            acceptThread = null;
+            updateConnectionCount ();
+        }
+        jSessionService.transportHub.requestCloseAll (this);
+    }
+
+    // clients may send commands to change what they are sent
+    @Override  // Transport
+    public void received (Connection conn, byte[] buf, int len)
+    {
+        if (conn.attachment == null) {
+            conn.attachment = new ClientCommands (jSessionService.outputFormats, jSessionService.transportHub, conn);
+        }
+        ((ClientCommands) conn.attachment).received (buf, len);
+    }
+
+    /**
+     * One of our connections has closed.
+     * If no connections, turn the GPS receiver off and unlock CPU.
+     */
+    @Override  // Transport
+    public void connectionClosed (Connection conn)
+    {
+        synchronized (jSessionService.connectionLock) {
+            -- connectionCount;
+            updateConnectionCount ();
+        }
+    }
+
+    // tell service how many connections we have
+    // drop us from the display if stopped and none left
+    private void updateConnectionCount ()
+    {
+        synchronized (jSessionService.connectionLock) {
+            jSessionService.updateConnectionCount (statusKey,
+                    ((acceptThread == null) && (connectionCount == 0)) ? -1 : connectionCount);
+        }
+    }
+
+    /**
+     * See if the connecting process may have the location.
+     * It must be us or hold the location permission itself,
+     * otherwise we would be leaking the location to any app.
+     */
+    private boolean allowed (Credentials cred)
+    {
+        int uid = cred.getUid ();
+        if ((uid == Process.myUid ()) || (uid == 0)) return true;
+        return jSessionService.checkPermission (Manifest.permission.ACCESS_FINE_LOCATION,
+                cred.getPid (), uid) == PackageManager.PERMISSION_GRANTED;
+    }
+
+    /**
+     * Thread what listens for incoming local socket connections.
+     * Local server sockets can only block so it has a thread of its own.
+     * Gives each connection to the TransportHub.
+     */
+    private class AcceptThread extends Thread {
+        private LocalServerSocket serverSocket;
+        private volatile boolean finished;
+
+        public AcceptThread (LocalServerSocket ss)
+        {
+            serverSocket = ss;
+        }
+
+        // stop listening and get thread to exit
+        // closing the server socket doesn't wake accept() so connect to it
+        public void finish ()
+        {
+            finished = true;
+            LocalSocket ls = new LocalSocket ();
+            try {
+                ls.connect (new LocalSocketAddress (socketName));
+            } catch (IOException ignored) {
+            } finally {
+                try { ls.close (); } catch (IOException ignored) { }
+            }
+            try { join (); } catch (InterruptedException ignored) { }
+        }
+
+        @Override
+        public void run ()
+        {
+            try {
+                while (true) {
+                    LocalSocket ls = serverSocket.accept ();
+                    if (finished) {
+                        ls.close ();
+                        break;
+                    }
+                    String name;
+                    InputStream is;
+                    OutputStream os;
+                    try {
+                        Credentials cred = ls.getPeerCredentials ();
+                        if (! allowed (cred)) {
+                            Log.w (GPSBlue.TAG, "local socket rejected uid " + cred.getUid () + " pid " + cred.getPid ());
+                            ls.close ();
+                            continue;
+                        }
+                        name = "uid " + cred.getUid () + " pid " + cred.getPid ();
+                        is = ls.getInputStream ();
+                        os = ls.getOutputStream ();
+                    } catch (IOException ioe) {
+                        Log.w (GPSBlue.TAG, "error opening local socket connection", ioe);
+                        try { ls.close (); } catch (IOException ignored) { }
+                        continue;
+                    }
+
+                    // update the total number of inbound connections
+                    // this also makes sure the GPS is turned on and locks the CPU on
+                    synchronized (jSessionService.connectionLock) {
+                        connectionCount ++;
+                        updateConnectionCount ();
+                    }
+                    jSessionService.transportHub.addStream (is, os, ls, MTU, name, outputFormat, LocalServer.this);
+                }
+            } catch (IOException ioe) {
+                if (! finished) {
+                    Log.w (GPSBlue.TAG, "error accepting local socket " + socketName, ioe);
+                    jSessionService.fatalError ("Local Socket Error", ioe.getMessage ());
+                }
+            } finally {
+                try { serverSocket.close (); } catch (IOException ignored) { }
+            }
+        }
+    }
+}
@@ -24,9 +24,69 @@ package com.outerworldapps.gpsblue;
  * GPS Satellite status.
  */
 public class MyGpsSatellite {
+    public final static int GPS     = 0;
+    public final static int SBAS    = 1;
+    public final static int GLONASS = 2;
+    public final static int GALILEO = 3;
+    public final static int BEIDOU  = 4;
+    public final static int QZSS    = 5;
+
     public boolean used;
     public double azim;
     public double elev;
     public double snr;
-    public int prn;
+    public int constellation;
+    public int prn;         // as numbered by NMEA for the constellation
+
+    /**
+     * Set constellation and prn from the single prn numbering used by GpsSatellite.getPrn().
+     *  1..32 GPS, 33..64 SBAS, 65..96 GLONASS, 193..200 QZSS, 201..235 BeiDou, 301..336 Galileo
+     */
+    public void setLegacyPrn (int legacy)
+    {
+        if ((legacy >= 65) && (legacy <= 96)) {
+            constellation = GLONASS;
+            prn = legacy;
+        } else if ((legacy >= 193) && (legacy <= 200)) {
+            constellation = QZSS;
+            prn = legacy - 192;
+        } else if ((legacy >= 201) && (legacy <= 235)) {
+            constellation = BEIDOU;
+            prn = legacy - 200;
+        } else if ((legacy >= 301) && (legacy <= 336)) {
+            constellation = GALILEO;
+            prn = legacy - 300;
+        } else {
+            constellation = (legacy >= 33) && (legacy <= 64) ? SBAS : GPS;
+            prn = legacy;
+        }
+    }
+
+    /**
+     * Set constellation and prn from GnssStatus svid numbering.
+     *  SBAS 120..151 -> 33..64, GLONASS slot 1..24 -> 65..88, QZSS 193..200 -> 1..8
+     *  GLONASS frequency channel numbers 93..106 are passed as is
+     */
+    public void setGnssSvid (int constellation, int svid)
+    {
+        this.constellation = constellation;
+        switch (constellation) {
+            case SBAS: {
+                prn = svid - 87;
+                break;
+            }
+            case GLONASS: {
+                prn = (svid <= 24) ? svid + 64 : svid;
+                break;
+            }
+            case QZSS: {
+                prn = svid - 192;
+                break;
+            }
+            default: {
+                prn = svid;
+                break;
+            }
+        }
+    }
 }
@@ -0,0 +1,603 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+/**
+ * Build NMEA sentences directly into a reused byte array.
+ * Numbers are formatted here as ASCII digits and the XOR checksum
+ * is accumulated as each byte is appended, so encoding an epoch
+ * does not create any garbage.
+ * Each instance is a named profile that outputs a selected set of sentences.
+ * The per-location sentences are compiled once into templates of constant
+ * bytes (with their checksum precomputed) and field slots, and each field
+ * is formatted at most once per epoch even if used by several sentences.
+ * Not thread safe, each thread that encodes needs its own.
+ */
+public class NMEAEncoder implements OutputEncoder {
+    public final static int GGA = 0x01;
+    public final static int RMC = 0x02;
+    public final static int GSV = 0x04;
+    public final static int GSA = 0x08;
+    public final static int VTG = 0x10;
+    public final static int GLL = 0x20;
+    public final static int ZDA = 0x40;
+    public final static int GNS = 0x80;
+
+    public final static String[] NAMES = { "GGA", "RMC", "GSV", "GSA", "VTG", "GLL", "ZDA", "GNS" };
+
+    public final static int STANDARD = GGA | RMC | GSV | GSA;
+    public final static int EXTENDED = STANDARD | VTG | GLL | ZDA | GNS;
+
+    private final static byte[] hexdigs = { '0', '1', '2', '3', '4', '5', '6', '7',
+                                            '8', '9', 'A', 'B', 'C', 'D', 'E', 'F' };
+
+    private final static double KtPerMPS  = 1.94384;
+    private final static double KmhPerMPS = 3.6;
+
+    // variable fields that can appear in templates
+    private final static int F_TIME    =  0;  // hhmmss.sss
+    private final static int F_DATE    =  1;  // ddmmyy
+    private final static int F_DAY     =  2;  // dd
+    private final static int F_MONTH   =  3;  // mm
+    private final static int F_YEAR    =  4;  // yyyy
+    private final static int F_LAT     =  5;  // ddmm.mmm,N
+    private final static int F_LON     =  6;  // dddmm.mmm,E
+    private final static int F_ALT     =  7;  // metres MSL
+    private final static int F_KTS     =  8;  // speed knots
+    private final static int F_KMH     =  9;  // speed km/h
+    private final static int F_COURSE  = 10;  // degrees true
+    private final static int F_NUMSATS = 11;  // satellites in view
+    private final static int F_NUMSATS2 = 12; // satellites in view, 2 digits
+    private final static int F_QUALITY = 13;  // GGA fix quality, 1=GPS, 6=estimated
+    private final static int F_MODE    = 14;  // mode indicator, A=autonomous, E=estimated, N=not valid
+    private final static int F_STATUS  = 15;  // status, A=valid, V=not valid
+    private final static int NFIELDS   = 16;
+
+    // talkers for satellite sentences, indexed by MyGpsSatellite.constellation
+    //  http://www.catb.org/gpsd/NMEA.html#_talker_ids
+    private final static int NTALKERS = 5;
+    private final static int[] contalkers = { 0, 0, 1, 2, 3, 4 };  // GPS,SBAS,GLONASS,GALILEO,BEIDOU,QZSS
+    private final static String[] gsvheads = { "GPGSV,", "GLGSV,", "GAGSV,", "GBGSV,", "GQGSV," };
+    private final static String[] gsaheads = { "GPGSA,A,3", "GLGSA,A,3", "GAGSA,A,3", "GBGSA,A,3", "GQGSA,A,3" };
+    private final static int[] systemids   = { 1, 2, 3, 4, 5 };  // NMEA 4.11 system ids for GNGSA
+
+    // location sentences in the order they are output
+    //  http://www.gpsinformation.org/dale/nmea.htm
+    private final static int[] locmasks = { GGA, RMC, GLL, VTG, ZDA, GNS };
+    private final static Template[] loctemplates = {
+        new Template ("GPGGA,{time},{lat},{lon},{quality},{numsats},0.9,{alt},M,,,,"),
+        new Template ("GPRMC,{time},{status},{lat},{lon},{kts},{course},{date},,,{mode}"),
+        new Template ("GPGLL,{lat},{lon},{time},{status},{mode}"),
+        new Template ("GPVTG,{course},T,,M,{kts},N,{kmh},K,{mode}"),
+        new Template ("GPZDA,{time},{day},{month},{year},00,00"),
+        new Template ("GNGNS,{time},{lat},{lon},{mode},{numsats2},0.9,{alt},,,,")
+    };
+
+    private byte[] buf;     // output buffer being encoded into
+    private int len;        // number of bytes in buf
+    private int xor;        // checksum of current sentence so far
+    private final int sentences;
+    private MyGpsSatellite[] bucketed = new MyGpsSatellite[64];
+    private final int[] talkerStarts = new int[NTALKERS+1];
+    private final int[] talkerFills = new int[NTALKERS];
+    private final int[] talkerUsed = new int[NTALKERS];
+    private final String name;
+
+    // fields formatted so far this epoch
+    private GpsEpoch fieldEpoch;
+    private final byte[][] fieldBytes = new byte[NFIELDS][];
+    private final int[] fieldLens = new int[NFIELDS];
+    private final int[] fieldXors = new int[NFIELDS];
+    private final long[] fieldSeqs = new long[NFIELDS];
+    private int civilDate;
+    private long civilSeq = -1;
+
+    /**
+     * Define a profile.
+     * @param name = name format is selected by
+     * @param sentences = which sentences to output (GGA, RMC, ...)
+     */
+    public NMEAEncoder (String name, int sentences)
+    {
+        this.name = name;
+        this.sentences = sentences;
+        for (int i = 0; i < NFIELDS; i ++) {
+            fieldBytes[i] = new byte[24];
+            fieldSeqs[i] = -1;
+        }
+    }
+
+    @Override  // OutputEncoder
+    public String getName ()
+    {
+        return name;
+    }
+
+    // which sentences are output (GGA, RMC, ...)
+    public int getSentences ()
+    {
+        return sentences;
+    }
+
+    @Override  // OutputEncoder
+    public void encode (GpsEpoch epoch, EpochBuffer out)
+    {
+        buf = out.bytes;
+        len = out.length;
+        if ((epoch.parts & GpsEpoch.LOCATION) != 0) {
+            encodeLocation (epoch);
+        }
+        if ((epoch.parts & GpsEpoch.SATELLITES) != 0) {
+            encodeSatellites (epoch);
+        }
+        out.bytes = buf;
+        out.length = len;
+        buf = null;
+        fieldEpoch = null;
+    }
+
+    /**
+     * Append the selected location sentences (GGA, RMC, ...).
+     */
+    private void encodeLocation (GpsEpoch epoch)
+    {
+        fieldEpoch = epoch;
+        for (int i = 0; i < locmasks.length; i ++) {
+            if ((sentences & locmasks[i]) != 0) {
+                putTemplate (loctemplates[i]);
+            }
+        }
+    }
+
+    /**
+     * Append GSV sentences for all the epoch's satellites, grouped by talker
+     * (GP, GL, GA, GB, GQ), and GSA sentences for all those used in the fix,
+     * whichever of the two are selected.  GSA is GNGSA with a system id per
+     * constellation if more than one constellation is used in the fix.
+     *  http://www.gpsinformation.org/dale/nmea.htm#GSV
+     *  http://www.gpsinformation.org/dale/nmea.htm#GSA
+     */
+    private void encodeSatellites (GpsEpoch epoch)
+    {
+        MyGpsSatellite[] satellites = epoch.satellites;
+        int numsats = satellites.length;
+        int[] starts = talkerStarts;
+        int[] fills  = talkerFills;
+        int[] used   = talkerUsed;
+
+        // count satellites in view and in use for each talker
+        for (int t = 0; t < NTALKERS; t ++) {
+            starts[t+1] = 0;
+            used[t] = 0;
+        }
+        for (MyGpsSatellite sat : satellites) {
+            int t = TalkerOf (sat);
+            starts[t+1] ++;
+            if (sat.used) used[t] ++;
+        }
+
+        // sort satellites into a bucket for each talker, keeping their order within each
+        starts[0] = 0;
+        for (int t = 0; t < NTALKERS; t ++) {
+            starts[t+1] += starts[t];
+            fills[t] = starts[t];
+        }
+        if (bucketed.length < numsats) {
+            bucketed = new MyGpsSatellite[numsats];
+        }
+        for (MyGpsSatellite sat : satellites) {
+            bucketed[fills[TalkerOf(sat)]++] = sat;
+        }
+
+        if ((sentences & GSV) != 0) {
+            for (int t = 0; t < NTALKERS; t ++) {
+                int beg = starts[t];
+                int n = starts[t+1] - beg;
+                int totalsentences = (n + 3) / 4;
+                for (int i = 0; i < n; i ++) {
+                    if (i % 4 == 0) {
+                        begin (gsvheads[t]);
+                        putInt (totalsentences, 1);
+                        put (',');
+                        putInt (i / 4 + 1, 1);
+                        put (',');
+                        putInt (n, 1);
+                    }
+                    MyGpsSatellite sat = bucketed[beg+i];
+                    put (',');
+                    putInt (sat.prn, 1);
+                    put (',');
+                    putInt ((int) Math.round (sat.elev), 1);
+                    put (',');
+                    putInt ((int) Math.round (sat.azim), 1);
+                    put (',');
+                    putInt ((int) Math.round (sat.snr), 1);
+                    if ((i % 4 == 3) || (i == n - 1)) {
+                        end ();
+                    }
+                }
+            }
+        }
+
+        if ((sentences & GSA) != 0) {
+            int ntalkersused = 0;
+            for (int t = 0; t < NTALKERS; t ++) {
+                if (used[t] > 0) ntalkersused ++;
+            }
+            if (ntalkersused == 0) {
+                begin (gsaheads[0]);
+                finishGSA (0, -1);
+            }
+            for (int t = 0; t < NTALKERS; t ++) {
+                if (used[t] == 0) continue;
+                String head = (ntalkersused > 1) ? "GNGSA,A,3" : gsaheads[t];
+                int sysid = (ntalkersused > 1) ? systemids[t] : -1;
+                int nprns = 0;
+                for (int i = starts[t]; i < starts[t+1]; i ++) {
+                    MyGpsSatellite sat = bucketed[i];
+                    if (sat.used) {
+                        if (nprns == 0) begin (head);
+                        put (',');
+                        putInt (sat.prn, 1);
+                        if (++ nprns == 12) {
+                            finishGSA (nprns, sysid);
+                            nprns = 0;
+                        }
+                    }
+                }
+                if (nprns > 0) finishGSA (nprns, sysid);
+            }
+        }
+    }
+
+    // pad out GSA to 12 prns then finish with DOPs and system id (if any)
+    private void finishGSA (int nprns, int sysid)
+    {
+        while (nprns < 12) {
+            put (',');
+            nprns ++;
+        }
+        put (",1.2,1.2,1.2");
+        if (sysid >= 0) {
+            put (',');
+            putInt (sysid, 1);
+        }
+        end ();
+    }
+
+    // get index in gsvheads[] etc for the given satellite
+    private static int TalkerOf (MyGpsSatellite sat)
+    {
+        int c = sat.constellation;
+        return ((c >= 0) && (c < contalkers.length)) ? contalkers[c] : 0;
+    }
+
+    /*************************\
+     *  Template processing  *
+    \*************************/
+
+    /**
+     * A sentence compiled into alternating constant parts and variable fields.
+     * consts[0] field[0] consts[1] field[1] ... consts[n]
+     */
+    private static class Template {
+        public final byte[][] consts;
+        public final int[] constXors;
+        public final int[] fields;
+
+        // compile "GPXXX,{field},const,{field},..."
+        public Template (String st)
+        {
+            int nfields = 0;
+            for (int i = 0; (i = st.indexOf ('{', i)) >= 0; i ++) nfields ++;
+            consts = new byte[nfields+1][];
+            constXors = new int[nfields+1];
+            fields = new int[nfields];
+            int i = 0;
+            for (int j = 0; j <= nfields; j ++) {
+                int k = (j < nfields) ? st.indexOf ('{', i) : st.length ();
+                byte[] cb = new byte[k-i];
+                int cx = 0;
+                for (int m = 0; m < cb.length; m ++) {
+                    cb[m] = (byte) st.charAt (i + m);
+                    cx ^= cb[m];
+                }
+                consts[j] = cb;
+                constXors[j] = cx;
+                if (j < nfields) {
+                    i = st.indexOf ('}', k);
+                    fields[j] = FieldCode (st.substring (k + 1, i ++));
+                }
+            }
+        }
+
+        private static int FieldCode (String name)
+        {
+            switch (name) {
+                case "time":     return F_TIME;
+                case "date":     return F_DATE;
+                case "day":      return F_DAY;
+                case "month":    return F_MONTH;
+                case "year":     return F_YEAR;
+                case "lat":      return F_LAT;
+                case "lon":      return F_LON;
+                case "alt":      return F_ALT;
+                case "kts":      return F_KTS;
+                case "kmh":      return F_KMH;
+                case "course":   return F_COURSE;
+                case "numsats":  return F_NUMSATS;
+                case "numsats2": return F_NUMSATS2;
+                case "quality":  return F_QUALITY;
+                case "mode":     return F_MODE;
+                case "status":   return F_STATUS;
+            }
+            throw new IllegalArgumentException ("bad nmea field " + name);
+        }
+    }
+
+    // output a whole sentence from a template
+    private void putTemplate (Template t)
+    {
+        int nfields = t.fields.length;
+        ensure (1);
+        buf[len++] = '$';
+        xor = 0;
+        for (int j = 0;; j ++) {
+            byte[] cb = t.consts[j];
+            ensure (cb.length);
+            System.arraycopy (cb, 0, buf, len, cb.length);
+            len += cb.length;
+            xor ^= t.constXors[j];
+            if (j == nfields) break;
+            putField (t.fields[j]);
+        }
+        end ();
+    }
+
+    // output a variable field, formatting it if first use this epoch
+    private void putField (int field)
+    {
+        GpsEpoch epoch = fieldEpoch;
+        if (fieldSeqs[field] != epoch.seq) {
+            byte[] savebuf = buf;
+            int savelen = len;
+            int savexor = xor;
+            buf = fieldBytes[field];
+            len = 0;
+            xor = 0;
+            formatField (field, epoch);
+            fieldBytes[field] = buf;
+            fieldLens[field] = len;
+            fieldXors[field] = xor;
+            fieldSeqs[field] = epoch.seq;
+            buf = savebuf;
+            len = savelen;
+            xor = savexor;
+        }
+        int n = fieldLens[field];
+        ensure (n);
+        System.arraycopy (fieldBytes[field], 0, buf, len, n);
+        len += n;
+        xor ^= fieldXors[field];
+    }
+
+    private void formatField (int field, GpsEpoch epoch)
+    {
+        switch (field) {
+            case F_TIME: {
+                putTime (epoch.time);
+                break;
+            }
+            case F_DATE: {
+                int civil = civilDate (epoch);
+                putInt (civil % 100, 2);
+                putInt (civil / 100 % 100, 2);
+                putInt (civil / 10000 % 100, 2);
+                break;
+            }
+            case F_DAY: {
+                putInt (civilDate (epoch) % 100, 2);
+                break;
+            }
+            case F_MONTH: {
+                putInt (civilDate (epoch) / 100 % 100, 2);
+                break;
+            }
+            case F_YEAR: {
+                putInt (civilDate (epoch) / 10000, 4);
+                break;
+            }
+            case F_LAT: {
+                putLatLon (epoch.latitude, 2, 'N', 'S');
+                break;
+            }
+            case F_LON: {
+                putLatLon (epoch.longitude, 3, 'E', 'W');
+                break;
+            }
+            case F_ALT: {
+                putFixed (epoch.altitude, 1);
+                break;
+            }
+            case F_KTS: {
+                putFixed (epoch.speed * KtPerMPS, 1);
+                break;
+            }
+            case F_KMH: {
+                putFixed (epoch.speed * KmhPerMPS, 1);
+                break;
+            }
+            case F_COURSE: {
+                double crs = epoch.bearing;
+                if (crs >= 359.95) crs -= 360.0;
+                putFixed (crs, 1);
+                break;
+            }
+            case F_NUMSATS: {
+                putInt (epoch.satellites.length, 1);
+                break;
+            }
+            case F_NUMSATS2: {
+                putInt (epoch.satellites.length, 2);
+                break;
+            }
+            case F_QUALITY: {
+                put (epoch.extrapolated ? '6' : '1');
+                break;
+            }
+            case F_MODE: {
+                put (epoch.stale ? 'N' : epoch.extrapolated ? 'E' : 'A');
+                break;
+            }
+            case F_STATUS: {
+                put (epoch.stale ? 'V' : 'A');
+                break;
+            }
+        }
+    }
+
+    // get yyyymmdd for the epoch, computed once per epoch
+    private int civilDate (GpsEpoch epoch)
+    {
+        if (civilSeq != epoch.seq) {
+            civilSeq = epoch.seq;
+            long days = epoch.time / 86400000L;
+            if (days * 86400000L > epoch.time) -- days;
+            civilDate = CivilFromDays ((int) days);
+        }
+        return civilDate;
+    }
+
+    /***********************************\
+     *  Low-level sentence formatting  *
+    \***********************************/
+
+    // start a new sentence, st = talker, type and first comma
+    public void begin (String st)
+    {
+        ensure (100);
+        buf[len++] = '$';
+        xor = 0;
+        put (st);
+    }
+
+    // finish sentence with *checksum and CRLF
+    public void end ()
+    {
+        ensure (5);
+        buf[len++] = '*';
+        buf[len++] = hexdigs[(xor>>4)&15];
+        buf[len++] = hexdigs[xor&15];
+        buf[len++] = '\r';
+        buf[len++] = '\n';
+    }
+
+    public void put (char c)
+    {
+        ensure (1);
+        buf[len++] = (byte) c;
+        xor ^= c;
+    }
+
+    public void put (String st)
+    {
+        int n = st.length ();
+        ensure (n);
+        for (int i = 0; i < n; i ++) {
+            char c = st.charAt (i);
+            buf[len++] = (byte) c;
+            xor ^= c;
+        }
+    }
+
+    // append integer, zero-padded on the left to at least the given number of digits
+    public void putInt (long val, int mindigs)
+    {
+        ensure (EpochBuffer.PUTINT_MAX);
+        int start = len;
+        len = EpochBuffer.putInt (buf, len, val, mindigs);
+        while (start < len) xor ^= buf[start++];
+    }
+
+    // append fixed-point number rounded to the given number of decimal places
+    public void putFixed (double val, int decs)
+    {
+        ensure (EpochBuffer.PUTFIXED_MAX);
+        int start = len;
+        len = EpochBuffer.putFixed (buf, len, val, decs);
+        while (start < len) xor ^= buf[start++];
+    }
+
+    // append degrees as dddmm.mmm,H
+    public void putLatLon (double ll, int degdigs, char pos, char neg)
+    {
+        long min1000 = Math.round (ll * 60000.0);
+        if (min1000 < 0) {
+            min1000 = - min1000;
+            pos = neg;
+        }
+        putInt (min1000 / 60000, degdigs);
+        min1000 %= 60000;
+        putInt (min1000 / 1000, 2);
+        put ('.');
+        putInt (min1000 % 1000, 3);
+        put (',');
+        put (pos);
+    }
+
+    // append UTC time as hhmmss.sss
+    public void putTime (long time)
+    {
+        long msofday = time % 86400000L;
+        if (msofday < 0) msofday += 86400000L;
+        int secofday = (int) (msofday / 1000);
+        putInt (secofday / 3600, 2);
+        putInt (secofday / 60 % 60, 2);
+        putInt (secofday % 60, 2);
+        put ('.');
+        putInt (msofday % 1000, 3);
+    }
+
+    /**
+     * Convert days since 1970-01-01 to yyyymmdd.
+     * http://howardhinnant.github.io/date_algorithms.html#civil_from_days
+     */
+    public static int CivilFromDays (int days)
+    {
+        days += 719468;
+        int era = (days >= 0 ? days : days - 146096) / 146097;
+        int doe = days - era * 146097;
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int y   = yoe + era * 400;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp  = (5 * doy + 2) / 153;
+        int d   = doy - (153 * mp + 2) / 5 + 1;
+        int m   = mp < 10 ? mp + 3 : mp - 9;
+        if (m <= 2) y ++;
+        return (y * 100 + m) * 100 + d;
+    }
+
+    // make sure there is room for n more bytes
+    private void ensure (int n)
+    {
+        buf = EpochBuffer.ensure (buf, len, n);
+    }
+}
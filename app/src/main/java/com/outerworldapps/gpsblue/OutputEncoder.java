@@ -0,0 +1,37 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+/**
+ * Converts a GPS epoch into bytes in some format understood by clients.
+ * Called only with its OutputFormat locked, normally in InternalGps.GPSRcvrThread.
+ */
+public interface OutputEncoder {
+
+    // name the format is selected by
+    String getName ();
+
+    /**
+     * Append the encoding of the epoch to the given buffer.
+     * Only encode the parts given in epoch.parts, possibly nothing.
+     */
+    void encode (GpsEpoch epoch, EpochBuffer out);
+}
@@ -0,0 +1,139 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+import java.util.ArrayList;
+
+/**
+ * An output encoder along with the most recent epoch it encoded.
+ * The epoch is encoded at most once no matter how many clients
+ * are using the format and they all get the same buffer.
+ * Buffers released by all clients are reused for later epochs.
+ * Also keeps the latest location and satellites to send to new clients.
+ */
+public class OutputFormat {
+    public final OutputEncoder encoder;
+    public final boolean raw;           // NMEA-RAW, gets only raw NMEA epochs, others never do
+
+    private EpochBuffer encoded;
+    private EpochBuffer complete;       // latest encoded epoch with location and satellites
+    private final GpsEpoch latest = new GpsEpoch ();    // latest location and satellites
+    private long replaySeq = -1;        // seqs for replays, below -1 so never match a real one
+    private final ArrayList<EpochBuffer> freeBuffers = new ArrayList<> ();
+
+    public OutputFormat (OutputEncoder enc)
+    {
+        encoder = enc;
+        raw = enc instanceof RawNMEAEncoder;
+    }
+
+    public String getName ()
+    {
+        return encoder.getName ();
+    }
+
+    /**
+     * Get the given epoch encoded in this format, encoding it if not already.
+     * Returned buffer is valid until the next epoch is encoded,
+     * call its retain() to hang on to it longer.
+     * Called in InternalGps.GPSRcvrThread.
+     */
+    public synchronized EpochBuffer getEncoded (GpsEpoch epoch)
+    {
+        if ((encoded == null) || (encoded.seq != epoch.seq)) {
+            EpochBuffer eb = getFree ();
+            encoder.encode (epoch, eb);
+            eb.parts = epoch.parts;
+            eb.seq = epoch.seq;
+            eb.retain ();
+            if (encoded != null) encoded.release ();
+            encoded = eb;
+
+            // remember the latest of everything for new clients
+            if ((epoch.parts & GpsEpoch.LOCATION) != 0) latest.copyLocation (epoch);
+            if ((epoch.parts & GpsEpoch.SATELLITES) != 0) latest.satellites = epoch.satellites;
+            latest.seq = epoch.seq;
+            latest.receivedNanos = epoch.receivedNanos;
+            if (epoch.parts == (GpsEpoch.LOCATION | GpsEpoch.SATELLITES)) {
+                eb.retain ();
+                if (complete != null) complete.release ();
+                complete = eb;
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Get the latest location and satellites for a client that just connected,
+     * so it doesn't have to wait for the next epoch.  Marked stale (eg, RMC
+     * status V) if the location is older than validNanos.
+     * Caller must release() the buffer.
+     * @param nowNanos = SystemClock.elapsedRealtimeNanos()
+     * @return null if no location yet
+     * Called in any thread.
+     */
+    public synchronized EpochBuffer getLatest (long nowNanos, long validNanos)
+    {
+        if (! latest.hasLocation) return null;
+        boolean stale = nowNanos - latest.elapsedNanos > validNanos;
+
+        // send the same buffer everyone else got if it is still current
+        if (! stale && (complete != null) && (complete.seq == latest.seq)) {
+            complete.retain ();
+            return complete;
+        }
+
+        // re-encode with its own seq so the encoder doesn't reuse fields from the original
+        EpochBuffer eb = getFree ();
+        long seq = latest.seq;
+        latest.seq = -- replaySeq;
+        latest.parts = GpsEpoch.LOCATION | GpsEpoch.SATELLITES;
+        latest.stale = stale;
+        encoder.encode (latest, eb);
+        eb.parts = latest.parts;
+        eb.seq = latest.seq;
+        latest.seq = seq;
+        latest.stale = false;
+        eb.retain ();
+        return eb;
+    }
+
+    // get an empty buffer
+    private EpochBuffer getFree ()
+    {
+        EpochBuffer eb;
+        synchronized (freeBuffers) {
+            int n = freeBuffers.size ();
+            eb = (n > 0) ? freeBuffers.remove (n - 1) : new EpochBuffer (this);
+        }
+        eb.length = 0;
+        return eb;
+    }
+
+    // buffer released by everyone, put it on free list
+    // called in any thread
+    public void recycle (EpochBuffer eb)
+    {
+        synchronized (freeBuffers) {
+            freeBuffers.add (eb);
+        }
+    }
+}
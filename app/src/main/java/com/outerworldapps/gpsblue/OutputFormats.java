@@ -0,0 +1,107 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+import java.util.LinkedHashMap;
+
+/**
+ * All the output formats available for clients to choose from.
+ * NMEA formats with other sets of sentences are added as clients ask for them.
+ */
+public class OutputFormats {
+    public final static String DEFAULT = "NMEA";
+
+    private final LinkedHashMap<String,OutputFormat> formats = new LinkedHashMap<> ();
+
+    public OutputFormats ()
+    {
+        register (new NMEAEncoder (DEFAULT, NMEAEncoder.STANDARD));
+        register (new NMEAEncoder ("NMEA-EXT", NMEAEncoder.EXTENDED));
+        register (new NMEAEncoder ("NMEA-VTG-ZDA", NMEAEncoder.STANDARD | NMEAEncoder.VTG | NMEAEncoder.ZDA));
+        register (new NMEAEncoder ("NMEA-RMC", NMEAEncoder.RMC));
+        register (new RawNMEAEncoder ());
+        register (new GDL90Encoder ());
+        register (new UBXEncoder ());
+        register (new FeedEncoder ());
+        register (new JSONEncoder ());
+    }
+
+    public synchronized void register (OutputEncoder encoder)
+    {
+        formats.put (encoder.getName (), new OutputFormat (encoder));
+    }
+
+    // get format by name, null if not defined
+    public synchronized OutputFormat get (String name)
+    {
+        return formats.get (name);
+    }
+
+    public synchronized OutputFormat getDefault ()
+    {
+        return formats.get (DEFAULT);
+    }
+
+    public synchronized String[] getNames ()
+    {
+        return formats.keySet ().toArray (new String[formats.size ()]);
+    }
+
+    /**
+     * Get format by name given as ASCII bytes, ignoring case.
+     * @return null if not defined
+     */
+    public synchronized OutputFormat find (byte[] buf, int ofs, int len)
+    {
+        for (OutputFormat format : formats.values ()) {
+            String name = format.getName ();
+            if (name.length () != len) continue;
+            int i;
+            for (i = 0; i < len; i ++) {
+                if (Character.toUpperCase (name.charAt (i)) != Character.toUpperCase ((char) buf[ofs+i])) break;
+            }
+            if (i == len) return format;
+        }
+        return null;
+    }
+
+    /**
+     * Get NMEA format that outputs the given sentences,
+     * defining it if none does yet.
+     * @param sentences = NMEAEncoder.GGA, RMC, ...
+     */
+    public synchronized OutputFormat getNMEA (int sentences)
+    {
+        for (OutputFormat format : formats.values ()) {
+            if ((format.encoder instanceof NMEAEncoder) &&
+                    (((NMEAEncoder) format.encoder).getSentences () == sentences)) {
+                return format;
+            }
+        }
+        StringBuilder name = new StringBuilder ("NMEA");
+        for (int i = 0; i < NMEAEncoder.NAMES.length; i ++) {
+            if ((sentences & (1 << i)) != 0) name.append ('-').append (NMEAEncoder.NAMES[i]);
+        }
+        OutputFormat format = new OutputFormat (new NMEAEncoder (name.toString (), sentences));
+        formats.put (format.getName (), format);
+        return format;
+    }
+}
@@ -0,0 +1,223 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+/**
+ * Constant-velocity Kalman filter to smooth the jitter out of phone GPS locations.
+ *
+ * Works in metres north, east and up from a reference point (the first fix).
+ * Each axis is an independent 2-state filter (position, velocity), so the
+ * whole state is 6 doubles and the covariance is 3 2x2 matrices, all kept in
+ * preallocated arrays and updated with straight-line code.
+ *
+ * Measurements are position (noise from accuracy and vertical accuracy)
+ * and, for north and east, velocity from speed and bearing (noise from
+ * speed accuracy).  Used only in InternalGps.GPSRcvrThread.
+ */
+public class PositionFilter {
+    private final static double EARTH_RADIUS = 6371000.0;  // metres
+    private final static double MAX_GAP      = 10.0;       // seconds, restart filter after longer gap
+    private final static double MAX_DISTANCE = 10000.0;    // metres, move reference point after this far
+    private final static double ACCEL_HORIZ  = 2.0;        // m/s/s, expected horizontal acceleration
+    private final static double ACCEL_VERT   = 0.5;        // m/s/s, expected vertical acceleration
+    private final static double DEF_SPEEDACC = 1.0;        // m/s, speed accuracy if not given
+    private final static double MIN_BEARING_SPEED = 0.5;   // m/s, hold bearing below this
+
+    private final static int N = 0;
+    private final static int E = 2;
+    private final static int U = 4;
+
+    // state: {north, vnorth, east, veast, up, vup}
+    // covariance: {Pnn, Pnv, Pvv} for each axis
+    private final double[] x = new double[6];
+    private final double[] p = new double[9];
+
+    private boolean started;
+    private long lastNanos;
+    private double refLat, refLon, refCosLat;
+    private double lastBearing;
+
+    // forget everything, eg, GPS receiver restarted
+    public void reset ()
+    {
+        started = false;
+    }
+
+    /**
+     * Replace the raw location in the epoch with the filtered location.
+     * Fills in vertical speed from the filter as well.
+     */
+    public void filter (GpsEpoch epoch)
+    {
+        double dt = (epoch.elapsedNanos - lastNanos) / 1.0E9;
+        if (started && ((dt <= 0.0) || (dt > MAX_GAP))) started = false;
+
+        // measurement noise variances
+        double acc = epoch.hasAccuracy ? epoch.accuracy : 10.0;
+        double rpos = acc * acc;
+        double vacc = epoch.hasVerticalAccuracy ? epoch.verticalAccuracy : acc * 1.5;
+        double ralt = vacc * vacc;
+        double sacc = epoch.hasSpeedAccuracy ? epoch.speedAccuracy : DEF_SPEEDACC;
+        double rvel = sacc * sacc;
+
+        // velocity measurement, if any
+        boolean hasvel = epoch.hasSpeed && epoch.hasBearing;
+        double crs = Math.toRadians (epoch.bearing);
+        double vn = hasvel ? epoch.speed * Math.cos (crs) : 0.0;
+        double ve = hasvel ? epoch.speed * Math.sin (crs) : 0.0;
+
+        if (! started) {
+            setReference (epoch.latitude, epoch.longitude);
+            initAxis (N, 0.0, vn, rpos, hasvel ? rvel : 100.0);
+            initAxis (E, 0.0, ve, rpos, hasvel ? rvel : 100.0);
+            initAxis (U, epoch.altitude, 0.0, epoch.hasAltitude ? ralt : 1.0E6, 100.0);
+            lastBearing = epoch.bearing;
+            started = true;
+        } else {
+            double north = Math.toRadians (epoch.latitude - refLat) * EARTH_RADIUS;
+            double east  = Math.toRadians (lonDiff (epoch.longitude, refLon)) * EARTH_RADIUS * refCosLat;
+            predictAxis (N, dt, ACCEL_HORIZ * ACCEL_HORIZ);
+            predictAxis (E, dt, ACCEL_HORIZ * ACCEL_HORIZ);
+            predictAxis (U, dt, ACCEL_VERT * ACCEL_VERT);
+            if (hasvel) {
+                updateAxis (N, north, vn, rpos, rvel);
+                updateAxis (E, east,  ve, rpos, rvel);
+            } else {
+                updateAxisPos (N, north, rpos);
+                updateAxisPos (E, east,  rpos);
+            }
+            if (epoch.hasAltitude) {
+                updateAxisPos (U, epoch.altitude, ralt);
+            }
+        }
+        lastNanos = epoch.elapsedNanos;
+
+        // write smoothed values back to epoch
+        double lat = refLat + Math.toDegrees (x[N] / EARTH_RADIUS);
+        double lon = refLon + Math.toDegrees (x[E] / (EARTH_RADIUS * refCosLat));
+        if (lon >= 180.0) lon -= 360.0;
+        if (lon < -180.0) lon += 360.0;
+        epoch.latitude  = lat;
+        epoch.longitude = lon;
+        if (epoch.hasAltitude) {
+            epoch.altitude = x[U];
+            epoch.hasVerticalSpeed = true;
+            epoch.verticalSpeed = x[U+1];
+        }
+        if (hasvel) {
+            double speed = Math.hypot (x[N+1], x[E+1]);
+            epoch.speed = speed;
+            if (speed >= MIN_BEARING_SPEED) {
+                double bearing = Math.toDegrees (Math.atan2 (x[E+1], x[N+1]));
+                lastBearing = (bearing < 0.0) ? bearing + 360.0 : bearing;
+            }
+            epoch.bearing = lastBearing;
+        }
+
+        // keep local co-ordinates small
+        if (Math.abs (x[N]) + Math.abs (x[E]) > MAX_DISTANCE) {
+            setReference (lat, lon);
+            x[N] = 0.0;
+            x[E] = 0.0;
+        }
+    }
+
+    private void setReference (double lat, double lon)
+    {
+        refLat = lat;
+        refLon = lon;
+        refCosLat = Math.max (Math.cos (Math.toRadians (lat)), 0.01);
+    }
+
+    private static double lonDiff (double a, double b)
+    {
+        double d = a - b;
+        if (d >= 180.0) d -= 360.0;
+        if (d < -180.0) d += 360.0;
+        return d;
+    }
+
+    private void initAxis (int i, double pos, double vel, double rpos, double rvel)
+    {
+        int j = i / 2 * 3;
+        x[i]   = pos;
+        x[i+1] = vel;
+        p[j]   = rpos;
+        p[j+1] = 0.0;
+        p[j+2] = rvel;
+    }
+
+    // x = F x, P = F P F' + Q for F = [1 dt; 0 1] and white-noise acceleration q
+    private void predictAxis (int i, double dt, double q)
+    {
+        int j = i / 2 * 3;
+        x[i] += x[i+1] * dt;
+        double pvv = p[j+2];
+        double pnv = p[j+1] + pvv * dt;
+        double dt2 = dt * dt;
+        p[j]   += (2.0 * p[j+1] + pvv * dt) * dt + q * dt2 * dt / 3.0;
+        p[j+1]  = pnv + q * dt2 / 2.0;
+        p[j+2]  = pvv + q * dt;
+    }
+
+    // measure position and velocity, H = I, R = diag (rpos, rvel)
+    private void updateAxis (int i, double zpos, double zvel, double rpos, double rvel)
+    {
+        int j = i / 2 * 3;
+        double pnn = p[j], pnv = p[j+1], pvv = p[j+2];
+
+        // S = P + R, K = P S^-1
+        double snn = pnn + rpos;
+        double svv = pvv + rvel;
+        double det = snn * svv - pnv * pnv;
+        double inn = svv / det, inv = -pnv / det, ivv = snn / det;
+        double knn = pnn * inn + pnv * inv;
+        double knv = pnn * inv + pnv * ivv;
+        double kvn = pnv * inn + pvv * inv;
+        double kvv = pnv * inv + pvv * ivv;
+
+        double yp = zpos - x[i];
+        double yv = zvel - x[i+1];
+        x[i]   += knn * yp + knv * yv;
+        x[i+1] += kvn * yp + kvv * yv;
+
+        // P = (I - K) P
+        p[j]   = (1.0 - knn) * pnn - knv * pnv;
+        p[j+1] = (1.0 - knn) * pnv - knv * pvv;
+        p[j+2] = (1.0 - kvv) * pvv - kvn * pnv;
+    }
+
+    // measure position only, H = [1 0]
+    private void updateAxisPos (int i, double zpos, double rpos)
+    {
+        int j = i / 2 * 3;
+        double pnn = p[j], pnv = p[j+1], pvv = p[j+2];
+        double s  = pnn + rpos;
+        double kn = pnn / s;
+        double kv = pnv / s;
+        double y  = zpos - x[i];
+        x[i]   += kn * y;
+        x[i+1] += kv * y;
+        p[j]    = (1.0 - kn) * pnn;
+        p[j+1]  = (1.0 - kn) * pnv;
+        p[j+2]  = pvv - kv * pnv;
+    }
+}
@@ -0,0 +1,61 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+/**
+ * Measure the rate something happens at from the time of each occurrence.
+ * Keeps an exponential average of the interval between occurrences.
+ */
+public class RateMeter {
+    private final static double SMOOTHING = 0.1;
+
+    private double avgInterval;     // average nanoseconds between ticks
+    private long lastTick;
+    private boolean started;
+
+    /**
+     * Record an occurrence.
+     * @param nanos = monotonic time of occurrence
+     */
+    public void tick (long nanos)
+    {
+        if (started) {
+            long interval = nanos - lastTick;
+            avgInterval = (avgInterval == 0.0) ? interval :
+                    avgInterval + (interval - avgInterval) * SMOOTHING;
+        }
+        lastTick = nanos;
+        started = true;
+    }
+
+    // forget everything, eg, when source is restarted
+    public void reset ()
+    {
+        avgInterval = 0.0;
+        started = false;
+    }
+
+    // get average rate in Hz, 0 if not enough occurrences yet
+    public double getRate ()
+    {
+        return (avgInterval > 0.0) ? 1.0E9 / avgInterval : 0.0;
+    }
+}
@@ -0,0 +1,48 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+
+package com.outerworldapps.gpsblue;
+
+/**
+ * Pass the GPS chipset's own NMEA sentences through byte-for-byte,
+ * including any proprietary ones, nothing is generated from the location.
+ * Needs Android N or later for OnNmeaMessageListener, outputs nothing before.
+ */
+public class RawNMEAEncoder implements OutputEncoder {
+    public final static String NAME = "NMEA-RAW";
+
+    @Override  // OutputEncoder
+    public String getName ()
+    {
+        return NAME;
+    }
+
+    @Override  // OutputEncoder
+    public void encode (GpsEpoch epoch, EpochBuffer out)
+    {
+        if ((epoch.parts & GpsEpoch.NMEA) != 0) {
+            int len = epoch.nmeaLength;
+            out.ensure (len);
+            System.arraycopy (epoch.nmea, 0, out.bytes, out.length, len);
+            out.length += len;
+        }
+    }
+}
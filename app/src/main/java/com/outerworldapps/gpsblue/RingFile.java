@@ -0,0 +1,197 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+/**
+ * Publish each epoch into a fixed-size memory-mapped ring file,
+ * for apps that would rather poll for the latest location than
+ * hold a connection open.  Readers map the file and read it with
+ * no system calls and no locking, see RingFileReader.
+ *
+ * All values little-endian.
+ *
+ * Header, HEADER_SIZE bytes:
+ *    0  u64 MAGIC
+ *    8  u32 VERSION
+ *   12  u32 RECORD_SIZE
+ *   16  u32 number of record slots
+ *   20  u32 HEADER_SIZE
+ *   24  u64 number of the latest complete record, 0 if none yet
+ *
+ * Record number n is in slot (n - 1) % slots, RECORD_SIZE bytes:
+ *    0  u64 lock, 2 * n - 1 while being written, 2 * n when complete
+ *    8  u64 record number n
+ *   16  u64 epoch sequence number
+ *   24  u64 time, milliseconds since 1970-01-01 00:00 UTC
+ *   32  s64 elapsedRealtimeNanos of the fix
+ *   40  s64 elapsedRealtimeNanos when received from GPS
+ *   48  f64 latitude, degrees
+ *   56  f64 longitude, degrees
+ *   64  f64 altitude, metres MSL
+ *   72  f64 speed, metres per second
+ *   80  f64 bearing, degrees true
+ *   88  f64 vertical speed, metres per second
+ *   96  f32 horizontal accuracy, metres
+ *  100  f32 vertical accuracy, metres
+ *  104  f32 speed accuracy, metres per second
+ *  108  f32 bearing accuracy, degrees
+ *  112  u16 flags, FeedEncoder.FL_..., fields that are not present are zero
+ *  114  u8  GpsEpoch parts just received
+ *  115  u8  zero
+ *  116  u16 number of satellites in view
+ *  118  u16 number of satellites used in fix
+ *  120  u64 CHECKSUM of bytes 8..119
+ *
+ * The lock works as a seqlock, a reader takes a record if the lock
+ * is 2 * n both before and after copying it.  Java 7 has no memory
+ * fences for mapped files so the writer's and reader's accesses might
+ * be reordered, the checksum catches any torn record that gets by.
+ * Does not depend on Android classes so it runs on a build box too.
+ */
+
+package com.outerworldapps.gpsblue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class RingFile {
+    public final static long MAGIC      = 0x474E495242535047L;  // "GPSBRING"
+    public final static int VERSION     = 1;
+    public final static int HEADER_SIZE = 64;
+    public final static int RECORD_SIZE = 128;
+    public final static int SLOTS       = 16;
+
+    public final static int HDR_LATEST  = 24;
+
+    private final ByteBuffer record = ByteBuffer.allocate (RECORD_SIZE).order (ByteOrder.LITTLE_ENDIAN);
+    private long number;
+    private MappedByteBuffer map;
+
+    /**
+     * Create and map the file with an empty ring.
+     * Readers of an old file see its latest record go back to 0.
+     */
+    public RingFile (File file)
+            throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile (file, "rw");
+        try {
+            raf.setLength (HEADER_SIZE + SLOTS * RECORD_SIZE);
+            map = raf.getChannel ().map (FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + SLOTS * RECORD_SIZE);
+        } finally {
+            // mapping stays valid after the file is closed
+            raf.close ();
+        }
+        map.order (ByteOrder.LITTLE_ENDIAN);
+        map.putLong (HDR_LATEST, 0);
+        for (int i = HEADER_SIZE; i < HEADER_SIZE + SLOTS * RECORD_SIZE; i += 8) map.putLong (i, 0);
+        map.putLong (0, MAGIC);
+        map.putInt (8, VERSION);
+        map.putInt (12, RECORD_SIZE);
+        map.putInt (16, SLOTS);
+        map.putInt (20, HEADER_SIZE);
+    }
+
+    /**
+     * Stop writing to the file.
+     * Java has no way to unmap a file, dropping the mapping lets
+     * the garbage collector do it.
+     * Called in any thread.
+     */
+    public synchronized void close ()
+    {
+        map = null;
+    }
+
+    /**
+     * Put epoch in the next slot then make it the latest.
+     * Nothing is written until there is a location.
+     * Does nothing once closed.
+     * Called in InternalGps.GPSRcvrThread.
+     */
+    public synchronized void write (GpsEpoch epoch)
+    {
+        if ((map == null) || ! epoch.hasLocation) return;
+
+        long n = ++ number;
+        ByteBuffer rec = record;
+        rec.clear ();
+        rec.putLong (0);
+        rec.putLong (n);
+        rec.putLong (epoch.seq);
+        rec.putLong (epoch.time);
+        rec.putLong (epoch.elapsedNanos);
+        rec.putLong (epoch.receivedNanos);
+        rec.putDouble (epoch.latitude);
+        rec.putDouble (epoch.longitude);
+        rec.putDouble (epoch.hasAltitude ? epoch.altitude : 0);
+        rec.putDouble (epoch.hasSpeed ? epoch.speed : 0);
+        rec.putDouble (epoch.hasBearing ? epoch.bearing : 0);
+        rec.putDouble (epoch.hasVerticalSpeed ? epoch.verticalSpeed : 0);
+        rec.putFloat (epoch.hasAccuracy ? (float) epoch.accuracy : 0);
+        rec.putFloat (epoch.hasVerticalAccuracy ? (float) epoch.verticalAccuracy : 0);
+        rec.putFloat (epoch.hasSpeedAccuracy ? (float) epoch.speedAccuracy : 0);
+        rec.putFloat (epoch.hasBearingAccuracy ? (float) epoch.bearingAccuracy : 0);
+        int flags = 0;
+        if (epoch.hasAltitude)         flags |= FeedEncoder.FL_ALTITUDE;
+        if (epoch.hasSpeed)            flags |= FeedEncoder.FL_SPEED;
+        if (epoch.hasBearing)          flags |= FeedEncoder.FL_BEARING;
+        if (epoch.hasVerticalSpeed)    flags |= FeedEncoder.FL_VERTSPEED;
+        if (epoch.hasAccuracy)         flags |= FeedEncoder.FL_ACCURACY;
+        if (epoch.hasVerticalAccuracy) flags |= FeedEncoder.FL_VERTACCURACY;
+        if (epoch.hasSpeedAccuracy)    flags |= FeedEncoder.FL_SPEEDACCURACY;
+        if (epoch.hasBearingAccuracy)  flags |= FeedEncoder.FL_BEARINGACCURACY;
+        if (epoch.extrapolated)        flags |= FeedEncoder.FL_EXTRAPOLATED;
+        rec.putShort ((short) flags);
+        rec.put ((byte) epoch.parts);
+        rec.put ((byte) 0);
+        int used = 0;
+        for (MyGpsSatellite sat : epoch.satellites) if (sat.used) used ++;
+        rec.putShort ((short) epoch.satellites.length);
+        rec.putShort ((short) used);
+        rec.putLong (checksum (rec, 0));
+
+        // lock slot, fill it in, unlock it, then tell readers it is the latest
+        int slot = HEADER_SIZE + (int) ((n - 1) % SLOTS) * RECORD_SIZE;
+        map.putLong (slot, 2 * n - 1);
+        map.position (slot + 8);
+        map.put (rec.array (), 8, RECORD_SIZE - 8);
+        map.putLong (slot, 2 * n);
+        map.putLong (HDR_LATEST, n);
+    }
+
+    /**
+     * Checksum of bytes 8..119 of a record.
+     * @param buf = buffer containing the record
+     * @param ofs = offset of the record in buf
+     */
+    public static long checksum (ByteBuffer buf, int ofs)
+    {
+        long sum = 0xCBF29CE484222325L;
+        for (int i = 8; i < RECORD_SIZE - 8; i += 8) {
+            sum = (sum ^ buf.getLong (ofs + i)) * 0x100000001B3L;
+        }
+        return sum;
+    }
+}
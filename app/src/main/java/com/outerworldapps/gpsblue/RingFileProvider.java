@@ -0,0 +1,92 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+/**
+ * Let other apps open the ring file read-only, eg, for name gpsblue:
+ *   content://com.outerworldapps.gpsblue.ringfile/gpsblue
+ * The file itself is in GPSBlue's private files directory.
+ * Each open descriptor counts as a connection, so GPS runs while any
+ * app has the file open and stops once they all close it (or die).
+ * Only apps allowed to get the location from android themselves may
+ * open it, see readPermission in the manifest.
+ */
+
+package com.outerworldapps.gpsblue;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.FileNotFoundException;
+
+public class RingFileProvider extends ContentProvider {
+    public final static String AUTHORITY = "com.outerworldapps.gpsblue.ringfile";
+
+    // set while the service is writing a ring file
+    public static volatile JSessionService jSessionService;
+
+    @Override  // ContentProvider
+    public boolean onCreate ()
+    {
+        return true;
+    }
+
+    @Override  // ContentProvider
+    public ParcelFileDescriptor openFile (Uri uri, String mode)
+            throws FileNotFoundException
+    {
+        if (! mode.equals ("r")) throw new FileNotFoundException ("ring file is read-only");
+        JSessionService jss = jSessionService;
+        if (jss == null) throw new FileNotFoundException ("GPSBlue is not writing a ring file");
+        return jss.openRingFile (uri.getLastPathSegment ());
+    }
+
+    @Override  // ContentProvider
+    public String getType (Uri uri)
+    {
+        return "application/octet-stream";
+    }
+
+    @Override  // ContentProvider
+    public Cursor query (Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder)
+    {
+        return null;
+    }
+
+    @Override  // ContentProvider
+    public Uri insert (Uri uri, ContentValues values)
+    {
+        return null;
+    }
+
+    @Override  // ContentProvider
+    public int delete (Uri uri, String selection, String[] selectionArgs)
+    {
+        return 0;
+    }
+
+    @Override  // ContentProvider
+    public int update (Uri uri, ContentValues values, String selection, String[] selectionArgs)
+    {
+        return 0;
+    }
+}
@@ -0,0 +1,222 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+/**
+ * Read the latest location from a ring file written by RingFile.
+ * Uses nothing but plain Java so it can be copied into other apps.
+ * Mapping the file is the only system call, after that reading
+ * takes no system calls and never holds up the writer.
+ *
+ *   ParcelFileDescriptor pfd = getContentResolver ().openFileDescriptor (
+ *           Uri.parse ("content://com.outerworldapps.gpsblue.ringfile/" + name), "r");
+ *   RingFileReader reader = new RingFileReader (new ParcelFileDescriptor.AutoCloseInputStream (pfd));
+ *   RingFileReader.Record rec = new RingFileReader.Record ();
+ *   if (reader.readLatest (rec)) ... rec.latitude, rec.longitude ...
+ *   reader.close ();
+ *
+ * GPSBlue keeps GPS on while the stream is open, so close it when done.
+ * Can be called from any number of threads, each with its own Record.
+ */
+
+package com.outerworldapps.gpsblue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class RingFileReader {
+    public final static long MAGIC = 0x474E495242535047L;  // "GPSBRING"
+    public final static int VERSION = 1;
+
+    // Record.flags bits
+    public final static int FL_ALTITUDE     = 0x0001;
+    public final static int FL_SPEED        = 0x0002;
+    public final static int FL_BEARING      = 0x0004;
+    public final static int FL_VERTSPEED    = 0x0008;
+    public final static int FL_ACCURACY     = 0x0010;
+    public final static int FL_VERTACCURACY = 0x0020;
+    public final static int FL_SPEEDACCURACY = 0x0040;
+    public final static int FL_BEARINGACCURACY = 0x0080;
+    public final static int FL_EXTRAPOLATED = 0x0100;
+
+    private final static int HDR_LATEST = 24;
+    private final static int RETRIES = 100;
+
+    private FileInputStream stream;
+    private int headerSize;
+    private int recordSize;
+    private int slots;
+    private MappedByteBuffer map;
+
+    public static class Record {
+        public long number;         // 1, 2, 3, ... as written to the ring file
+        public long seq;            // epoch sequence number
+        public long time;           // milliseconds since 1970-01-01 00:00 UTC
+        public long elapsedNanos;   // SystemClock.elapsedRealtimeNanos() of the fix
+        public long receivedNanos;  // SystemClock.elapsedRealtimeNanos() when received
+        public double latitude;
+        public double longitude;
+        public double altitude;     // metres MSL
+        public double speed;        // metres per second
+        public double bearing;      // degrees true
+        public double verticalSpeed;    // metres per second, up is positive
+        public float accuracy;      // metres horizontal
+        public float verticalAccuracy;  // metres
+        public float speedAccuracy; // metres per second
+        public float bearingAccuracy;   // degrees
+        public int flags;           // FL_...
+        public int parts;           // 1=location, 2=satellites just received
+        public int satellitesInView;
+        public int satellitesUsed;
+
+        private final long[] words = new long[15];
+    }
+
+    /**
+     * Map the ring file given its path.
+     * It must have been created by GPSBlue already.
+     */
+    public RingFileReader (File file)
+            throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile (file, "r");
+        try {
+            map = raf.getChannel ().map (FileChannel.MapMode.READ_ONLY, 0, raf.length ());
+        } finally {
+            raf.close ();
+        }
+        checkHeader ();
+    }
+
+    /**
+     * Map the ring file given a stream opened on it, eg, from GPSBlue's content provider.
+     * The stream is kept open until close() so GPSBlue knows it is being read.
+     */
+    public RingFileReader (FileInputStream fis)
+            throws IOException
+    {
+        stream = fis;
+        try {
+            FileChannel fc = fis.getChannel ();
+            map = fc.map (FileChannel.MapMode.READ_ONLY, 0, fc.size ());
+            checkHeader ();
+        } catch (IOException ioe) {
+            close ();
+            throw ioe;
+        }
+    }
+
+    /**
+     * Done reading, close the stream if opened with one.
+     * The mapping stays valid, but GPSBlue may stop writing.
+     */
+    public void close ()
+    {
+        if (stream != null) {
+            try { stream.close (); } catch (IOException ignored) { }
+            stream = null;
+        }
+    }
+
+    private void checkHeader ()
+            throws IOException
+    {
+        map.order (ByteOrder.LITTLE_ENDIAN);
+        if ((map.capacity () < 64) || (map.getLong (0) != MAGIC) || (map.getInt (8) != VERSION)) {
+            throw new IOException ("not a GPSBlue ring file version " + VERSION);
+        }
+        recordSize = map.getInt (12);
+        slots      = map.getInt (16);
+        headerSize = map.getInt (20);
+        if ((recordSize < 128) || (slots <= 0) || (map.capacity () < headerSize + (long) slots * recordSize)) {
+            throw new IOException ("bad ring file header");
+        }
+    }
+
+    /**
+     * Get number of the latest record, 0 if none written yet.
+     */
+    public long getLatest ()
+    {
+        return map.getLong (HDR_LATEST);
+    }
+
+    /**
+     * Get the latest record.
+     * @return false if none written yet
+     */
+    public boolean readLatest (Record rec)
+    {
+        for (int i = 0; i < RETRIES; i ++) {
+            long n = map.getLong (HDR_LATEST);
+            if (n == 0) return false;
+            if (read (n, rec)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the given record.
+     * Records older than the number of slots have been overwritten.
+     * @return false if overwritten, not written yet or being written right now
+     */
+    public boolean read (long n, Record rec)
+    {
+        if (n <= 0) return false;
+        int slot = headerSize + (int) ((n - 1) % slots) * recordSize;
+        long[] w = rec.words;
+
+        // lock must say complete record n both before and after copying it
+        if (map.getLong (slot) != 2 * n) return false;
+        long sum = 0xCBF29CE484222325L;
+        for (int i = 0; i < 14; i ++) {
+            w[i] = map.getLong (slot + 8 + i * 8);
+            sum  = (sum ^ w[i]) * 0x100000001B3L;
+        }
+        w[14] = map.getLong (slot + 120);
+        if (map.getLong (slot) != 2 * n) return false;
+        if ((w[0] != n) || (w[14] != sum)) return false;
+
+        rec.number          = w[0];
+        rec.seq             = w[1];
+        rec.time            = w[2];
+        rec.elapsedNanos    = w[3];
+        rec.receivedNanos   = w[4];
+        rec.latitude        = Double.longBitsToDouble (w[5]);
+        rec.longitude       = Double.longBitsToDouble (w[6]);
+        rec.altitude        = Double.longBitsToDouble (w[7]);
+        rec.speed           = Double.longBitsToDouble (w[8]);
+        rec.bearing         = Double.longBitsToDouble (w[9]);
+        rec.verticalSpeed   = Double.longBitsToDouble (w[10]);
+        rec.accuracy        = Float.intBitsToFloat ((int) w[11]);
+        rec.verticalAccuracy = Float.intBitsToFloat ((int) (w[11] >>> 32));
+        rec.speedAccuracy   = Float.intBitsToFloat ((int) w[12]);
+        rec.bearingAccuracy = Float.intBitsToFloat ((int) (w[12] >>> 32));
+        rec.flags           = (int) w[13] & 0xFFFF;
+        rec.parts           = (int) (w[13] >>> 16) & 0xFF;
+        rec.satellitesInView = (int) (w[13] >>> 32) & 0xFFFF;
+        rec.satellitesUsed  = (int) (w[13] >>> 48) & 0xFFFF;
+        return true;
+    }
+}
@@ -0,0 +1,69 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+/**
+ * Wrap another encoder's text output as Server-Sent Events,
+ * one event per line:
+ *
+ *   data: {"type":"location",...}
+ *   <blank line>
+ */
+public class SSEEncoder implements OutputEncoder {
+    private final static byte[] DATA = { 'd', 'a', 't', 'a', ':', ' ' };
+
+    private final EpochBuffer inner = new EpochBuffer ();
+    private final OutputEncoder encoder;
+
+    public SSEEncoder (OutputEncoder enc)
+    {
+        encoder = enc;
+    }
+
+    @Override  // OutputEncoder
+    public String getName ()
+    {
+        return "SSE-" + encoder.getName ();
+    }
+
+    @Override  // OutputEncoder
+    public void encode (GpsEpoch epoch, EpochBuffer out)
+    {
+        inner.length = 0;
+        encoder.encode (epoch, inner);
+        byte[] bytes = inner.bytes;
+        int length = inner.length;
+        int start = 0;
+        for (int i = 0; i <= length; i ++) {
+            if ((i == length) ? (start < length) : (bytes[i] == '\n')) {
+                int len = i - start;
+                out.ensure (DATA.length + len + 2);
+                System.arraycopy (DATA, 0, out.bytes, out.length, DATA.length);
+                out.length += DATA.length;
+                System.arraycopy (bytes, start, out.bytes, out.length, len);
+                out.length += len;
+                out.bytes[out.length++] = '\n';
+                out.bytes[out.length++] = '\n';
+                start = i + 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,164 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+import android.annotation.SuppressLint;
+import android.content.SharedPreferences;
+import android.text.InputType;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.Spinner;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+
+/**
+ * Settings that can be changed while stopped.
+ * Each row is a label and a control backed by a preference.
+ */
+@SuppressLint("ViewConstructor")
+public class SettingsView extends LinearLayout {
+    private ArrayList<Setting> settings = new ArrayList<> ();
+    private GPSBlue gpsBlue;
+    private SharedPreferences prefs;
+
+    public SettingsView (GPSBlue gpsb, SharedPreferences prefs)
+    {
+        super (gpsb);
+        gpsBlue = gpsb;
+        this.prefs = prefs;
+        setOrientation (VERTICAL);
+    }
+
+    /**
+     * Add a setting selected from a list of choices.
+     */
+    public void addChoice (String key, String label, String[] choices, String dflt)
+    {
+        ChoiceSetting cs = new ChoiceSetting (key, label, choices);
+        String val = prefs.getString (key, dflt);
+        for (int i = 0; i < choices.length; i ++) {
+            if (choices[i].equals (val)) cs.spinner.setSelection (i);
+        }
+        settings.add (cs);
+    }
+
+    /**
+     * Add a setting typed in as a number, blank if not used.
+     */
+    public void addNumber (String key, String label)
+    {
+        TextSetting ts = new TextSetting (key, label, InputType.TYPE_CLASS_NUMBER);
+        ts.editText.setText (prefs.getString (key, ""));
+        settings.add (ts);
+    }
+
+    /**
+     * Add a setting typed in as text, blank if not used.
+     */
+    public void addText (String key, String label)
+    {
+        TextSetting ts = new TextSetting (key, label, InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS);
+        ts.editText.setText (prefs.getString (key, ""));
+        settings.add (ts);
+    }
+
+    /**
+     * Change what is shown for a text or number setting,
+     * eg, after it was changed some other way.
+     */
+    public void setText (String key, String val)
+    {
+        for (Setting setting : settings) {
+            if ((setting instanceof TextSetting) && setting.key.equals (key)) {
+                ((TextSetting) setting).editText.setText (val);
+            }
+        }
+    }
+
+    /**
+     * Write all the settings to the preferences.
+     */
+    public void save ()
+    {
+        SharedPreferences.Editor editr = prefs.edit ();
+        for (Setting setting : settings) {
+            setting.save (editr);
+        }
+        editr.apply ();
+    }
+
+    private abstract class Setting {
+        public final String key;
+
+        public Setting (String key, String label)
+        {
+            this.key = key;
+            TextView tv = new TextView (gpsBlue);
+            gpsBlue.SetTextSize (tv);
+            tv.setText (label);
+            addView (tv);
+        }
+
+        public abstract void save (SharedPreferences.Editor editr);
+    }
+
+    private class ChoiceSetting extends Setting {
+        public final Spinner spinner;
+
+        public ChoiceSetting (String key, String label, String[] choices)
+        {
+            super (key, label);
+            spinner = new Spinner (gpsBlue);
+            ArrayAdapter<String> adapter = new ArrayAdapter<> (gpsBlue,
+                    android.R.layout.simple_spinner_dropdown_item, choices);
+            spinner.setAdapter (adapter);
+            addView (spinner);
+        }
+
+        @Override
+        public void save (SharedPreferences.Editor editr)
+        {
+            editr.putString (key, spinner.getSelectedItem ().toString ());
+        }
+    }
+
+    private class TextSetting extends Setting {
+        public final EditText editText;
+
+        public TextSetting (String key, String label, int inputType)
+        {
+            super (key, label);
+            editText = new EditText (gpsBlue);
+            editText.setInputType (inputType);
+            editText.setSingleLine ();
+            gpsBlue.SetTextSize (editText);
+            addView (editText);
+        }
+
+        @Override
+        public void save (SharedPreferences.Editor editr)
+        {
+            editr.putString (key, editText.getText ().toString ().trim ());
+        }
+    }
+}
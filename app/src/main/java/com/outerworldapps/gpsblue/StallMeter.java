@@ -0,0 +1,68 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+/**
+ * Histogram of how long writes to one client took to make progress,
+ * so a client that keeps stalling shows up before it gets evicted.
+ * Recorded by the thread servicing the client, read by any thread.
+ */
+public class StallMeter {
+    // lower edge of each bucket in milliseconds
+    public final static int[] BUCKETS = { 0, 10, 50, 250, 1000, 5000 };
+
+    private final long[] counts = new long[BUCKETS.length];
+    private long maxNanos;
+
+    /**
+     * Record how long one write took to make progress.
+     */
+    public synchronized void record (long nanos)
+    {
+        long ms = nanos / 1000000;
+        int i = BUCKETS.length;
+        while (ms < BUCKETS[--i]) { }
+        counts[i] ++;
+        if (maxNanos < nanos) maxNanos = nanos;
+    }
+
+    /**
+     * Append stalls of 50ms and over, eg, " stalls 50ms:3 250ms:1 max 412ms"
+     * Nothing if there haven't been any.
+     */
+    public synchronized void append (StringBuilder sb)
+    {
+        int len = sb.length ();
+        for (int i = 2; i < BUCKETS.length; i ++) {
+            if (counts[i] > 0) {
+                sb.append ((sb.length () == len) ? " stalls " : " ");
+                sb.append (BUCKETS[i]);
+                sb.append ("ms:");
+                sb.append (counts[i]);
+            }
+        }
+        if (sb.length () > len) {
+            sb.append (" max ");
+            sb.append (maxNanos / 1000000);
+            sb.append ("ms");
+        }
+    }
+}
@@ -95,12 +95,19 @@ public class StatusTextView extends TextView {
             sb.append (jss.numstatusesrcvd);
             sb.append ("\nLocations received: ");
             sb.append (jss.numlocationsrcvd);
+            sb.append (String.format (Locale.US, "\nLocation rate: %.1f Hz", jss.locationRate.getRate ()));
+            if (jss.outputJitter.getMax () > 0.0) {
+                sb.append (String.format (Locale.US, "\nOutput jitter: %.1f ms avg, %.1f ms max",
+                        jss.outputJitter.getAverage (), jss.outputJitter.getMax ()));
+            }
             sb.append ('\n');
 
             String lst = jss.latestStatusText;
             if (lst != null) {
                 sb.append ('\n');
                 sb.append (lst);
+                TransportHub th = jss.transportHub;
+                if (th != null) th.appendClientStatus (sb);
                 sb.append ('\n');
             }
         }
@@ -0,0 +1,145 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+/**
+ * Accept incoming TCP connections.
+ * Hand them to the TransportHub which sends out GPS data in whatever
+ * format each connection has selected, taking commands from the clients
+ * to change that, see ClientCommands.
+ * Runs in service context.
+ */
+
+package com.outerworldapps.gpsblue;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+public class TcpServer implements Transport, TransportHub.Acceptor {
+    private int connectionCount;
+    private JSessionService jSessionService;
+    private OutputFormat outputFormat;
+    private ServerSocketChannel serverChannel;
+    private String statusKey;
+
+    public TcpServer (JSessionService jss)
+    {
+        jSessionService = jss;
+    }
+
+    /**
+     * Start listening on the given TCP port.
+     * New connections receive the given format.
+     * Called in app UI thread.
+     */
+    public void startup (String port, OutputFormat format)
+    {
+        outputFormat = format;
+        if (serverChannel == null) {
+            statusKey = "tcp port: " + port;
+            try {
+                ServerSocketChannel ssc = ServerSocketChannel.open ();
+                ssc.socket ().setReuseAddress (true);
+                ssc.socket ().bind (new InetSocketAddress (Integer.parseInt (port)));
+                serverChannel = ssc;
+                jSessionService.transportHub.addServer (ssc, this);
+                updateConnectionCount ();
+            } catch (Exception e) {
+                Log.w (GPSBlue.TAG, "error listening on tcp port " + port, e);
+                shutdown ();
+                jSessionService.fatalError ("TCP Error",
+                        "try different port\n\n" + e.getMessage ());
+            }
+        }
+    }
+
+    /**
+     * Stop listening for new inbound connections.
+     * Terminate any existing connections.
+     * Called in app UI thread.
+     */
+    public void shutdown ()
+    {
+        if (serverChannel != null) {
+            try { serverChannel.close (); } catch (IOException ignored) { }
+            serverChannel = null;
+            updateConnectionCount ();
+        }
+        jSessionService.transportHub.requestCloseAll (this);
+    }
+
+    /**
+     * New TCP connection, start sending to it.
+     * Update the total number of inbound connections,
+     * this also makes sure the GPS is turned on and locks the CPU on.
+     */
+    @Override  // TransportHub.Acceptor
+    public void accepted (SocketChannel sc)
+    {
+        try {
+            sc.socket ().setTcpNoDelay (true);
+            String name = sc.socket ().getInetAddress ().getHostAddress () + ":" + sc.socket ().getPort ();
+            jSessionService.transportHub.addChannel (sc, name, outputFormat, this);
+            synchronized (jSessionService.connectionLock) {
+                connectionCount ++;
+                updateConnectionCount ();
+            }
+        } catch (IOException ioe) {
+            Log.w (GPSBlue.TAG, "error opening tcp connection", ioe);
+            try { sc.close (); } catch (IOException ignored) { }
+        }
+    }
+
+    // clients may send commands to change what they are sent
+    @Override  // Transport
+    public void received (Connection conn, byte[] buf, int len)
+    {
+        if (conn.attachment == null) {
+            conn.attachment = new ClientCommands (jSessionService.outputFormats, jSessionService.transportHub, conn);
+        }
+        ((ClientCommands) conn.attachment).received (buf, len);
+    }
+
+    /**
+     * One of our connections has closed.
+     * If no connections, turn the GPS receiver off and unlock CPU.
+     */
+    @Override  // Transport
+    public void connectionClosed (Connection conn)
+    {
+        synchronized (jSessionService.connectionLock) {
+            -- connectionCount;
+            updateConnectionCount ();
+        }
+    }
+
+    // tell service how many connections we have
+    // drop us from the display if stopped and none left
+    private void updateConnectionCount ()
+    {
+        synchronized (jSessionService.connectionLock) {
+            jSessionService.updateConnectionCount (statusKey,
+                    ((serverChannel == null) && (connectionCount == 0)) ? -1 : connectionCount);
+        }
+    }
+}
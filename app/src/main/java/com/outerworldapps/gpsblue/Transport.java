@@ -0,0 +1,41 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+/**
+ * Something that accepts client connections and hands them to the
+ * TransportHub, eg, TcpServer.  Gets told when they go away
+ * and gets anything they send.
+ */
+public interface Transport {
+    /**
+     * Data has been received from a connection this transport added to the hub.
+     * Buffer is only valid for the duration of the call.
+     * Called in whatever TransportHub thread is servicing the connection.
+     */
+    void received (Connection conn, byte[] buf, int len);
+
+    /**
+     * A connection this transport added to the hub has closed.
+     * Called in whatever TransportHub thread was servicing the connection.
+     */
+    void connectionClosed (Connection conn);
+}
@@ -0,0 +1,782 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Services all client connections of all transports with a constant
+ * number of threads:
+ *
+ *   one event loop thread using a Selector for socket channels
+ *     and for server socket channels accepting them
+ *   a small fixed pool of threads for blocking-only streams (bluetooth)
+ *
+ * The GPS receiver thread calls write() which just queues the encoded
+ * epoch to each connection's ClientQueue (latest wins if a connection
+ * falls behind) then wakes whatever threads service the connections.
+ * Channels are written non-blocking, keeping a partly written buffer
+ * until the channel can take more.  Incoming data is passed to the
+ * connection's transport.
+ *
+ * A watchdog thread closes any connection whose writes have made no
+ * progress for the write timeout, eg, a bluetooth peer gone out of range
+ * can block a write for a long time, holding up every other stream
+ * serviced by the same pool thread.  Its transport gets connectionClosed()
+ * like any other close so its connection count stays right.  It also
+ * closes connections whose transport set a deadline that has passed,
+ * eg, an HTTP client that never finishes sending its request.
+ *
+ * Android clock and logging come through Host so the hub also runs
+ * on a plain JVM, see bench/TransportHubLoopback.java.
+ */
+public class TransportHub {
+    private final static int POOL_SIZE = 2;
+    private final static int POLL_MS = 250;     // how often blocking streams are checked for input
+    private final static int WATCHDOG_MS = 500; // how often writes are checked for progress
+    private final static Connection[] nullconnarray = new Connection[0];
+
+    private Connection[] connections = nullconnarray;
+    private final ArrayList<Connection> connlist = new ArrayList<> ();
+    private final ArrayList<ChannelConnection> pendingChannels = new ArrayList<> ();
+    private final ArrayList<Server> pendingServers = new ArrayList<> ();
+    private EventLoop eventLoop;
+    private int nextFirst;
+    private PoolThread[] pool;
+    private Selector selector;
+    private volatile int writeTimeout;          // milliseconds, 0 for none
+    private volatile long replayValid = -1;     // nanoseconds latest location is valid for new clients, -1 no replay
+    private Watchdog watchdog;
+    private final Host host;
+
+    /**
+     * What the hub needs from the platform.
+     */
+    public interface Host {
+        // SystemClock.elapsedRealtimeNanos(), the clock GpsEpoch.elapsedNanos is on
+        long elapsedRealtimeNanos ();
+
+        // log a message, with the exception if there was one
+        void info (String msg);
+        void warn (String msg, Throwable t);
+    }
+
+    public TransportHub (Host host)
+    {
+        this.host = host;
+    }
+
+    /**
+     * Start the event loop and pool threads.
+     */
+    public void startup ()
+            throws IOException
+    {
+        selector = Selector.open ();
+        eventLoop = new EventLoop ();
+        eventLoop.start ();
+        pool = new PoolThread[POOL_SIZE];
+        for (int i = 0; i < POOL_SIZE; i ++) {
+            pool[i] = new PoolThread ();
+            pool[i].start ();
+        }
+        watchdog = new Watchdog ();
+        watchdog.start ();
+    }
+
+    /**
+     * Close all connections and stop all threads.
+     */
+    public void shutdown ()
+    {
+        if (watchdog != null) {
+            watchdog.interrupt ();
+            try { watchdog.join (); } catch (InterruptedException ignored) { }
+            watchdog = null;
+        }
+        for (Connection conn : connections) requestClose (conn);
+        if (eventLoop != null) {
+            eventLoop.finished = true;
+            selector.wakeup ();
+            try { eventLoop.join (); } catch (InterruptedException ignored) { }
+            eventLoop = null;
+            try { selector.close (); } catch (IOException ignored) { }
+        }
+        if (pool != null) {
+            for (PoolThread pt : pool) {
+                synchronized (pt) {
+                    pt.finished = true;
+                    pt.notifyAll ();
+                }
+                try { pt.join (); } catch (InterruptedException ignored) { }
+            }
+            pool = null;
+        }
+    }
+
+    /**
+     * Set how long a write can go without progress before the connection is closed.
+     * @param ms = milliseconds, 0 for no limit
+     */
+    public void setWriteTimeout (int ms)
+    {
+        writeTimeout = ms;
+    }
+
+    /**
+     * Set whether new connections get the latest location right away
+     * rather than waiting for the next epoch.
+     * @param ms = milliseconds after which it is sent as stale, -1 to not send it
+     */
+    public void setReplayValid (int ms)
+    {
+        replayValid = (ms < 0) ? -1 : ms * 1000000L;
+    }
+
+    /**
+     * Something that takes connections accepted by a server socket channel.
+     */
+    public interface Acceptor {
+        /**
+         * Connection accepted, typically passes it to addChannel().
+         * Called in event loop thread.
+         */
+        void accepted (SocketChannel sc);
+    }
+
+    /**
+     * Accept connections on a listening server socket channel.
+     * Stops when the channel is closed.
+     * Called in any thread.
+     */
+    public void addServer (ServerSocketChannel ssc, Acceptor acceptor)
+            throws IOException
+    {
+        ssc.configureBlocking (false);
+        synchronized (connlist) {
+            pendingServers.add (new Server (ssc, acceptor));
+        }
+        selector.wakeup ();
+    }
+
+    /**
+     * Add a connected socket channel, eg, TCP or a loopback stand-in.
+     * Called in any thread.
+     */
+    public Connection addChannel (SocketChannel sc, String name, OutputFormat format, Transport transport)
+            throws IOException
+    {
+        sc.configureBlocking (false);
+        ChannelConnection conn = new ChannelConnection (sc, name, format, transport);
+        synchronized (connlist) {
+            pendingChannels.add (conn);
+            addConnection (conn);
+        }
+        sendLatest (conn);
+        selector.wakeup ();
+        return conn;
+    }
+
+    /**
+     * Add a connected blocking-only stream, eg, bluetooth socket.
+     * It is serviced by whichever pool thread has the fewest streams.
+     * @param mtu = largest single write to do
+     * @param socket = closed when the connection is closed
+     * Called in any thread.
+     */
+    public Connection addStream (InputStream is, OutputStream os, Closeable socket, int mtu,
+                                 String name, OutputFormat format, Transport transport)
+    {
+        StreamConnection conn;
+        PoolThread pt;
+        synchronized (connlist) {
+            pt = pool[0];
+            for (PoolThread p : pool) {
+                if (pt.streams.length > p.streams.length) pt = p;
+            }
+            conn = new StreamConnection (is, os, socket, mtu, pt, name, format, transport);
+            addConnection (conn);
+            pt.streamlist.add (conn);
+            pt.streams = pt.streamlist.toArray (new StreamConnection[pt.streamlist.size()]);
+        }
+        sendLatest (conn);
+        pt.wake ();
+        return conn;
+    }
+
+    /**
+     * Queue a one-off buffer, eg, a protocol response, to a connection.
+     * Called in any thread.
+     */
+    public void send (Connection conn, EpochBuffer eb)
+    {
+        conn.queue.put (eb);
+        if (conn instanceof StreamConnection) {
+            ((StreamConnection) conn).poolThread.wake ();
+        } else {
+            selector.wakeup ();
+        }
+    }
+
+    /**
+     * Queue the latest location and satellites to a new connection in its format,
+     * if replay is enabled and there has been a location.
+     * Called in any thread.
+     */
+    public void sendLatest (Connection conn)
+    {
+        OutputFormat format = conn.format;
+        long valid = replayValid;
+        if ((format != null) && (valid >= 0)) {
+            EpochBuffer eb = format.getLatest (host.elapsedRealtimeNanos (), valid);
+            if (eb != null) {
+                send (conn, eb);
+                eb.release ();
+            }
+        }
+    }
+
+    /**
+     * Queue epoch to all connections and wake up the threads that write them.
+     * Each format is encoded at most once, shared by all connections using it.
+     * Connections that asked for a slower rate skip epochs, locations and
+     * satellites each getting one per interval.
+     * Raw NMEA epochs go only to NMEA-RAW connections, all others only to the rest.
+     * Start with a different connection each time so none is always first.
+     * Called in InternalGps.GPSRcvrThread.
+     */
+    public void write (GpsEpoch epoch)
+    {
+        Connection[] conns = connections;
+        int n = conns.length;
+        if (n > 0) {
+            boolean raw = epoch.parts == GpsEpoch.NMEA;
+            boolean wakeLoop = false;
+            int first = nextFirst % n;
+            nextFirst = first + 1;
+            for (int i = 0; i < n; i ++) {
+                Connection conn = conns[(first+i)%n];
+                OutputFormat format = conn.format;
+                if ((format != null) && ! conn.closeRequested && (format.raw == raw)) {
+                    // client asked for a slower rate, send only the first location and the
+                    // first satellites in each interval, satellites-only epochs carry the
+                    // last fix's time so they are slotted by when they were received
+                    // raw NMEA goes at whatever rate the chipset sends it
+                    int interval = conn.intervalMs;
+                    long locslot = -1;
+                    long satslot = -1;
+                    if ((interval > 0) && ! raw) {
+                        if ((epoch.parts & GpsEpoch.LOCATION) != 0) {
+                            locslot = epoch.time / interval;
+                            if (locslot == conn.lastLocationSlot) locslot = -1;
+                        }
+                        if ((epoch.parts & GpsEpoch.SATELLITES) != 0) {
+                            satslot = epoch.receivedNanos / 1000000 / interval;
+                            if (satslot == conn.lastSatellitesSlot) satslot = -1;
+                        }
+                        if ((locslot < 0) && (satslot < 0)) continue;
+                    }
+                    EpochBuffer eb = format.getEncoded (epoch);
+                    if (eb.length > 0) {
+                        // only used up the slot if something was actually sent,
+                        // eg, a GSV-only client gets nothing from a location epoch
+                        if (locslot >= 0) conn.lastLocationSlot = locslot;
+                        if (satslot >= 0) conn.lastSatellitesSlot = satslot;
+                        conn.queue.put (eb);
+                        if (conn instanceof StreamConnection) {
+                            ((StreamConnection) conn).poolThread.wake ();
+                        } else {
+                            wakeLoop = true;
+                        }
+                    }
+                }
+            }
+            if (wakeLoop) selector.wakeup ();
+        }
+    }
+
+    /**
+     * Close the connection.  Its servicing thread removes it from the hub
+     * then calls its transport's connectionClosed().
+     * Called in any thread.
+     */
+    public void requestClose (Connection conn)
+    {
+        conn.closeRequested = true;
+        conn.closeSocket ();
+        if (conn instanceof StreamConnection) {
+            ((StreamConnection) conn).poolThread.wake ();
+        } else {
+            selector.wakeup ();
+        }
+    }
+
+    /**
+     * Close all connections of the given transport.
+     * Called in any thread.
+     */
+    public void requestCloseAll (Transport transport)
+    {
+        for (Connection conn : connections) {
+            if (conn.transport == transport) requestClose (conn);
+        }
+    }
+
+    // see if any connection is using the given format
+    // called in any thread
+    public boolean usesFormat (OutputFormat format)
+    {
+        for (Connection conn : connections) {
+            if (conn.format == format) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Append a line per connection giving how many epochs were sent and dropped.
+     * Called in any thread.
+     */
+    public void appendClientStatus (StringBuilder sb)
+    {
+        Connection[] conns = connections;
+        for (Connection conn : conns) {
+            sb.append ("\n  ");
+            sb.append (conn.name);
+            sb.append (" sent ");
+            sb.append (conn.queue.getSent ());
+            sb.append (" dropped ");
+            sb.append (conn.queue.getDropped ());
+            conn.stalls.append (sb);
+        }
+    }
+
+    // called with connlist locked
+    private void addConnection (Connection conn)
+    {
+        connlist.add (conn);
+        connections = connlist.toArray (nullconnarray);
+    }
+
+    // remove connection from hub and tell its transport
+    // called in the connection's servicing thread, or the watchdog if that is stuck
+    // does nothing if already removed
+    private void removeConnection (Connection conn)
+    {
+        conn.closeRequested = true;
+        conn.closeSocket ();
+        conn.queue.close ();
+        synchronized (connlist) {
+            if (! connlist.remove (conn)) return;
+            connections = connlist.toArray (nullconnarray);
+            if (conn instanceof StreamConnection) {
+                PoolThread pt = ((StreamConnection) conn).poolThread;
+                pt.streamlist.remove (conn);
+                pt.streams = pt.streamlist.toArray (new StreamConnection[pt.streamlist.size()]);
+            }
+        }
+        conn.closed = true;
+        StringBuilder sb = new StringBuilder ();
+        conn.stalls.append (sb);
+        host.info ("connection " + conn.name + " closed, sent " + conn.queue.getSent () +
+                ", dropped " + conn.queue.getDropped () + sb);
+        conn.transport.connectionClosed (conn);
+    }
+
+    /****************************\
+     *  Non-blocking channels   *
+    \****************************/
+
+    private static class Server {
+        public final ServerSocketChannel channel;
+        public final Acceptor acceptor;
+
+        public Server (ServerSocketChannel ssc, Acceptor acc)
+        {
+            channel = ssc;
+            acceptor = acc;
+        }
+    }
+
+    private static class ChannelConnection extends Connection {
+        public final SocketChannel channel;
+        public SelectionKey key;
+        public EpochBuffer writing;     // buffer being written, null if none
+        public int writeOffset;         // how much of it has been written
+
+        public ChannelConnection (SocketChannel sc, String name, OutputFormat format, Transport transport)
+        {
+            super (name, format, transport);
+            channel = sc;
+        }
+
+        @Override
+        protected void closeSocket ()
+        {
+            try { channel.close (); } catch (IOException ignored) { }
+        }
+    }
+
+    private class EventLoop extends Thread {
+        public volatile boolean finished;
+
+        private final ByteBuffer inbuf = ByteBuffer.allocate (4096);
+        private final ArrayList<ChannelConnection> registering = new ArrayList<> ();
+        private final ArrayList<Server> registeringServers = new ArrayList<> ();
+
+        public EventLoop ()
+        {
+            super ("TransportHub.EventLoop");
+        }
+
+        @Override
+        public void run ()
+        {
+            while (! finished) {
+                try {
+                    selector.select ();
+                } catch (IOException ioe) {
+                    host.warn ("error selecting", ioe);
+                    break;
+                }
+
+                // register channels added since last time
+                synchronized (connlist) {
+                    registering.addAll (pendingChannels);
+                    pendingChannels.clear ();
+                    registeringServers.addAll (pendingServers);
+                    pendingServers.clear ();
+                }
+                for (Server server : registeringServers) {
+                    try {
+                        server.channel.register (selector, SelectionKey.OP_ACCEPT, server);
+                    } catch (ClosedChannelException ignored) {
+                    }
+                }
+                registeringServers.clear ();
+                for (ChannelConnection conn : registering) {
+                    try {
+                        conn.key = conn.channel.register (selector, SelectionKey.OP_READ, conn);
+                    } catch (ClosedChannelException cce) {
+                        removeConnection (conn);
+                    }
+                }
+                registering.clear ();
+
+                // accept new connections
+                // pass on anything received, close connection on EOF
+                Iterator<SelectionKey> it = selector.selectedKeys ().iterator ();
+                while (it.hasNext ()) {
+                    SelectionKey key = it.next ();
+                    it.remove ();
+                    if (key.attachment () instanceof Server) {
+                        Server server = (Server) key.attachment ();
+                        try {
+                            for (SocketChannel sc; (sc = server.channel.accept ()) != null;) {
+                                server.acceptor.accepted (sc);
+                            }
+                        } catch (IOException ioe) {
+                            host.warn ("error accepting connection", ioe);
+                            key.cancel ();
+                        }
+                        continue;
+                    }
+                    ChannelConnection conn = (ChannelConnection) key.attachment ();
+                    if (key.isValid () && key.isReadable ()) {
+                        try {
+                            inbuf.clear ();
+                            int rc = conn.channel.read (inbuf);
+                            if (rc < 0) conn.closeRequested = true;
+                            else if (rc > 0) conn.transport.received (conn, inbuf.array (), rc);
+                        } catch (IOException ioe) {
+                            conn.closeRequested = true;
+                        }
+                    }
+                }
+
+                // write whatever is queued to each channel as far as it will take it
+                for (Connection c : connections) {
+                    if (c instanceof ChannelConnection) {
+                        ChannelConnection conn = (ChannelConnection) c;
+                        if (conn.key == null) continue;
+                        if (! conn.closeRequested) flush (conn);
+                        if (conn.closeWhenSent && (conn.writing == null) && (conn.queue.getQueued () == 0)) {
+                            conn.closeRequested = true;
+                        }
+                        if (conn.closeRequested) closeChannel (conn);
+                    }
+                }
+            }
+
+            // shutting down, close everything left
+            for (Connection c : connections) {
+                if (c instanceof ChannelConnection) closeChannel ((ChannelConnection) c);
+            }
+        }
+
+        private void closeChannel (ChannelConnection conn)
+        {
+            if (conn.key != null) conn.key.cancel ();
+            if (conn.writing != null) {
+                conn.writing.release ();
+                conn.writing = null;
+            }
+            removeConnection (conn);
+        }
+
+        // write queued buffers until channel is full
+        // want OP_WRITE only if something is left to write
+        private void flush (ChannelConnection conn)
+        {
+            boolean progress = false;
+            try {
+                while (true) {
+                    if (conn.writing == null) {
+                        conn.writing = conn.queue.poll ();
+                        conn.writeOffset = 0;
+                        if (conn.writing == null) break;
+                    }
+                    EpochBuffer eb = conn.writing;
+                    int n = eb.length - conn.writeOffset;
+                    ByteBuffer bb = eb.getDirect ();
+                    bb.limit (eb.length);
+                    bb.position (conn.writeOffset);
+                    int rc = conn.channel.write (bb);
+                    if (rc > 0) progress = true;
+                    conn.writeOffset += rc;
+                    if (conn.writeOffset >= eb.length) {
+                        eb.release ();
+                        conn.writing = null;
+                    }
+                    if (rc < n) break;
+                }
+                conn.key.interestOps ((conn.writing != null) ?
+                        SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+
+                // time how long channel stays full
+                long now = System.nanoTime ();
+                long started = conn.writeStartNanos;
+                if (started != 0) {
+                    if (progress || (conn.writing == null)) {
+                        conn.stalls.record (now - started);
+                        started = 0;
+                    }
+                }
+                if ((started == 0) && (conn.writing != null)) started = now;
+                conn.writeStartNanos = started;
+            } catch (Exception e) {
+                conn.closeRequested = true;
+            }
+        }
+    }
+
+    /******************************\
+     *  Blocking-only streams     *
+    \******************************/
+
+    private static class StreamConnection extends Connection {
+        public final InputStream is;
+        public final OutputStream os;
+        public final Closeable socket;
+        public final int mtu;
+        public volatile PoolThread poolThread;
+
+        public StreamConnection (InputStream is, OutputStream os, Closeable socket, int mtu,
+                                 PoolThread pt, String name, OutputFormat format, Transport transport)
+        {
+            super (name, format, transport);
+            this.is = is;
+            this.os = os;
+            this.socket = socket;
+            this.mtu = mtu;
+            poolThread = pt;
+        }
+
+        @Override
+        protected void closeSocket ()
+        {
+            try { socket.close (); } catch (IOException ignored) { }
+        }
+    }
+
+    // services a share of the blocking streams
+    // writes whatever is queued and passes on whatever has been received
+    private class PoolThread extends Thread {
+        public boolean finished;
+        public final ArrayList<StreamConnection> streamlist = new ArrayList<> ();
+        public volatile StreamConnection[] streams = new StreamConnection[0];
+
+        private boolean woken;
+        private final byte[] inbytes = new byte[4096];
+
+        public PoolThread ()
+        {
+            super ("TransportHub.PoolThread");
+        }
+
+        // something has been queued to one of our streams
+        public synchronized void wake ()
+        {
+            if (! woken) {
+                woken = true;
+                notifyAll ();
+            }
+        }
+
+        @Override
+        public void run ()
+        {
+            while (true) {
+                StreamConnection[] strs;
+                synchronized (this) {
+                    if (finished) break;
+                    if (! woken) {
+                        // poll for input only if there is something to poll
+                        try { wait (streams.length > 0 ? POLL_MS : 0); } catch (InterruptedException ignored) { }
+                    }
+                    woken = false;
+                    strs = streams;
+                }
+                for (StreamConnection conn : strs) {
+                    // skip any given to another thread while we were stuck
+                    if (conn.poolThread != this) continue;
+                    if (conn.closeRequested || ! service (conn)) removeConnection (conn);
+                }
+            }
+
+            // shutting down, close everything left
+            for (StreamConnection conn : streams) removeConnection (conn);
+        }
+
+        // returns false if the connection has failed
+        private boolean service (StreamConnection conn)
+        {
+            EpochBuffer eb = null;
+            try {
+                for (int n; (n = conn.is.available ()) > 0;) {
+                    int rc = conn.is.read (inbytes, 0, Math.min (n, inbytes.length));
+                    if (rc < 0) return false;
+                    conn.transport.received (conn, inbytes, rc);
+                }
+                while ((eb = conn.queue.poll ()) != null) {
+                    for (int ofs = 0; ofs < eb.length; ofs += conn.mtu) {
+                        long started = System.nanoTime ();
+                        conn.writeStartNanos = started;
+                        conn.os.write (eb.bytes, ofs, Math.min (conn.mtu, eb.length - ofs));
+                        conn.writeStartNanos = 0;
+                        conn.stalls.record (System.nanoTime () - started);
+                    }
+                    eb.release ();
+                    eb = null;
+                }
+                return ! conn.closeWhenSent;
+            } catch (IOException ioe) {
+                conn.writeStartNanos = 0;
+                if (! conn.closeRequested) host.warn ("error servicing " + conn.name, ioe);
+                if (eb != null) eb.release ();
+                return false;
+            }
+        }
+    }
+
+    /**************\
+     *  Watchdog  *
+    \**************/
+
+    // closes connections whose writes are making no progress
+    // closing the socket also gets a blocked write to throw
+    private class Watchdog extends Thread {
+        public Watchdog ()
+        {
+            super ("TransportHub.Watchdog");
+        }
+
+        // a pool thread is stuck in a write that closing the socket didn't break
+        // give its other streams to a new thread and forget about it
+        private void replacePoolThread (PoolThread stuck)
+        {
+            PoolThread pt = new PoolThread ();
+            synchronized (connlist) {
+                int i = pool.length;
+                while ((-- i >= 0) && (pool[i] != stuck)) { }
+                if (i < 0) return;
+                pool[i] = pt;
+                for (StreamConnection conn : stuck.streamlist) {
+                    conn.poolThread = pt;
+                    pt.streamlist.add (conn);
+                }
+                stuck.streamlist.clear ();
+                stuck.streams = new StreamConnection[0];
+                pt.streams = pt.streamlist.toArray (new StreamConnection[pt.streamlist.size()]);
+            }
+            synchronized (stuck) {
+                stuck.finished = true;
+            }
+            pt.start ();
+        }
+
+        @Override
+        public void run ()
+        {
+            while (true) {
+                try { Thread.sleep (WATCHDOG_MS); } catch (InterruptedException ie) { break; }
+                int timeout = writeTimeout;
+                long now = System.nanoTime ();
+                for (Connection conn : connections) {
+                    long deadline = conn.deadlineNanos;
+                    if ((deadline != 0) && (now - deadline > 0) && ! conn.closeRequested) {
+                        host.info ("connection " + conn.name + " deadline passed, closing");
+                        conn.deadlineNanos = 0;
+                        requestClose (conn);
+                        continue;
+                    }
+                    if (timeout <= 0) continue;
+                    long started = conn.writeStartNanos;
+                    if ((started == 0) || (now - started <= timeout * 1000000L)) continue;
+                    if (! conn.closeRequested) {
+                        StringBuilder sb = new StringBuilder ();
+                        conn.stalls.append (sb);
+                        host.warn ("connection " + conn.name + " write stalled " +
+                                (now - started) / 1000000 + "ms, closing," + sb, null);
+                        requestClose (conn);
+                    } else if (now - started > 2 * timeout * 1000000L) {
+                        // closing the socket didn't unblock the write, drop it anyway
+                        // so its transport's count goes down and GPS can turn off
+                        removeConnection (conn);
+                        if (conn instanceof StreamConnection) {
+                            replacePoolThread (((StreamConnection) conn).poolThread);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
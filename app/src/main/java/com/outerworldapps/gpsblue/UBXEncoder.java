@@ -0,0 +1,215 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encode location as u-blox UBX NAV-PVT and satellites as NAV-SAT.
+ *  https://www.u-blox.com/sites/default/files/products/documents/u-blox8-M8_ReceiverDescrProtSpec_UBX-13003221.pdf
+ * Messages are built in preallocated little-endian buffers.
+ * Not thread safe, each thread that encodes needs its own.
+ */
+public class UBXEncoder implements OutputEncoder {
+    private final static int CLASS_NAV  = 0x01;
+    private final static int ID_NAV_PVT = 0x07;
+    private final static int ID_NAV_SAT = 0x35;
+
+    private final static int PVT_LEN = 92;
+    private final static int SAT_HDR_LEN = 8;
+    private final static int SAT_SV_LEN = 12;
+
+    private final static long GPS_EPOCH_MS = 315964800000L;  // 1980-01-06 00:00 UTC
+    private final static long GPS_LEAP_MS = 18000;           // GPS-UTC as of 2017
+    private final static long WEEK_MS = 7 * 86400000L;
+
+    // UBX gnssId indexed by MyGpsSatellite.constellation
+    private final static int[] gnssids = { 0, 1, 6, 2, 3, 5 };  // GPS,SBAS,GLONASS,GALILEO,BEIDOU,QZSS
+
+    private ByteBuffer pvt = NewMessage (ID_NAV_PVT, PVT_LEN);
+    private ByteBuffer sat = NewMessage (ID_NAV_SAT, SAT_HDR_LEN + 64 * SAT_SV_LEN);
+
+    @Override  // OutputEncoder
+    public String getName ()
+    {
+        return "UBX";
+    }
+
+    @Override  // OutputEncoder
+    public void encode (GpsEpoch epoch, EpochBuffer out)
+    {
+        if ((epoch.parts & GpsEpoch.LOCATION) != 0) {
+            encodePVT (epoch);
+            putMessage (out, pvt, PVT_LEN);
+        }
+        if ((epoch.parts & GpsEpoch.SATELLITES) != 0) {
+            int len = encodeSAT (epoch);
+            putMessage (out, sat, len);
+        }
+    }
+
+    /**
+     * Fill in NAV-PVT payload from the epoch's location.
+     */
+    private void encodePVT (GpsEpoch epoch)
+    {
+        long time = epoch.time;
+        long days = time / 86400000L;
+        if (days * 86400000L > time) -- days;
+        int civil = NMEAEncoder.CivilFromDays ((int) days);
+        int msofday = (int) (time - days * 86400000L);
+
+        int numsv = 0;
+        for (MyGpsSatellite s : epoch.satellites) {
+            if (s.used) numsv ++;
+        }
+
+        double bearing = Math.toRadians (epoch.bearing);
+        double accmm = epoch.hasAccuracy ? epoch.accuracy * 1000.0 : 0xFFFFFFFFL;
+        double downmm = epoch.hasVerticalSpeed ? - epoch.verticalSpeed * 1000.0 : 0.0;
+
+        ByteBuffer bb = pvt;
+        bb.putInt   (6,  iTOW (time));
+        bb.putShort (10, (short) (civil / 10000));                  // year
+        bb.put      (12, (byte) (civil / 100 % 100));               // month
+        bb.put      (13, (byte) (civil % 100));                     // day
+        bb.put      (14, (byte) (msofday / 3600000));               // hour
+        bb.put      (15, (byte) (msofday / 60000 % 60));            // min
+        bb.put      (16, (byte) (msofday / 1000 % 60));             // sec
+        bb.put      (17, (byte) 0x07);                              // validDate, validTime, fullyResolved
+        bb.putInt   (18, 0xFFFFFFFF);                               // tAcc unknown
+        bb.putInt   (22, (msofday % 1000) * 1000000);               // nano
+        bb.put      (26, (byte) (epoch.extrapolated ? 4 : 3));      // fixType = GNSS + dead reckoning or 3D
+        bb.put      (27, (byte) 0x01);                              // gnssFixOK
+        bb.put      (28, (byte) 0xE0);                              // flags2: confirmedAvai, Date, Time
+        bb.put      (29, (byte) Math.min (numsv, 255));
+        bb.putInt   (30, (int) Math.round (epoch.longitude * 1.0E7));
+        bb.putInt   (34, (int) Math.round (epoch.latitude * 1.0E7));
+        bb.putInt   (38, (int) Math.round (epoch.altitude * 1000.0));  // height above ellipsoid
+        bb.putInt   (42, (int) Math.round (epoch.altitude * 1000.0));  // no geoid model so same for MSL
+        bb.putInt   (46, (int) (long) accmm);                       // hAcc
+        bb.putInt   (50, 0xFFFFFFFF);                               // vAcc unknown
+        bb.putInt   (54, (int) Math.round (epoch.speed * Math.cos (bearing) * 1000.0));  // velN
+        bb.putInt   (58, (int) Math.round (epoch.speed * Math.sin (bearing) * 1000.0));  // velE
+        bb.putInt   (62, (int) Math.round (downmm));                // velD
+        bb.putInt   (66, (int) Math.round (epoch.speed * 1000.0));  // gSpeed
+        bb.putInt   (70, (int) Math.round (epoch.bearing * 1.0E5)); // headMot
+        bb.putInt   (74, 0xFFFFFFFF);                               // sAcc unknown
+        bb.putInt   (78, 0xFFFFFFFF);                               // headAcc unknown
+        bb.putShort (82, (short) 120);                              // pDOP 1.2
+        // 84..93 flags3, reserved, headVeh all zero
+        bb.putShort (94, (short) 0);                                // magDec
+        bb.putShort (96, (short) 0);                                // magAcc
+    }
+
+    /**
+     * Fill in NAV-SAT payload from the epoch's satellites.
+     * @return payload length
+     */
+    private int encodeSAT (GpsEpoch epoch)
+    {
+        MyGpsSatellite[] satellites = epoch.satellites;
+        int numsvs = Math.min (satellites.length, 255);
+        int len = SAT_HDR_LEN + numsvs * SAT_SV_LEN;
+        if (sat.capacity () < len + 8) {
+            sat = NewMessage (ID_NAV_SAT, len);
+        }
+
+        ByteBuffer bb = sat;
+        bb.putInt (6, iTOW (epoch.time));
+        bb.put (10, (byte) 1);                                      // version
+        bb.put (11, (byte) numsvs);
+        int i = 6 + SAT_HDR_LEN;
+        for (int j = 0; j < numsvs; j ++) {
+            MyGpsSatellite s = satellites[j];
+            int c = s.constellation;
+            bb.put      (i,      (byte) (((c >= 0) && (c < gnssids.length)) ? gnssids[c] : 0));
+            bb.put      (i + 1,  (byte) svId (s));
+            bb.put      (i + 2,  (byte) Math.max (0, Math.min (255, (int) Math.round (s.snr))));
+            bb.put      (i + 3,  (byte) Math.round (s.elev));
+            bb.putShort (i + 4,  (short) Math.round (s.azim));
+            bb.putShort (i + 6,  (short) 0);                        // prRes
+            bb.putInt   (i + 8,  s.used ? 0x0F : 0x04);             // qualityInd, svUsed
+            i += SAT_SV_LEN;
+        }
+        return len;
+    }
+
+    // UBX svId, numbered within its gnssId, from the NMEA prn
+    // undoes MyGpsSatellite's SBAS, GLONASS and QZSS offsets
+    private static int svId (MyGpsSatellite s)
+    {
+        switch (s.constellation) {
+            case MyGpsSatellite.SBAS: {
+                return s.prn + 87;                                  // 33..64 -> 120..151
+            }
+            case MyGpsSatellite.GLONASS: {
+                return ((s.prn >= 65) && (s.prn <= 96)) ? s.prn - 64 : 255;  // slot 1..32, else unknown
+            }
+            default: {
+                return s.prn;                                       // QZSS 1..10 same as NMEA
+            }
+        }
+    }
+
+    // GPS time of week in milliseconds
+    private static int iTOW (long utc)
+    {
+        long gps = (utc - GPS_EPOCH_MS + GPS_LEAP_MS) % WEEK_MS;
+        if (gps < 0) gps += WEEK_MS;
+        return (int) gps;
+    }
+
+    // allocate message buffer with header filled in
+    // room for sync, class, id, length, payload, checksum
+    private static ByteBuffer NewMessage (int id, int maxlen)
+    {
+        ByteBuffer bb = ByteBuffer.allocate (maxlen + 8);
+        bb.order (ByteOrder.LITTLE_ENDIAN);
+        bb.put (0, (byte) 0xB5);
+        bb.put (1, (byte) 0x62);
+        bb.put (2, (byte) CLASS_NAV);
+        bb.put (3, (byte) id);
+        return bb;
+    }
+
+    /**
+     * Fill in length and Fletcher checksum then append the message to the output.
+     */
+    private static void putMessage (EpochBuffer out, ByteBuffer bb, int len)
+    {
+        bb.putShort (4, (short) len);
+        byte[] msg = bb.array ();
+        int cka = 0;
+        int ckb = 0;
+        int end = len + 6;
+        for (int i = 2; i < end; i ++) {
+            cka += msg[i] & 0xFF;
+            ckb += cka;
+        }
+        msg[end]   = (byte) cka;
+        msg[end+1] = (byte) ckb;
+        out.ensure (end + 2);
+        System.arraycopy (msg, 0, out.bytes, out.length, end + 2);
+        out.length += end + 2;
+    }
+}
@@ -0,0 +1,99 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+/**
+ * Send each epoch once as UDP datagrams to a fixed list of destinations.
+ * Epochs too big for one datagram are split between NMEA sentences
+ * or GDL90 frames where possible.  UdpSender sets it up, this part
+ * doesn't use Android so it also runs on a plain JVM.
+ */
+
+package com.outerworldapps.gpsblue;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+public class UdpOutput {
+    public final static int MAX_DATAGRAM = 1472;    // fits in one ethernet/wifi frame
+
+    public final OutputFormat format;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect (MAX_DATAGRAM);
+    private final DatagramChannel channel;
+    private final InetSocketAddress[] destinations;
+    private long errors;
+
+    public UdpOutput (DatagramChannel dc, InetSocketAddress[] dests, OutputFormat format)
+    {
+        channel = dc;
+        destinations = dests;
+        this.format = format;
+    }
+
+    /**
+     * Send epoch to all destinations.
+     * Raw NMEA epochs only if NMEA-RAW, location & satellites only if anything else.
+     * Called in InternalGps.GPSRcvrThread.
+     */
+    public void write (GpsEpoch epoch)
+    {
+        if ((epoch.parts == GpsEpoch.NMEA) != format.raw) return;
+        EpochBuffer eb = format.getEncoded (epoch);
+        byte[] bytes = eb.bytes;
+        for (int ofs = 0; ofs < eb.length;) {
+            int len = eb.length - ofs;
+            if (len > MAX_DATAGRAM) {
+                len = MAX_DATAGRAM;
+                while ((len > 1) && ! isBreak (bytes, ofs + len)) -- len;
+                if (len <= 1) len = MAX_DATAGRAM;
+            }
+            buffer.clear ();
+            buffer.put (bytes, ofs, len);
+            for (InetSocketAddress dest : destinations) {
+                buffer.flip ();
+                try {
+                    channel.send (buffer, dest);
+                } catch (Exception e) {
+                    // network down, buffers full, etc, just skip it
+                    errors ++;
+                }
+                buffer.position (len);
+            }
+            ofs += len;
+        }
+    }
+
+    public void close ()
+    {
+        try { channel.close (); } catch (Exception ignored) { }
+    }
+
+    public long getErrors ()
+    {
+        return errors;
+    }
+
+    // see if i is just after a newline or between GDL90 end and start flags
+    private static boolean isBreak (byte[] bytes, int i)
+    {
+        return (bytes[i-1] == '\n') || ((bytes[i-1] == 0x7E) && (bytes[i] == 0x7E));
+    }
+}
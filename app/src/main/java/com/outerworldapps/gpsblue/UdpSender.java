@@ -0,0 +1,118 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+/**
+ * Send each epoch once as UDP datagrams to a list of destinations,
+ * which may be broadcast, multicast or unicast addresses, so the cost
+ * is the same no matter how many devices are listening.
+ * Sets up a UdpOutput to do the sending.
+ * Runs in service context.
+ */
+
+package com.outerworldapps.gpsblue;
+
+import android.util.Log;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+
+public class UdpSender {
+    private volatile UdpOutput output;
+    private JSessionService jSessionService;
+    private String statusKey;
+
+    public UdpSender (JSessionService jss)
+    {
+        jSessionService = jss;
+    }
+
+    /**
+     * Start sending to the given destinations.
+     * @param dests = "ipaddr:port, ..."
+     * Called in app UI thread.
+     */
+    public void startup (String dests, OutputFormat format)
+    {
+        if (output == null) {
+            try {
+                ArrayList<InetSocketAddress> list = new ArrayList<> ();
+                for (String dest : dests.split ("[,\\s]+")) {
+                    if (dest.equals ("")) continue;
+                    int i = dest.lastIndexOf (':');
+                    if (i < 0) throw new IllegalArgumentException ("missing :port in " + dest);
+                    list.add (new InetSocketAddress (dest.substring (0, i), Integer.parseInt (dest.substring (i + 1))));
+                }
+                InetSocketAddress[] destinations = list.toArray (new InetSocketAddress[list.size()]);
+
+                DatagramChannel dc = DatagramChannel.open ();
+                dc.configureBlocking (false);
+                dc.socket ().setBroadcast (true);
+                output = new UdpOutput (dc, destinations, format);
+
+                // GPS runs as long as we are sending
+                statusKey = "udp to: " + dests;
+                synchronized (jSessionService.connectionLock) {
+                    jSessionService.updateConnectionCount (statusKey, destinations.length);
+                }
+            } catch (Exception e) {
+                Log.w (GPSBlue.TAG, "error starting udp to " + dests, e);
+                shutdown ();
+                jSessionService.fatalError ("UDP Error",
+                        "check UDP destinations\n\n" + e.getMessage ());
+            }
+        }
+    }
+
+    /**
+     * Stop sending.
+     * Called in app UI thread.
+     */
+    public void shutdown ()
+    {
+        UdpOutput uo = output;
+        if (uo != null) {
+            output = null;
+            uo.close ();
+            synchronized (jSessionService.connectionLock) {
+                jSessionService.updateConnectionCount (statusKey, -1);
+            }
+            long errors = uo.getErrors ();
+            if (errors > 0) Log.w (GPSBlue.TAG, "udp to " + statusKey + " had " + errors + " errors");
+        }
+    }
+
+    // see if sending in the given format
+    public boolean usesFormat (OutputFormat format)
+    {
+        UdpOutput uo = output;
+        return (uo != null) && (uo.format == format);
+    }
+
+    /**
+     * Send epoch to all destinations.
+     * Called in InternalGps.GPSRcvrThread.
+     */
+    public void write (GpsEpoch epoch)
+    {
+        UdpOutput uo = output;
+        if (uo != null) uo.write (epoch);
+    }
+}
@@ -0,0 +1,90 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+package com.outerworldapps.gpsblue;
+
+/**
+ * Wrap another encoder's output in WebSocket frames (RFC 6455).
+ * Text encoders (eg, FEED-JSON) get one text frame per line,
+ * binary encoders (eg, FEED-BIN) get one binary frame per epoch.
+ * Server-to-client frames are not masked.
+ */
+public class WebSocketEncoder implements OutputEncoder {
+    public  final static int OP_TEXT   = 0x81;  // FIN + text
+    public  final static int OP_BINARY = 0x82;  // FIN + binary
+    public  final static int OP_CLOSE  = 0x88;  // FIN + close
+    public  final static int OP_PONG   = 0x8A;  // FIN + pong
+
+    private final boolean text;
+    private final EpochBuffer inner = new EpochBuffer ();
+    private final OutputEncoder encoder;
+
+    public WebSocketEncoder (OutputEncoder enc, boolean text)
+    {
+        encoder = enc;
+        this.text = text;
+    }
+
+    @Override  // OutputEncoder
+    public String getName ()
+    {
+        return "WS-" + encoder.getName ();
+    }
+
+    @Override  // OutputEncoder
+    public void encode (GpsEpoch epoch, EpochBuffer out)
+    {
+        inner.length = 0;
+        encoder.encode (epoch, inner);
+        byte[] bytes = inner.bytes;
+        int length = inner.length;
+        if (text) {
+            int start = 0;
+            for (int i = 0; i < length; i ++) {
+                if (bytes[i] == '\n') {
+                    putFrame (out, OP_TEXT, bytes, start, i - start);
+                    start = i + 1;
+                }
+            }
+            if (start < length) putFrame (out, OP_TEXT, bytes, start, length - start);
+        } else if (length > 0) {
+            putFrame (out, OP_BINARY, bytes, 0, length);
+        }
+    }
+
+    // append one unmasked frame to the buffer
+    public static void putFrame (EpochBuffer out, int op, byte[] bytes, int ofs, int len)
+    {
+        out.ensure (len + 4);
+        byte[] ob = out.bytes;
+        int ol = out.length;
+        ob[ol++] = (byte) op;
+        if (len < 126) {
+            ob[ol++] = (byte) len;
+        } else {
+            // payloads are well under 64K
+            ob[ol++] = 126;
+            ob[ol++] = (byte) (len >> 8);
+            ob[ol++] = (byte) len;
+        }
+        System.arraycopy (bytes, ofs, ob, ol, len);
+        out.length = ol + len;
+    }
+}
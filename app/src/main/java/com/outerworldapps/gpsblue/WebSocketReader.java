@@ -0,0 +1,165 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+
+package com.outerworldapps.gpsblue;
+
+import java.security.MessageDigest;
+
+/**
+ * Read the frames a WebSocket client sends (RFC 6455), however they
+ * are split up by the network.  Ping is answered with Pong and Close
+ * is echoed then the connection closed once everything is sent.
+ * Data frames are skipped, clients have nothing to tell us.
+ * Used only in the TransportHub thread servicing the connection.
+ */
+public class WebSocketReader {
+    private final static int OPC_CLOSE = 0x8;
+    private final static int OPC_PING  = 0x9;
+    private final static int MAX_CONTROL = 125;     // control frame payloads are at most this long
+    private final static String WS_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private final static char[] base64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray ();
+
+    private final byte[] header = new byte[14];     // 2 + 8 extended length + 4 mask
+    private final byte[] control = new byte[MAX_CONTROL];
+    private final TransportHub hub;
+    private int ctllen;         // control payload bytes received so far
+    private int hdrlen;         // header bytes received so far
+    private int hdrneed = 2;    // header bytes needed, known once first 2 are in
+    private int opcode;
+    private long remaining;     // payload bytes still to come
+
+    public WebSocketReader (TransportHub hub)
+    {
+        this.hub = hub;
+    }
+
+    /**
+     * Process bytes received from the client.
+     */
+    public void received (Connection conn, byte[] buf, int len)
+    {
+        int i = 0;
+        while (i < len) {
+            if (hdrlen < hdrneed) {
+                header[hdrlen++] = buf[i++];
+                if (hdrlen == 2) {
+                    int len7 = header[1] & 0x7F;
+                    hdrneed = 2 + ((len7 == 126) ? 2 : (len7 == 127) ? 8 : 0) + (((header[1] & 0x80) != 0) ? 4 : 0);
+                }
+                if ((hdrlen == hdrneed) && ! startPayload (conn)) return;
+            } else {
+                int n = (int) Math.min (remaining, len - i);
+                if (opcode >= 8) {
+                    // unmask control payload, client frames are always masked
+                    boolean masked = (header[1] & 0x80) != 0;
+                    for (int j = 0; j < n; j ++) {
+                        byte b = buf[i+j];
+                        if (masked) b ^= header[hdrneed-4+(ctllen&3)];
+                        control[ctllen++] = b;
+                    }
+                }
+                i += n;
+                remaining -= n;
+                if (remaining == 0) endFrame (conn);
+            }
+        }
+    }
+
+    // header complete, get payload length
+    // returns false if connection is being closed
+    private boolean startPayload (Connection conn)
+    {
+        opcode = header[0] & 0x0F;
+        int len7 = header[1] & 0x7F;
+        if (len7 < 126) {
+            remaining = len7;
+        } else {
+            remaining = 0;
+            for (int j = 2; j < ((len7 == 126) ? 4 : 10); j ++) {
+                remaining = (remaining << 8) | (header[j] & 0xFF);
+            }
+        }
+        ctllen = 0;
+        if ((remaining < 0) || ((opcode >= 8) && (remaining > MAX_CONTROL))) {
+            hub.requestClose (conn);
+            return false;
+        }
+        if (remaining == 0) endFrame (conn);
+        return true;
+    }
+
+    // whole frame received, answer control frames
+    private void endFrame (Connection conn)
+    {
+        switch (opcode) {
+            case OPC_PING: {
+                sendFrame (conn, WebSocketEncoder.OP_PONG, ctllen);
+                break;
+            }
+            case OPC_CLOSE: {
+                // echo the status code, no more messages after that
+                conn.format = null;
+                sendFrame (conn, WebSocketEncoder.OP_CLOSE, Math.min (ctllen, 2));
+                conn.closeWhenSent = true;
+                break;
+            }
+        }
+        hdrlen  = 0;
+        hdrneed = 2;
+    }
+
+    private void sendFrame (Connection conn, int op, int len)
+    {
+        EpochBuffer eb = new EpochBuffer ();
+        WebSocketEncoder.putFrame (eb, op, control, 0, len);
+        hub.send (conn, eb);
+    }
+
+    /**
+     * Sec-WebSocket-Accept value for the client's Sec-WebSocket-Key:
+     * base64 of the SHA-1 of the key followed by the WebSocket GUID.
+     */
+    public static String AcceptKey (String key)
+    {
+        byte[] digest;
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance ("SHA-1");
+            digest = sha1.digest ((key + WS_GUID).getBytes ("US-ASCII"));
+        } catch (Exception e) {
+            throw new RuntimeException (e);
+        }
+
+        // base64 by hand, java.util.Base64 needs API 26
+        StringBuilder sb = new StringBuilder (28);
+        for (int i = 0; i < digest.length; i += 3) {
+            int n = digest.length - i;
+            int b = (digest[i] & 0xFF) << 16;
+            if (n > 1) b |= (digest[i+1] & 0xFF) << 8;
+            if (n > 2) b |= digest[i+2] & 0xFF;
+            sb.append (base64[b>>18]);
+            sb.append (base64[(b>>12)&63]);
+            sb.append ((n > 1) ? base64[(b>>6)&63] : '=');
+            sb.append ((n > 2) ? base64[b&63] : '=');
+        }
+        return sb.toString ();
+    }
+}
@@ -0,0 +1,82 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+
+package com.outerworldapps.gpsblue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check parsing of the more UUIDs setting.
+ */
+public class BluetoothServerTest {
+    private final static UUID SPP = UUID.fromString ("00001101-0000-1000-8000-00805f9b34fb");
+
+    @Test
+    public void mainOnly ()
+    {
+        assertEquals ("[" + SPP + "]", parse ("").toString ());
+        assertEquals ("[" + SPP + "]", parse (" , ").toString ());
+    }
+
+    @Test
+    public void fullAndShortForms ()
+    {
+        ArrayList<UUID> uuids = parse ("  d0a6e07c-2e1f-4a5b-9c3d-2f0e8a7b6c5d, 00001102\n0000abcd ");
+        assertEquals (4, uuids.size ());
+        assertEquals (SPP, uuids.get (0));
+        assertEquals (UUID.fromString ("d0a6e07c-2e1f-4a5b-9c3d-2f0e8a7b6c5d"), uuids.get (1));
+        assertEquals (UUID.fromString ("00001102-0000-1000-8000-00805f9b34fb"), uuids.get (2));
+        assertEquals (UUID.fromString ("0000abcd-0000-1000-8000-00805f9b34fb"), uuids.get (3));
+    }
+
+    @Test
+    public void duplicatesListedOnce ()
+    {
+        ArrayList<UUID> uuids = parse ("00001101,00001101-0000-1000-8000-00805F9B34FB 00001102 00001102");
+        assertEquals (2, uuids.size ());
+        assertEquals (SPP, uuids.get (0));
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void badUUID ()
+    {
+        parse ("00001102 nonsense");
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void badShortUUID ()
+    {
+        parse ("0000110g");
+    }
+
+    private static ArrayList<UUID> parse (String more)
+    {
+        LinkedHashSet<UUID> uuids = new LinkedHashSet<> ();
+        BluetoothServer.ParseUUIDs (uuids, SPP, more);
+        return new ArrayList<> (uuids);
+    }
+}
@@ -0,0 +1,240 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+
+package com.outerworldapps.gpsblue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Parse client commands and check what they change and the replies.
+ */
+public class ClientCommandsTest {
+    private TransportHub hub;
+    private OutputFormats formats;
+    private Connection conn;
+    private ClientCommands commands;
+
+    @Before
+    public void setUp ()
+            throws IOException
+    {
+        hub = new TransportHub (new TransportHub.Host () {
+            @Override  // Host
+            public long elapsedRealtimeNanos ()
+            {
+                return System.nanoTime ();
+            }
+
+            @Override  // Host
+            public void info (String msg)
+            { }
+
+            @Override  // Host
+            public void warn (String msg, Throwable t)
+            { }
+        });
+        hub.startup ();
+        formats = new OutputFormats ();
+        conn = new Connection ("test", formats.getDefault (), null) {
+            @Override
+            protected void closeSocket ()
+            { }
+        };
+        commands = new ClientCommands (formats, hub, conn);
+    }
+
+    @After
+    public void tearDown ()
+    {
+        hub.shutdown ();
+    }
+
+    @Test
+    public void pgpsbFormat ()
+    {
+        send ("$PGPSB,FORMAT,gdl90\r\n");
+        assertSame (formats.get ("GDL90"), conn.format);
+        assertReply ("PGPSB,ACK,FORMAT");
+
+        send ("$PGPSB,FORMAT,NOSUCH\r\n");
+        assertSame (formats.get ("GDL90"), conn.format);
+        assertReply ("PGPSB,NAK,FORMAT");
+    }
+
+    @Test
+    public void pgpsbRate ()
+    {
+        send ("$PGPSB,RATE,0.2\r\n");
+        assertEquals (5000, conn.intervalMs);
+        assertReply ("PGPSB,ACK,RATE");
+
+        send ("$PGPSB,RATE,5\n");
+        assertEquals (200, conn.intervalMs);
+        assertReply ("PGPSB,ACK,RATE");
+
+        // thousandths are as fine as it goes
+        send ("$PGPSB,RATE,1.2345\n");
+        assertEquals (1000000 / 1234, conn.intervalMs);
+        assertReply ("PGPSB,ACK,RATE");
+
+        send ("$PGPSB,RATE,0\n");
+        assertEquals (0, conn.intervalMs);
+        assertReply ("PGPSB,ACK,RATE");
+
+        send ("$PGPSB,RATE,fast\n");
+        send ("$PGPSB,RATE,-1\n");
+        send ("$PGPSB,RATE\n");
+        assertEquals (0, conn.intervalMs);
+        assertReply ("PGPSB,NAK,RATE");
+        assertReply ("PGPSB,NAK,RATE");
+        assertReply ("PGPSB,NAK,RATE");
+    }
+
+    @Test
+    public void pgpsbNmea ()
+    {
+        send ("$PGPSB,NMEA,rmc,GGA\r\n");
+        assertEquals (NMEAEncoder.RMC | NMEAEncoder.GGA, sentences ());
+        assertReply ("PGPSB,ACK,NMEA");
+
+        // all or nothing
+        send ("$PGPSB,NMEA,RMC,XYZ\r\n");
+        assertEquals (NMEAEncoder.RMC | NMEAEncoder.GGA, sentences ());
+        assertReply ("PGPSB,NAK,NMEA");
+
+        send ("$PGPSB,BOGUS\r\n");
+        assertReply ("PGPSB,NAK,BOGUS");
+    }
+
+    @Test
+    public void pmtk220 ()
+    {
+        send ("$PMTK220,200*2C\r\n");
+        assertEquals (200, conn.intervalMs);
+        assertReply ("PMTK001,220,3");
+
+        send ("$PMTK220,50\r\n");
+        send ("$PMTK220,20000\r\n");
+        assertEquals (200, conn.intervalMs);
+        assertReply ("PMTK001,220,2");
+        assertReply ("PMTK001,220,2");
+    }
+
+    @Test
+    public void pmtk314 ()
+    {
+        OutputFormat initial = conn.format;
+
+        // gll,rmc,vtg,gga,gsa,gsv,...,zda
+        send ("$PMTK314,0,1,0,1,0,0,0,0,0,0,0,0,0,0,0,0,0,1,0*29\r\n");
+        assertEquals (NMEAEncoder.RMC | NMEAEncoder.GGA | NMEAEncoder.ZDA, sentences ());
+        assertReply ("PMTK001,314,3");
+
+        send ("$PMTK314,1,0,5,0,0,1\r\n");
+        assertEquals (NMEAEncoder.GLL | NMEAEncoder.VTG | NMEAEncoder.GSV, sentences ());
+        assertReply ("PMTK001,314,3");
+
+        send ("$PMTK314,-1*04\r\n");
+        assertSame (initial, conn.format);
+        assertReply ("PMTK001,314,3");
+
+        // nothing on, nothing sent
+        send ("$PMTK314,0,0,0,0,0,0\r\n");
+        assertNull (conn.format);
+        assertReply ("PMTK001,314,3");
+    }
+
+    @Test
+    public void pubx40 ()
+    {
+        send ("$PUBX,40,GSV,0,0,0,0,0,0*59\r\n");
+        assertEquals (NMEAEncoder.STANDARD & ~ NMEAEncoder.GSV, sentences ());
+        send ("$PUBX,40,ZDA,0,1,0,0,0,0\r\n");
+        assertEquals ((NMEAEncoder.STANDARD & ~ NMEAEncoder.GSV) | NMEAEncoder.ZDA, sentences ());
+
+        // unknown sentence ignored, no replies to PUBX
+        send ("$PUBX,40,XYZ,0,1,0,0,0,0\r\n");
+        assertEquals ((NMEAEncoder.STANDARD & ~ NMEAEncoder.GSV) | NMEAEncoder.ZDA, sentences ());
+        assertNull (conn.queue.poll ());
+    }
+
+    @Test
+    public void badChecksumIgnored ()
+    {
+        send ("$PMTK220,200*2D\r\n");
+        send ("$PMTK220,200*2\r\n");
+        send ("$PMTK220,200*2C0\r\n");
+        assertEquals (0, conn.intervalMs);
+        assertNull (conn.queue.poll ());
+
+        // either case of hex digits
+        send ("$PMTK220,500*2b\r\n");
+        assertEquals (500, conn.intervalMs);
+    }
+
+    @Test
+    public void splitAndJunk ()
+    {
+        // a byte at a time with junk around it
+        byte[] bytes = "junk\r\n$PMTK2$PMTK220,1000\r\n\r\n".getBytes ();
+        for (byte b : bytes) commands.received (new byte[] { b }, 1);
+        assertEquals (1000, conn.intervalMs);
+        assertReply ("PMTK001,220,3");
+        assertNull (conn.queue.poll ());
+
+        // overlong line discarded
+        StringBuilder sb = new StringBuilder ("$PMTK220,500,");
+        while (sb.length () < 200) sb.append ('0');
+        send (sb.append ("\r\n").toString ());
+        assertEquals (1000, conn.intervalMs);
+        assertNull (conn.queue.poll ());
+    }
+
+    private void send (String str)
+    {
+        byte[] bytes = str.getBytes ();
+        commands.received (bytes, bytes.length);
+    }
+
+    private int sentences ()
+    {
+        return ((NMEAEncoder) conn.format.encoder).getSentences ();
+    }
+
+    // next thing queued to the client must be the given sentence
+    private void assertReply (String body)
+    {
+        int xor = 0;
+        for (int i = 0; i < body.length (); i ++) xor ^= body.charAt (i);
+        EpochBuffer eb = conn.queue.poll ();
+        assertTrue (eb != null);
+        assertEquals (String.format ("$%s*%02X\r\n", body, xor), new String (eb.bytes, 0, eb.length));
+    }
+}
@@ -0,0 +1,160 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+
+package com.outerworldapps.gpsblue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Check ClientQueue's latest-wins replacement, drop counting and buffer references.
+ */
+public class ClientQueueTest {
+    private ClientQueue queue;
+
+    @Before
+    public void setUp ()
+    {
+        queue = new ClientQueue ();
+    }
+
+    @Test
+    public void fifoWhenKeepingUp ()
+    {
+        Buffer a = new Buffer (GpsEpoch.LOCATION);
+        Buffer b = new Buffer (GpsEpoch.SATELLITES);
+        queue.put (a);
+        queue.put (b);
+        assertEquals (2, queue.getQueued ());
+        assertSame (a, queue.poll ());
+        assertSame (b, queue.poll ());
+        assertNull (queue.poll ());
+        assertEquals (2, queue.getSent ());
+        assertEquals (0, queue.getDropped ());
+    }
+
+    @Test
+    public void latestReplacesSameParts ()
+    {
+        Buffer loc1 = new Buffer (GpsEpoch.LOCATION);
+        Buffer sats = new Buffer (GpsEpoch.SATELLITES);
+        Buffer loc2 = new Buffer (GpsEpoch.LOCATION);
+        queue.put (loc1);
+        queue.put (sats);
+        queue.put (loc2);
+
+        // loc1 gone and released, sats keeps its place ahead of loc2
+        assertEquals (0, loc1.refs);
+        assertEquals (1, queue.getDropped ());
+        assertEquals (2, queue.getQueued ());
+        assertSame (sats, queue.poll ());
+        assertSame (loc2, queue.poll ());
+    }
+
+    @Test
+    public void differentPartsDontReplace ()
+    {
+        queue.put (new Buffer (GpsEpoch.LOCATION));
+        queue.put (new Buffer (GpsEpoch.LOCATION | GpsEpoch.SATELLITES));
+        assertEquals (2, queue.getQueued ());
+        assertEquals (0, queue.getDropped ());
+    }
+
+    @Test
+    public void fullQueueDropsOldest ()
+    {
+        Buffer[] bufs = new Buffer[ClientQueue.CAPACITY+1];
+        for (int i = 0; i < bufs.length; i ++) {
+            bufs[i] = new Buffer (0);
+            queue.put (bufs[i]);
+        }
+        assertEquals (ClientQueue.CAPACITY, queue.getQueued ());
+        assertEquals (1, queue.getDropped ());
+        assertEquals (0, bufs[0].refs);
+        for (int i = 1; i < bufs.length; i ++) {
+            assertSame (bufs[i], queue.poll ());
+        }
+    }
+
+    @Test
+    public void nmeaAndOneOffsNeverReplace ()
+    {
+        queue.put (new Buffer (GpsEpoch.NMEA));
+        queue.put (new Buffer (GpsEpoch.NMEA));
+        queue.put (new Buffer (0));
+        queue.put (new Buffer (0));
+        assertEquals (4, queue.getQueued ());
+        assertEquals (0, queue.getDropped ());
+    }
+
+    @Test
+    public void referencesHeldUntilPolledOrClosed ()
+    {
+        Buffer a = new Buffer (GpsEpoch.LOCATION);
+        Buffer b = new Buffer (GpsEpoch.SATELLITES);
+        queue.put (a);
+        queue.put (b);
+        assertEquals (1, a.refs);
+        assertEquals (1, b.refs);
+
+        // poll hands the reference to the caller
+        assertSame (a, queue.poll ());
+        assertEquals (1, a.refs);
+
+        queue.close ();
+        assertEquals (0, b.refs);
+        assertEquals (0, queue.getQueued ());
+
+        // nothing queued once closed
+        Buffer c = new Buffer (GpsEpoch.LOCATION);
+        queue.put (c);
+        assertEquals (0, c.refs);
+        assertNull (queue.poll ());
+    }
+
+    // buffer that counts its references
+    private static class Buffer extends EpochBuffer {
+        public int refs;
+
+        public Buffer (int parts)
+        {
+            this.parts = parts;
+        }
+
+        @Override
+        public void retain ()
+        {
+            refs ++;
+            super.retain ();
+        }
+
+        @Override
+        public void release ()
+        {
+            refs --;
+            super.release ();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+
+package com.outerworldapps.gpsblue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check GDL90 frames against the ICD: CRC, byte stuffing, field offsets.
+ */
+public class GDL90EncoderTest {
+    private GDL90Encoder encoder;
+    private GpsEpoch epoch;
+
+    @Before
+    public void setUp ()
+    {
+        encoder = new GDL90Encoder ();
+        epoch = new GpsEpoch ();
+        epoch.parts = GpsEpoch.LOCATION;
+        epoch.hasLocation = true;
+        epoch.time = 1592000000000L;
+        epoch.receivedNanos = 1000000000L;
+        epoch.latitude = 42.5;
+        epoch.longitude = -71.0;
+        epoch.altitude = 100.0;
+    }
+
+    // heartbeat example given in the ICD
+    @Test
+    public void crcMatchesIcdExample ()
+    {
+        byte[] msg = new byte[] { 0x00, (byte) 0x81, 0x41, (byte) 0xDB, (byte) 0xD0, 0x08, 0x02 };
+        assertEquals (0x8BB3, GDL90Encoder.Crc (msg, msg.length));
+    }
+
+    @Test
+    public void fixSendsHeartbeatOwnshipAndGeometric ()
+    {
+        ArrayList<byte[]> msgs = encode ();
+        assertEquals (3, msgs.size ());
+        assertEquals (0, msgs.get (0)[0]);
+        assertEquals (10, msgs.get (1)[0]);
+        assertEquals (11, msgs.get (2)[0]);
+
+        // position valid, UTC OK, seconds since midnight
+        byte[] hb = msgs.get (0);
+        int secofday = (int) ((epoch.time / 1000) % 86400);
+        assertEquals (0x81, hb[1] & 0xFF);
+        assertEquals (0x01, hb[2] & 0x01);
+        assertEquals (secofday, ((hb[2] & 0x80) << 9) | ((hb[4] & 0xFF) << 8) | (hb[3] & 0xFF));
+
+        // second fix in the same UTC second gets no heartbeat
+        epoch.time += 200;
+        epoch.receivedNanos += 200000000L;
+        msgs = encode ();
+        assertEquals (2, msgs.size ());
+        assertEquals (10, msgs.get (0)[0]);
+    }
+
+    @Test
+    public void ownshipPosition ()
+    {
+        byte[] os = encode ().get (1);
+        assertEquals (28, os.length);
+        assertEquals (Math.round (42.5 * 0x800000 / 180.0), get24 (os, 5));
+        assertEquals (Math.round (-71.0 * 0x800000 / 180.0) & 0xFFFFFF, get24 (os, 8));
+
+        // 100m = 328ft, (328 + 1000) / 25 = 53
+        assertEquals (53, ((os[11] & 0xFF) << 4) | ((os[12] & 0xF0) >> 4));
+        assertEquals (0x09, os[12] & 0x0F);
+
+        epoch.extrapolated = true;
+        epoch.time += 1000;
+        os = encode ().get (1);
+        assertEquals (0x0D, os[12] & 0x0F);
+    }
+
+    @Test
+    public void navIntegrityAndAccuracy ()
+    {
+        double[] accs = { 2.0, 5.0, 20.0, 50.0, 100.0, 300.0, 1000.0, 2000.0 };
+        int[] nics    = {  11,  11,   10,    9,     8,     7,      6,      0 };
+        int[] nacps   = {  11,  10,    9,    8,     7,     6,      0,      0 };
+        epoch.hasAccuracy = true;
+        for (int i = 0; i < accs.length; i ++) {
+            epoch.accuracy = accs[i];
+            byte[] os = ownship ();
+            assertEquals ("nic " + accs[i], nics[i], (os[13] & 0xF0) >> 4);
+            assertEquals ("nacp " + accs[i], nacps[i], os[13] & 0x0F);
+        }
+
+        epoch.hasAccuracy = false;
+        assertEquals (0, ownship ()[13]);
+    }
+
+    @Test
+    public void verticalVelocity ()
+    {
+        assertEquals (0x800, vvel (ownship ()));
+
+        // 5.08 m/s = 1000 fpm = 16 units of 64 fpm
+        epoch.hasVerticalSpeed = true;
+        epoch.verticalSpeed = 5.08;
+        assertEquals (0x010, vvel (ownship ()));
+        epoch.verticalSpeed = -5.08;
+        assertEquals (0xFF0, vvel (ownship ()));
+        epoch.verticalSpeed = 500.0;
+        assertEquals (0x1FE, vvel (ownship ()));
+        epoch.verticalSpeed = -500.0;
+        assertEquals (0xE02, vvel (ownship ()));
+    }
+
+    @Test
+    public void flagAndEscapeAreStuffed ()
+    {
+        epoch.longitude = 0x7E7D7E * 180.0 / 0x800000;
+        EpochBuffer eb = new EpochBuffer ();
+        encoder.encode (epoch, eb);
+        for (int i = 1; i < eb.length - 1; i ++) {
+            if ((eb.bytes[i] & 0xFF) == 0x7E) {
+                assertTrue ((eb.bytes[i-1] & 0xFF) == 0x7E || (eb.bytes[i+1] & 0xFF) == 0x7E);
+            }
+        }
+        byte[] os = frames (eb).get (1);
+        assertArrayEquals (new byte[] { 0x7E, 0x7D, 0x7E }, new byte[] { os[8], os[9], os[10] });
+    }
+
+    @Test
+    public void heartbeatWithoutFix ()
+    {
+        epoch.parts = GpsEpoch.SATELLITES;
+        epoch.hasLocation = false;
+        epoch.receivedNanos = 10000000000L;
+        ArrayList<byte[]> msgs = encode ();
+        assertEquals (1, msgs.size ());
+        assertEquals (0, msgs.get (0)[0]);
+        assertEquals (0x01, msgs.get (0)[1] & 0xFF);
+        assertEquals (0x00, msgs.get (0)[2] & 0x01);
+
+        // at most one per second
+        epoch.receivedNanos += 500000000L;
+        assertEquals (0, encode ().size ());
+        epoch.receivedNanos += 500000000L;
+        assertEquals (1, encode ().size ());
+
+        // none between fixes
+        epoch.parts = GpsEpoch.LOCATION;
+        epoch.hasLocation = true;
+        epoch.receivedNanos += 1000000000L;
+        assertEquals (3, encode ().size ());
+        epoch.parts = GpsEpoch.SATELLITES;
+        epoch.receivedNanos += 1000000000L;
+        assertEquals (0, encode ().size ());
+    }
+
+    private byte[] ownship ()
+    {
+        epoch.time += 1000;
+        epoch.receivedNanos += 1000000000L;
+        return encode ().get (1);
+    }
+
+    private ArrayList<byte[]> encode ()
+    {
+        EpochBuffer eb = new EpochBuffer ();
+        encoder.encode (epoch, eb);
+        return frames (eb);
+    }
+
+    /**
+     * Split encoded bytes into frames, unstuff them and check their CRC.
+     * Returns the messages without the CRC.
+     */
+    private static ArrayList<byte[]> frames (EpochBuffer eb)
+    {
+        ArrayList<byte[]> msgs = new ArrayList<> ();
+        int i = 0;
+        while (i < eb.length) {
+            assertEquals (0x7E, eb.bytes[i++] & 0xFF);
+            byte[] msg = new byte[eb.length];
+            int len = 0;
+            int b;
+            while ((b = eb.bytes[i++] & 0xFF) != 0x7E) {
+                if (b == 0x7D) b = (eb.bytes[i++] & 0xFF) ^ 0x20;
+                msg[len++] = (byte) b;
+            }
+            assertTrue (len > 2);
+            len -= 2;
+            int crc = ((msg[len+1] & 0xFF) << 8) | (msg[len] & 0xFF);
+            assertEquals (GDL90Encoder.Crc (msg, len), crc);
+            byte[] m = new byte[len];
+            System.arraycopy (msg, 0, m, 0, len);
+            msgs.add (m);
+        }
+        return msgs;
+    }
+
+    private static int get24 (byte[] msg, int i)
+    {
+        return ((msg[i] & 0xFF) << 16) | ((msg[i+1] & 0xFF) << 8) | (msg[i+2] & 0xFF);
+    }
+
+    private static int vvel (byte[] os)
+    {
+        return ((os[15] & 0x0F) << 8) | (os[16] & 0xFF);
+    }
+}
@@ -0,0 +1,137 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+
+package com.outerworldapps.gpsblue;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the latest location kept for clients that just connected.
+ */
+public class OutputFormatTest {
+    private final static long FIX_NANOS = 1000000000000L;
+    private final static long VALID_NANOS = 2000000000L;
+
+    private final OutputFormat rmc = new OutputFormat (new NMEAEncoder ("NMEA-RMC", NMEAEncoder.RMC));
+
+    @Test
+    public void nothingBeforeLocation ()
+    {
+        assertNull (rmc.getLatest (FIX_NANOS, VALID_NANOS));
+
+        GpsEpoch epoch = epoch (1, GpsEpoch.SATELLITES);
+        epoch.hasLocation = false;
+        rmc.getEncoded (epoch);
+        assertNull (rmc.getLatest (FIX_NANOS, VALID_NANOS));
+    }
+
+    @Test
+    public void freshGetsSharedBuffer ()
+    {
+        EpochBuffer eb = rmc.getEncoded (epoch (1, GpsEpoch.LOCATION | GpsEpoch.SATELLITES));
+        EpochBuffer latest = rmc.getLatest (FIX_NANOS + VALID_NANOS, VALID_NANOS);
+        assertSame (eb, latest);
+        latest.release ();
+    }
+
+    // latest epoch wasn't a complete one so it gets put together again
+    @Test
+    public void freshReencodedAfterPartialEpoch ()
+    {
+        EpochBuffer full = rmc.getEncoded (epoch (1, GpsEpoch.LOCATION | GpsEpoch.SATELLITES));
+        GpsEpoch epoch = epoch (2, GpsEpoch.LOCATION);
+        epoch.latitude = 43.5;
+        EpochBuffer loc = rmc.getEncoded (epoch);
+        EpochBuffer latest = rmc.getLatest (FIX_NANOS, VALID_NANOS);
+        assertNotSame (full, latest);
+        assertNotSame (loc, latest);
+        assertEquals (GpsEpoch.LOCATION | GpsEpoch.SATELLITES, latest.parts);
+        assertTrue (latest.seq < -1);
+        String[] f = rmcFields (latest);
+        assertEquals ("4330.000", f[3]);
+        assertEquals ("A", f[2]);
+        assertEquals ("A", f[12]);
+        latest.release ();
+    }
+
+    @Test
+    public void staleMarkedNotValid ()
+    {
+        rmc.getEncoded (epoch (1, GpsEpoch.LOCATION | GpsEpoch.SATELLITES));
+        EpochBuffer latest = rmc.getLatest (FIX_NANOS + VALID_NANOS + 1, VALID_NANOS);
+        String[] f = rmcFields (latest);
+        assertEquals ("V", f[2]);
+        assertEquals ("N", f[12]);
+        latest.release ();
+
+        // doesn't stick to the real epochs
+        String[] g = rmcFields (rmc.getEncoded (epoch (2, GpsEpoch.LOCATION)));
+        assertEquals ("A", g[2]);
+        assertEquals ("A", g[12]);
+    }
+
+    @Test
+    public void staleJson ()
+    {
+        OutputFormat json = new OutputFormat (new JSONEncoder ());
+        json.getEncoded (epoch (1, GpsEpoch.LOCATION | GpsEpoch.SATELLITES));
+        EpochBuffer latest = json.getLatest (FIX_NANOS + VALID_NANOS + 1, VALID_NANOS);
+        assertTrue (text (latest).contains ("\"stale\":true"));
+        latest.release ();
+        latest = json.getLatest (FIX_NANOS, VALID_NANOS);
+        assertFalse (text (latest).contains ("stale"));
+        latest.release ();
+    }
+
+    private static GpsEpoch epoch (long seq, int parts)
+    {
+        GpsEpoch epoch = new GpsEpoch ();
+        epoch.seq = seq;
+        epoch.parts = parts;
+        epoch.hasLocation = true;
+        epoch.time = 1592000000000L + seq * 1000;
+        epoch.elapsedNanos = FIX_NANOS;
+        epoch.receivedNanos = FIX_NANOS;
+        epoch.latitude = 42.5;
+        epoch.longitude = -71.0;
+        return epoch;
+    }
+
+    private static String text (EpochBuffer eb)
+    {
+        return new String (eb.bytes, 0, eb.length);
+    }
+
+    // RMC fields, 0 is the talker and sentence, checksum stripped
+    private static String[] rmcFields (EpochBuffer eb)
+    {
+        String str = text (eb);
+        assertTrue (str.startsWith ("$G") && str.substring (3).startsWith ("RMC,"));
+        return str.substring (1, str.indexOf ('*')).split (",", -1);
+    }
+}
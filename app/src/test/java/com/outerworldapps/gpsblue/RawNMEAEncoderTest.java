@@ -0,0 +1,76 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+
+package com.outerworldapps.gpsblue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check the chipset's NMEA goes through untouched.
+ */
+public class RawNMEAEncoderTest {
+    @Test
+    public void passedThroughAsIs ()
+    {
+        byte[] nmea = "$GPGGA,123519,4807.038,N,01131.000,E,1,08,0.9,545.4,M,46.9,M,,*47\r\n$PSRFTXT,x\r\n".getBytes ();
+        GpsEpoch epoch = new GpsEpoch ();
+        epoch.parts = GpsEpoch.NMEA;
+        System.arraycopy (nmea, 0, epoch.nmea, 0, nmea.length);
+        epoch.nmeaLength = nmea.length;
+
+        EpochBuffer eb = new EpochBuffer ();
+        eb.bytes[0] = 'x';
+        eb.length = 1;
+        new RawNMEAEncoder ().encode (epoch, eb);
+        assertEquals (1 + nmea.length, eb.length);
+        assertArrayEquals (nmea, Arrays.copyOfRange (eb.bytes, 1, eb.length));
+    }
+
+    @Test
+    public void nothingFromLocation ()
+    {
+        GpsEpoch epoch = new GpsEpoch ();
+        epoch.parts = GpsEpoch.LOCATION | GpsEpoch.SATELLITES;
+        epoch.hasLocation = true;
+        epoch.nmeaLength = 10;
+        EpochBuffer eb = new EpochBuffer ();
+        new RawNMEAEncoder ().encode (epoch, eb);
+        assertEquals (0, eb.length);
+    }
+
+    @Test
+    public void onlyRawFormatIsRaw ()
+    {
+        OutputFormats formats = new OutputFormats ();
+        for (String name : formats.getNames ()) {
+            assertEquals (name, name.equals (RawNMEAEncoder.NAME), formats.get (name).raw);
+        }
+        assertTrue (formats.get ("NMEA-RAW").raw);
+        assertFalse (formats.getDefault ().raw);
+    }
+}
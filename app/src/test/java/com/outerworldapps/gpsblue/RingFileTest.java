@@ -0,0 +1,232 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+
+package com.outerworldapps.gpsblue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Write a ring file with RingFile and read it back with RingFileReader.
+ */
+public class RingFileTest {
+    private File file;
+    private RingFile ring;
+
+    @Before
+    public void setUp ()
+            throws IOException
+    {
+        file = File.createTempFile ("ringfile", ".dat");
+        ring = new RingFile (file);
+    }
+
+    @After
+    public void tearDown ()
+    {
+        ring.close ();
+        file.delete ();
+    }
+
+    @Test
+    public void emptyUntilLocation ()
+            throws IOException
+    {
+        RingFileReader reader = new RingFileReader (file);
+        RingFileReader.Record rec = new RingFileReader.Record ();
+        assertFalse (reader.readLatest (rec));
+
+        GpsEpoch epoch = epoch (1);
+        epoch.hasLocation = false;
+        ring.write (epoch);
+        assertEquals (0, reader.getLatest ());
+        assertFalse (reader.readLatest (rec));
+    }
+
+    @Test
+    public void roundTripByFile ()
+            throws IOException
+    {
+        RingFileReader reader = new RingFileReader (file);
+        ring.write (epoch (1));
+        checkRecord (reader, 1);
+    }
+
+    @Test
+    public void roundTripByStream ()
+            throws IOException
+    {
+        RingFileReader reader = new RingFileReader (new FileInputStream (file));
+        ring.write (epoch (1));
+        checkRecord (reader, 1);
+        reader.close ();
+
+        // mapping still readable once the stream is closed
+        ring.write (epoch (2));
+        checkRecord (reader, 2);
+    }
+
+    @Test
+    public void absentFieldsAreZero ()
+            throws IOException
+    {
+        GpsEpoch epoch = new GpsEpoch ();
+        epoch.seq = 7;
+        epoch.parts = GpsEpoch.LOCATION;
+        epoch.hasLocation = true;
+        epoch.altitude = 100.0;     // not valid without hasAltitude
+        epoch.latitude = 1.0;
+        epoch.longitude = 2.0;
+        ring.write (epoch);
+        RingFileReader.Record rec = new RingFileReader.Record ();
+        assertTrue (new RingFileReader (file).readLatest (rec));
+        assertEquals (0, rec.flags);
+        assertEquals (0.0, rec.altitude, 0.0);
+        assertEquals (1.0, rec.latitude, 0.0);
+        assertEquals (0, rec.satellitesInView);
+    }
+
+    @Test
+    public void oldRecordsOverwritten ()
+            throws IOException
+    {
+        RingFileReader reader = new RingFileReader (file);
+        int n = RingFile.SLOTS + 4;
+        for (int i = 1; i <= n; i ++) ring.write (epoch (i));
+        assertEquals (n, reader.getLatest ());
+        RingFileReader.Record rec = new RingFileReader.Record ();
+        assertFalse (reader.read (n - RingFile.SLOTS, rec));
+        assertTrue (reader.read (n - RingFile.SLOTS + 1, rec));
+        assertEquals (n - RingFile.SLOTS + 1, rec.number);
+        assertFalse (reader.read (n + 1, rec));
+        assertFalse (reader.read (0, rec));
+    }
+
+    @Test
+    public void corruptRecordRejected ()
+            throws IOException
+    {
+        ring.write (epoch (1));
+        RandomAccessFile raf = new RandomAccessFile (file, "rw");
+        raf.seek (RingFile.HEADER_SIZE + 50);
+        raf.write (0x55);
+        raf.close ();
+        RingFileReader.Record rec = new RingFileReader.Record ();
+        assertFalse (new RingFileReader (file).readLatest (rec));
+    }
+
+    @Test
+    public void nothingWrittenOnceClosed ()
+            throws IOException
+    {
+        RingFileReader reader = new RingFileReader (file);
+        ring.write (epoch (1));
+        ring.close ();
+        ring.write (epoch (2));
+        assertEquals (1, reader.getLatest ());
+    }
+
+    @Test
+    public void recreatedFileStartsOver ()
+            throws IOException
+    {
+        RingFileReader reader = new RingFileReader (file);
+        ring.write (epoch (1));
+        ring.close ();
+        ring = new RingFile (file);
+        assertEquals (0, reader.getLatest ());
+    }
+
+    @Test (expected = IOException.class)
+    public void notARingFile ()
+            throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile (file, "rw");
+        raf.seek (0);
+        raf.writeLong (0);
+        raf.close ();
+        new RingFileReader (file);
+    }
+
+    private static GpsEpoch epoch (int i)
+    {
+        GpsEpoch epoch = new GpsEpoch ();
+        epoch.seq = 100 + i;
+        epoch.parts = GpsEpoch.LOCATION | GpsEpoch.SATELLITES;
+        epoch.hasLocation = true;
+        epoch.time = 1592000000000L + i * 1000;
+        epoch.elapsedNanos = 5000000000L + i;
+        epoch.receivedNanos = 6000000000L + i;
+        epoch.latitude = 42.5 + i;
+        epoch.longitude = -71.25;
+        epoch.hasAltitude = true;
+        epoch.altitude = 123.5;
+        epoch.hasSpeed = true;
+        epoch.speed = 10.25;
+        epoch.hasBearing = true;
+        epoch.bearing = 271.5;
+        epoch.hasVerticalSpeed = true;
+        epoch.verticalSpeed = -1.5;
+        epoch.hasAccuracy = true;
+        epoch.accuracy = 3.5;
+        epoch.extrapolated = true;
+        MyGpsSatellite a = new MyGpsSatellite ();
+        a.used = true;
+        MyGpsSatellite b = new MyGpsSatellite ();
+        epoch.satellites = new MyGpsSatellite[] { a, b, b };
+        return epoch;
+    }
+
+    private static void checkRecord (RingFileReader reader, int i)
+    {
+        RingFileReader.Record rec = new RingFileReader.Record ();
+        assertTrue (reader.readLatest (rec));
+        assertEquals (i, rec.number);
+        assertEquals (100 + i, rec.seq);
+        assertEquals (1592000000000L + i * 1000, rec.time);
+        assertEquals (5000000000L + i, rec.elapsedNanos);
+        assertEquals (6000000000L + i, rec.receivedNanos);
+        assertEquals (42.5 + i, rec.latitude, 0.0);
+        assertEquals (-71.25, rec.longitude, 0.0);
+        assertEquals (123.5, rec.altitude, 0.0);
+        assertEquals (10.25, rec.speed, 0.0);
+        assertEquals (271.5, rec.bearing, 0.0);
+        assertEquals (-1.5, rec.verticalSpeed, 0.0);
+        assertEquals (3.5f, rec.accuracy, 0.0f);
+        assertEquals (0.0f, rec.verticalAccuracy, 0.0f);
+        assertEquals (RingFileReader.FL_ALTITUDE | RingFileReader.FL_SPEED | RingFileReader.FL_BEARING |
+                RingFileReader.FL_VERTSPEED | RingFileReader.FL_ACCURACY | RingFileReader.FL_EXTRAPOLATED,
+                rec.flags);
+        assertEquals (GpsEpoch.LOCATION | GpsEpoch.SATELLITES, rec.parts);
+        assertEquals (3, rec.satellitesInView);
+        assertEquals (1, rec.satellitesUsed);
+    }
+}
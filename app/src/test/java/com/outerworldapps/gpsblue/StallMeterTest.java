@@ -0,0 +1,61 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+
+package com.outerworldapps.gpsblue;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check the stall histogram's buckets and how it is shown.
+ */
+public class StallMeterTest {
+    @Test
+    public void nothingUnder50ms ()
+    {
+        StallMeter meter = new StallMeter ();
+        StringBuilder sb = new StringBuilder ("x");
+        meter.append (sb);
+        assertEquals ("x", sb.toString ());
+
+        meter.record (0);
+        meter.record (9999999L);
+        meter.record (49999999L);
+        meter.append (sb);
+        assertEquals ("x", sb.toString ());
+    }
+
+    @Test
+    public void bucketsAndMax ()
+    {
+        StallMeter meter = new StallMeter ();
+        meter.record (50000000L);
+        meter.record (120000000L);
+        meter.record (249999999L);
+        meter.record (412000000L);
+        meter.record (7000000000L);
+        meter.record (3000000L);
+        StringBuilder sb = new StringBuilder ();
+        meter.append (sb);
+        assertEquals (" stalls 50ms:3 250ms:1 5000ms:1 max 7000ms", sb.toString ());
+    }
+}
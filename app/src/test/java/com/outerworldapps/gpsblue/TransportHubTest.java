@@ -0,0 +1,534 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+
+package com.outerworldapps.gpsblue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Run the hub over loopback TCP connections.
+ */
+public class TransportHubTest {
+    private final static int WAIT_MS = 3000;
+
+    private TransportHub hub;
+    private OutputFormat format;
+    private ServerSocketChannel ssc;
+    private Connection lastAccepted;
+    private long seq;
+
+    private final LinkedBlockingQueue<Connection> accepted = new LinkedBlockingQueue<> ();
+    private final LinkedBlockingQueue<Connection> closed = new LinkedBlockingQueue<> ();
+    private final LinkedBlockingQueue<String> received = new LinkedBlockingQueue<> ();
+    private final LinkedBlockingQueue<String> warnings = new LinkedBlockingQueue<> ();
+
+    private final Transport transport = new Transport () {
+        @Override  // Transport
+        public void received (Connection conn, byte[] buf, int len)
+        {
+            received.add (new String (buf, 0, len));
+        }
+
+        @Override  // Transport
+        public void connectionClosed (Connection conn)
+        {
+            closed.add (conn);
+        }
+    };
+
+    @Before
+    public void setUp ()
+            throws IOException
+    {
+        hub = new TransportHub (new TransportHub.Host () {
+            @Override  // Host
+            public long elapsedRealtimeNanos ()
+            {
+                return System.nanoTime ();
+            }
+
+            @Override  // Host
+            public void info (String msg)
+            { }
+
+            @Override  // Host
+            public void warn (String msg, Throwable t)
+            {
+                warnings.add (msg);
+            }
+        });
+        hub.startup ();
+        format = new OutputFormat (new NMEAEncoder (OutputFormats.DEFAULT, NMEAEncoder.STANDARD));
+        ssc = ServerSocketChannel.open ();
+        ssc.socket ().bind (new InetSocketAddress ("127.0.0.1", 0));
+        hub.addServer (ssc, new TransportHub.Acceptor () {
+            @Override  // Acceptor
+            public void accepted (SocketChannel sc)
+            {
+                try {
+                    accepted.add (hub.addChannel (sc, "test", format, transport));
+                } catch (IOException ioe) {
+                    throw new RuntimeException (ioe);
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown ()
+            throws IOException
+    {
+        ssc.close ();
+        hub.shutdown ();
+    }
+
+    @Test
+    public void epochReachesEveryClient ()
+            throws Exception
+    {
+        Socket a = connect ();
+        Socket b = connect ();
+        byte[] expect = write (GpsEpoch.LOCATION | GpsEpoch.SATELLITES);
+        assertArrayEquals (expect, read (a, expect.length));
+        assertArrayEquals (expect, read (b, expect.length));
+
+        expect = write (GpsEpoch.LOCATION);
+        assertArrayEquals (expect, read (a, expect.length));
+        assertArrayEquals (expect, read (b, expect.length));
+        a.close ();
+        b.close ();
+    }
+
+    @Test
+    public void clientInputPassedToTransport ()
+            throws Exception
+    {
+        Socket s = connect ();
+        s.getOutputStream ().write ("$PGPSB,RATE,1*00\r\n".getBytes ());
+        StringBuilder sb = new StringBuilder ();
+        while (sb.length () < 18) {
+            String str = received.poll (WAIT_MS, TimeUnit.MILLISECONDS);
+            assertNotNull (str);
+            sb.append (str);
+        }
+        assertEquals ("$PGPSB,RATE,1*00\r\n", sb.toString ());
+        s.close ();
+    }
+
+    @Test
+    public void clientCloseRemovesConnection ()
+            throws Exception
+    {
+        Socket s = connect ();
+        Connection conn = lastAccepted;
+        s.close ();
+        assertSame (conn, closed.poll (WAIT_MS, TimeUnit.MILLISECONDS));
+        assertFalse (hub.usesFormat (format));
+        assertEquals (true, conn.closed);
+    }
+
+    @Test
+    public void requestCloseClosesClient ()
+            throws Exception
+    {
+        Socket s = connect ();
+        Connection conn = lastAccepted;
+        hub.requestClose (conn);
+        assertSame (conn, closed.poll (WAIT_MS, TimeUnit.MILLISECONDS));
+        assertEquals (-1, s.getInputStream ().read ());
+        s.close ();
+    }
+
+    @Test
+    public void newClientGetsLatest ()
+            throws Exception
+    {
+        Socket a = connect ();
+        hub.setReplayValid (5000);
+        byte[] expect = write (GpsEpoch.LOCATION | GpsEpoch.SATELLITES);
+        read (a, expect.length);
+
+        // still fresh so it gets the same bytes without waiting for another epoch
+        Socket b = connect ();
+        assertArrayEquals (expect, read (b, expect.length));
+        a.close ();
+        b.close ();
+    }
+
+    // local sockets and bluetooth are blocking streams serviced by the pool threads
+    // the whole epoch goes in one write when the MTU allows
+    @Test
+    public void streamWrittenWhole ()
+            throws Exception
+    {
+        Stream stream = new Stream ();
+        Connection conn = hub.addStream (stream.is, stream.os, stream, 65536, "stream", format, transport);
+        byte[] expect = write (GpsEpoch.LOCATION | GpsEpoch.SATELLITES);
+        assertArrayEquals (expect, stream.os.await (expect.length));
+        assertEquals (1, stream.os.writes.size ());
+
+        // and gets what the client sends
+        stream.input.write ("$PGPSB,RATE,1*00\r\n".getBytes ());
+        assertEquals ("$PGPSB,RATE,1*00\r\n", received.poll (WAIT_MS, TimeUnit.MILLISECONDS));
+
+        hub.requestClose (conn);
+        assertSame (conn, closed.poll (WAIT_MS, TimeUnit.MILLISECONDS));
+        assertTrue (stream.closed);
+    }
+
+    @Test
+    public void streamSplitAtMtu ()
+            throws Exception
+    {
+        Stream stream = new Stream ();
+        hub.addStream (stream.is, stream.os, stream, 20, "stream", format, transport);
+        byte[] expect = write (GpsEpoch.LOCATION | GpsEpoch.SATELLITES);
+        assertArrayEquals (expect, stream.os.await (expect.length));
+        assertEquals ((expect.length + 19) / 20, stream.os.writes.size ());
+        for (int n : stream.os.writes) assertTrue (n <= 20);
+    }
+
+    @Test
+    public void streamWriteErrorRemovesConnection ()
+            throws Exception
+    {
+        Stream stream = new Stream ();
+        stream.os.fail = true;
+        Connection conn = hub.addStream (stream.is, stream.os, stream, 65536, "stream", format, transport);
+        write (GpsEpoch.LOCATION);
+        assertSame (conn, closed.poll (WAIT_MS, TimeUnit.MILLISECONDS));
+        assertTrue (stream.closed);
+    }
+
+    // $PGPSB,RATE,0.2 gets one epoch in each 5 seconds
+    @Test
+    public void slowerRateSkipsEpochs ()
+            throws Exception
+    {
+        Connection conn = addStream ("stream", format);
+        conn.intervalMs = 5000;
+        GpsEpoch epoch = epoch (GpsEpoch.LOCATION | GpsEpoch.SATELLITES);
+        for (int i = 0; i < 50; i ++) {
+            epoch.seq = ++ seq;
+            epoch.time = 1592000000000L + i * 1000;
+            epoch.receivedNanos = 1000000000000L + i * 1000000000L;
+            hub.write (epoch);
+        }
+        assertEquals (10, queued (conn));
+    }
+
+    // locations and satellites each get their own slot in the interval,
+    // and an epoch that encodes to nothing doesn't use up the slot
+    @Test
+    public void rateSlotsPerPart ()
+            throws Exception
+    {
+        OutputFormat gsvonly = new OutputFormat (new NMEAEncoder ("NMEA-GSV", NMEAEncoder.GSV));
+        Connection both = addStream ("both", format);
+        Connection gsv = addStream ("gsv", gsvonly);
+        both.intervalMs = 5000;
+        gsv.intervalMs = 5000;
+        GpsEpoch epoch = epoch (0);
+        for (int i = 0; i < 50; i ++) {
+            epoch.seq = ++ seq;
+            epoch.parts = GpsEpoch.LOCATION;
+            epoch.time = 1592000000000L + i * 1000;
+            epoch.receivedNanos = 1000000000000L + i * 1000000000L;
+            hub.write (epoch);
+            epoch.seq = ++ seq;
+            epoch.parts = GpsEpoch.SATELLITES;
+            epoch.receivedNanos += 500000000L;
+            hub.write (epoch);
+        }
+        assertEquals (20, queued (both));
+        assertEquals (10, queued (gsv));
+    }
+
+    // raw NMEA goes only to NMEA-RAW clients, at whatever rate it comes,
+    // and they get nothing else
+    @Test
+    public void rawOnlyToRaw ()
+            throws Exception
+    {
+        Connection cooked = addStream ("cooked", format);
+        Connection raw = addStream ("raw", new OutputFormat (new RawNMEAEncoder ()));
+        raw.intervalMs = 5000;
+        GpsEpoch epoch = epoch (GpsEpoch.LOCATION | GpsEpoch.SATELLITES);
+        byte[] nmea = "$GPGSV,1,1,01,05,,,*7C\r\n".getBytes ();
+        System.arraycopy (nmea, 0, epoch.nmea, 0, nmea.length);
+        epoch.nmeaLength = nmea.length;
+        hub.write (epoch);
+        for (int i = 0; i < 5; i ++) {
+            epoch.seq = ++ seq;
+            epoch.parts = GpsEpoch.NMEA;
+            hub.write (epoch);
+        }
+        assertEquals (1, queued (cooked));
+        assertEquals (5, queued (raw));
+    }
+
+    // a client that stops reading fills the socket buffers then gets closed
+    @Test
+    public void stalledChannelEvicted ()
+            throws Exception
+    {
+        hub.setWriteTimeout (1000);
+        Socket s = new Socket ();
+        s.setReceiveBufferSize (4096);
+        s.connect (ssc.socket ().getLocalSocketAddress ());
+        Connection conn = accepted.poll (WAIT_MS, TimeUnit.MILLISECONDS);
+        conn.format = new OutputFormat (new Bulk (256 * 1024));
+        Connection gone = null;
+        GpsEpoch epoch = epoch (GpsEpoch.LOCATION);
+        for (int i = 0; (i < 2000) && (gone == null); i ++) {
+            epoch.seq = ++ seq;
+            hub.write (epoch);
+            gone = closed.poll (10, TimeUnit.MILLISECONDS);
+        }
+        assertSame (conn, gone);
+        assertTrue (warnings.poll ().contains ("write stalled"));
+        s.close ();
+    }
+
+    // a blocked stream write gets broken by closing the socket
+    @Test
+    public void stalledStreamEvicted ()
+            throws Exception
+    {
+        hub.setWriteTimeout (1000);
+        Stream stream = new Stream ();
+        stream.os.block = true;
+        Connection conn = hub.addStream (stream.is, stream.os, stream, 65536, "stream", format, transport);
+        long started = System.nanoTime ();
+        write (GpsEpoch.LOCATION);
+        assertSame (conn, closed.poll (WAIT_MS, TimeUnit.MILLISECONDS));
+        assertTrue (System.nanoTime () - started >= 1000000000L);
+        assertTrue (warnings.poll ().contains ("write stalled"));
+        assertTrue (stream.closed);
+    }
+
+    // closing doesn't break the write, the connection is dropped anyway
+    // and the pool thread's other streams carry on with a new thread
+    @Test
+    public void stuckStreamDropped ()
+            throws Exception
+    {
+        hub.setWriteTimeout (1000);
+        Stream stuck = new Stream ();
+        stuck.os.block = true;
+        stuck.os.ignoreClose = true;
+        Connection conn = hub.addStream (stuck.is, stuck.os, stuck, 65536, "stuck", format, transport);
+        write (GpsEpoch.LOCATION);
+        assertSame (conn, closed.poll (2 * WAIT_MS, TimeUnit.MILLISECONDS));
+        assertFalse (hub.usesFormat (format));
+
+        // new streams still get serviced whichever thread they land on
+        Stream[] streams = new Stream[2];
+        for (int i = 0; i < streams.length; i ++) {
+            streams[i] = new Stream ();
+            hub.addStream (streams[i].is, streams[i].os, streams[i], 65536, "stream", format, transport);
+        }
+        byte[] expect = write (GpsEpoch.LOCATION);
+        for (Stream stream : streams) assertArrayEquals (expect, stream.os.await (expect.length));
+        stuck.os.unblock ();
+    }
+
+    private Connection addStream (String name, OutputFormat fmt)
+            throws IOException
+    {
+        Stream stream = new Stream ();
+        return hub.addStream (stream.is, stream.os, stream, 65536, name, fmt, transport);
+    }
+
+    // everything ever queued to the connection, whether sent or dropped since
+    private static long queued (Connection conn)
+    {
+        ClientQueue q = conn.queue;
+        return q.getSent () + q.getDropped () + q.getQueued ();
+    }
+
+    /**
+     * Connect a client and wait for the hub to add it, see lastAccepted.
+     */
+    private Socket connect ()
+            throws Exception
+    {
+        Socket s = new Socket (ssc.socket ().getInetAddress (), ssc.socket ().getLocalPort ());
+        s.setSoTimeout (WAIT_MS);
+        lastAccepted = accepted.poll (WAIT_MS, TimeUnit.MILLISECONDS);
+        assertNotNull (lastAccepted);
+        return s;
+    }
+
+    /**
+     * Write an epoch to the hub.
+     * @return what the clients should receive
+     */
+    private byte[] write (int parts)
+    {
+        GpsEpoch epoch = epoch (parts);
+        hub.write (epoch);
+        EpochBuffer eb = format.getEncoded (epoch);
+        return Arrays.copyOf (eb.bytes, eb.length);
+    }
+
+    private GpsEpoch epoch (int parts)
+    {
+        GpsEpoch epoch = new GpsEpoch ();
+        epoch.seq = ++ seq;
+        epoch.parts = parts;
+        epoch.hasLocation = true;
+        epoch.time = 1592000000000L + seq * 1000;
+        epoch.elapsedNanos = epoch.receivedNanos = System.nanoTime ();
+        epoch.latitude = 42.5;
+        epoch.longitude = -71.0;
+        MyGpsSatellite sat = new MyGpsSatellite ();
+        sat.setLegacyPrn (5);
+        sat.used = true;
+        epoch.satellites = new MyGpsSatellite[] { sat };
+        return epoch;
+    }
+
+    // encoder that outputs lots of bytes
+    private static class Bulk implements OutputEncoder {
+        private final int size;
+
+        public Bulk (int size)
+        {
+            this.size = size;
+        }
+
+        @Override  // OutputEncoder
+        public String getName ()
+        {
+            return "BULK";
+        }
+
+        @Override  // OutputEncoder
+        public void encode (GpsEpoch epoch, EpochBuffer out)
+        {
+            out.ensure (size);
+            out.length += size;
+        }
+    }
+
+    // blocking stream pair standing in for a local or bluetooth socket
+    private static class Stream implements Closeable {
+        public final PipedOutputStream input = new PipedOutputStream ();
+        public final PipedInputStream is;
+        public final Output os = new Output ();
+        public volatile boolean closed;
+
+        public Stream ()
+                throws IOException
+        {
+            is = new PipedInputStream (input);
+        }
+
+        @Override  // Closeable
+        public void close ()
+        {
+            closed = true;
+            if (! os.ignoreClose) os.unblock ();
+        }
+    }
+
+    // remembers what was written and how big each write was
+    private static class Output extends OutputStream {
+        public final ArrayList<Integer> writes = new ArrayList<> ();
+        public volatile boolean fail;
+        public volatile boolean block;          // writes block until unblock()
+        public volatile boolean ignoreClose;    // closing the stream doesn't unblock
+        private boolean unblocked;
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream ();
+
+        @Override
+        public void write (int b)
+                throws IOException
+        {
+            write (new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public synchronized void write (byte[] buf, int ofs, int len)
+                throws IOException
+        {
+            if (fail) throw new IOException ("write failed");
+            while (block && ! unblocked) {
+                try { wait (); } catch (InterruptedException ie) { throw new IOException (ie); }
+            }
+            if (block) throw new IOException ("closed while blocked");
+            writes.add (len);
+            bytes.write (buf, ofs, len);
+            notifyAll ();
+        }
+
+        public synchronized void unblock ()
+        {
+            unblocked = true;
+            notifyAll ();
+        }
+
+        // wait for len bytes to be written and return them
+        public synchronized byte[] await (int len)
+                throws InterruptedException
+        {
+            long end = System.currentTimeMillis () + WAIT_MS;
+            for (long now; (bytes.size () < len) && ((now = System.currentTimeMillis ()) < end);) {
+                wait (end - now);
+            }
+            return bytes.toByteArray ();
+        }
+    }
+
+    private static byte[] read (Socket s, int len)
+            throws IOException
+    {
+        byte[] buf = new byte[len];
+        new DataInputStream (s.getInputStream ()).readFully (buf);
+        return buf;
+    }
+}
@@ -0,0 +1,193 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+
+package com.outerworldapps.gpsblue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Check UBX NAV-PVT and NAV-SAT framing, checksum and field offsets.
+ */
+public class UBXEncoderTest {
+    private UBXEncoder encoder;
+    private GpsEpoch epoch;
+
+    @Before
+    public void setUp ()
+    {
+        encoder = new UBXEncoder ();
+        epoch = new GpsEpoch ();
+        epoch.parts = GpsEpoch.LOCATION;
+        epoch.hasLocation = true;
+        epoch.time = 1592000000250L;    // 2020-06-12 22:13:20.25 UTC
+        epoch.latitude = 42.5123456;
+        epoch.longitude = -71.2345678;
+        epoch.altitude = 123.456;
+        epoch.speed = 10.0;
+        epoch.bearing = 90.0;
+    }
+
+    @Test
+    public void pvtFraming ()
+    {
+        ByteBuffer bb = encode ();
+        assertEquals (92 + 8, bb.limit ());
+        assertEquals (0xB5, bb.get (0) & 0xFF);
+        assertEquals (0x62, bb.get (1) & 0xFF);
+        assertEquals (0x01, bb.get (2));
+        assertEquals (0x07, bb.get (3));
+        assertEquals (92, bb.getShort (4));
+        checkFletcher (bb, 0);
+    }
+
+    @Test
+    public void pvtFields ()
+    {
+        ByteBuffer bb = encode ();
+
+        // GPS time of week, 18 leap seconds ahead of UTC
+        assertEquals (512018250, bb.getInt (6));
+        assertEquals (2020, bb.getShort (10));
+        assertEquals (6, bb.get (12));
+        assertEquals (12, bb.get (13));
+        assertEquals (22, bb.get (14));
+        assertEquals (13, bb.get (15));
+        assertEquals (20, bb.get (16));
+        assertEquals (250000000, bb.getInt (22));
+
+        assertEquals (3, bb.get (26));
+        assertEquals (-712345678, bb.getInt (30));
+        assertEquals (425123456, bb.getInt (34));
+        assertEquals (123456, bb.getInt (42));
+
+        // due east at 10 m/s
+        assertEquals (0, bb.getInt (54));
+        assertEquals (10000, bb.getInt (58));
+        assertEquals (10000, bb.getInt (66));
+        assertEquals (9000000, bb.getInt (70));
+
+        // no accuracy, no vertical speed
+        assertEquals (0xFFFFFFFF, bb.getInt (46));
+        assertEquals (0, bb.getInt (62));
+    }
+
+    @Test
+    public void pvtVelocityDownAndDeadReckoning ()
+    {
+        epoch.hasVerticalSpeed = true;
+        epoch.verticalSpeed = 2.5;
+        epoch.hasAccuracy = true;
+        epoch.accuracy = 4.2;
+        epoch.extrapolated = true;
+        ByteBuffer bb = encode ();
+        assertEquals (4, bb.get (26));
+        assertEquals (-2500, bb.getInt (62));
+        assertEquals (4200, bb.getInt (46));
+    }
+
+    @Test
+    public void satFields ()
+    {
+        epoch.parts = GpsEpoch.SATELLITES;
+        epoch.satellites = new MyGpsSatellite[] {
+                satellite (MyGpsSatellite.GPS, 12, true),
+                satellite (MyGpsSatellite.SBAS, 46, false),
+                satellite (MyGpsSatellite.GLONASS, 70, true),
+                satellite (MyGpsSatellite.GLONASS, 0, false),
+                satellite (MyGpsSatellite.GALILEO, 5, false) };
+        ByteBuffer bb = encode ();
+
+        int len = 8 + 5 * 12;
+        assertEquals (len + 8, bb.limit ());
+        assertEquals (0x35, bb.get (3));
+        assertEquals (len, bb.getShort (4));
+        checkFletcher (bb, 0);
+        assertEquals (1, bb.get (10));
+        assertEquals (5, bb.get (11));
+
+        int[] gnssids = { 0, 1, 6, 6, 2 };
+        int[] svids   = { 12, 133, 6, 255, 5 };
+        for (int j = 0; j < 5; j ++) {
+            int i = 14 + j * 12;
+            assertEquals ("gnssId " + j, gnssids[j], bb.get (i) & 0xFF);
+            assertEquals ("svId " + j, svids[j], bb.get (i + 1) & 0xFF);
+            assertEquals (35, bb.get (i + 2));
+            assertEquals (45, bb.get (i + 3));
+            assertEquals (270, bb.getShort (i + 4));
+            assertEquals (epoch.satellites[j].used ? 0x0F : 0x04, bb.getInt (i + 8));
+        }
+    }
+
+    @Test
+    public void locationAndSatellitesTogether ()
+    {
+        epoch.parts = GpsEpoch.LOCATION | GpsEpoch.SATELLITES;
+        epoch.satellites = new MyGpsSatellite[] { satellite (MyGpsSatellite.GPS, 3, true) };
+        ByteBuffer bb = encode ();
+        assertEquals (100 + 8 + 8 + 12, bb.limit ());
+        assertEquals (1, bb.get (6 + 23));      // numSV
+        checkFletcher (bb, 0);
+        assertEquals (0x35, bb.get (100 + 3));
+        checkFletcher (bb, 100);
+    }
+
+    private ByteBuffer encode ()
+    {
+        EpochBuffer eb = new EpochBuffer ();
+        encoder.encode (epoch, eb);
+        ByteBuffer bb = ByteBuffer.wrap (eb.bytes, 0, eb.length).slice ();
+        bb.limit (eb.length);
+        bb.order (ByteOrder.LITTLE_ENDIAN);
+        return bb;
+    }
+
+    // 8-bit Fletcher over class, id, length and payload
+    private static void checkFletcher (ByteBuffer bb, int start)
+    {
+        int end = start + 6 + (bb.getShort (start + 4) & 0xFFFF);
+        int cka = 0;
+        int ckb = 0;
+        for (int i = start + 2; i < end; i ++) {
+            cka = (cka + bb.get (i)) & 0xFF;
+            ckb = (ckb + cka) & 0xFF;
+        }
+        assertEquals (cka, bb.get (end) & 0xFF);
+        assertEquals (ckb, bb.get (end + 1) & 0xFF);
+    }
+
+    private static MyGpsSatellite satellite (int constellation, int prn, boolean used)
+    {
+        MyGpsSatellite s = new MyGpsSatellite ();
+        s.constellation = constellation;
+        s.prn = prn;
+        s.used = used;
+        s.snr = 35.0;
+        s.elev = 45.0;
+        s.azim = 270.0;
+        return s;
+    }
+}
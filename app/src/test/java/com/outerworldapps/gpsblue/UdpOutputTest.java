@@ -0,0 +1,189 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+
+package com.outerworldapps.gpsblue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Send epochs to datagram sockets on localhost.
+ */
+public class UdpOutputTest {
+    private DatagramSocket[] receivers;
+    private InetSocketAddress[] dests;
+    private DatagramChannel channel;
+
+    @Before
+    public void setUp ()
+            throws IOException
+    {
+        InetAddress lo = InetAddress.getByName ("127.0.0.1");
+        receivers = new DatagramSocket[2];
+        dests = new InetSocketAddress[2];
+        for (int i = 0; i < 2; i ++) {
+            receivers[i] = new DatagramSocket (0, lo);
+            receivers[i].setSoTimeout (250);
+            receivers[i].setReceiveBufferSize (65536);
+            dests[i] = new InetSocketAddress (lo, receivers[i].getLocalPort ());
+        }
+        channel = DatagramChannel.open ();
+        channel.configureBlocking (false);
+    }
+
+    @After
+    public void tearDown ()
+            throws IOException
+    {
+        channel.close ();
+        for (DatagramSocket ds : receivers) ds.close ();
+    }
+
+    // 150 satellites of every constellation, too much NMEA for one datagram
+    @Test
+    public void bigEpochSplitBetweenSentences ()
+    {
+        OutputFormat format = new OutputFormat (new NMEAEncoder (OutputFormats.DEFAULT, NMEAEncoder.STANDARD));
+        UdpOutput udp = new UdpOutput (channel, dests, format);
+        GpsEpoch epoch = epoch (150);
+        udp.write (epoch);
+        byte[] expect = encoded (format, epoch);
+        assertTrue (expect.length > UdpOutput.MAX_DATAGRAM);
+
+        for (DatagramSocket ds : receivers) {
+            ArrayList<byte[]> grams = receive (ds);
+            assertTrue (grams.size () > 1);
+            ByteArrayOutputStream all = new ByteArrayOutputStream ();
+            for (int i = 0; i < grams.size (); i ++) {
+                byte[] gram = grams.get (i);
+                assertTrue (gram.length <= UdpOutput.MAX_DATAGRAM);
+                assertEquals ('$', gram[0]);
+                assertEquals ('\n', gram[gram.length-1]);
+
+                // as many whole sentences as fit
+                if (i + 1 < grams.size ()) {
+                    byte[] next = grams.get (i + 1);
+                    int j = 0;
+                    while (next[j++] != '\n') { }
+                    assertTrue (gram.length + j > UdpOutput.MAX_DATAGRAM);
+                }
+                all.write (gram, 0, gram.length);
+            }
+            assertArrayEquals (expect, all.toByteArray ());
+        }
+        assertEquals (0, udp.getErrors ());
+    }
+
+    @Test
+    public void smallEpochOneDatagram ()
+    {
+        OutputFormat format = new OutputFormat (new GDL90Encoder ());
+        UdpOutput udp = new UdpOutput (channel, dests, format);
+        GpsEpoch epoch = epoch (4);
+        udp.write (epoch);
+        byte[] expect = encoded (format, epoch);
+        for (DatagramSocket ds : receivers) {
+            ArrayList<byte[]> grams = receive (ds);
+            assertEquals (1, grams.size ());
+            assertArrayEquals (expect, grams.get (0));
+        }
+    }
+
+    @Test
+    public void rawOnlyToRaw ()
+    {
+        OutputFormat format = new OutputFormat (new NMEAEncoder (OutputFormats.DEFAULT, NMEAEncoder.STANDARD));
+        UdpOutput udp = new UdpOutput (channel, dests, format);
+        GpsEpoch epoch = epoch (4);
+        epoch.parts = GpsEpoch.NMEA;
+        udp.write (epoch);
+        assertEquals (0, receive (receivers[0]).size ());
+    }
+
+    private static GpsEpoch epoch (int nsats)
+    {
+        int[] legacy = new int[150];
+        int n = 0;
+        for (int prn = 1; prn <= 96; prn ++) legacy[n++] = prn;
+        for (int prn = 193; prn <= 200; prn ++) legacy[n++] = prn;
+        for (int prn = 201; prn <= 235; prn ++) legacy[n++] = prn;
+        for (int prn = 301; n < 150; prn ++) legacy[n++] = prn;
+
+        GpsEpoch epoch = new GpsEpoch ();
+        epoch.seq = 1;
+        epoch.parts = GpsEpoch.LOCATION | GpsEpoch.SATELLITES;
+        epoch.hasLocation = true;
+        epoch.time = 1592000000000L;
+        epoch.latitude = 42.5;
+        epoch.longitude = -71.0;
+        epoch.satellites = new MyGpsSatellite[nsats];
+        for (int i = 0; i < nsats; i ++) {
+            MyGpsSatellite sat = new MyGpsSatellite ();
+            sat.setLegacyPrn (legacy[i]);
+            sat.used = i < 12;
+            sat.snr = 30.0 + i % 20;
+            sat.elev = i % 90;
+            sat.azim = i * 7 % 360;
+            epoch.satellites[i] = sat;
+        }
+        return epoch;
+    }
+
+    private static byte[] encoded (OutputFormat format, GpsEpoch epoch)
+    {
+        EpochBuffer eb = format.getEncoded (epoch);
+        return Arrays.copyOf (eb.bytes, eb.length);
+    }
+
+    // get datagrams until none more arrive for a bit
+    private static ArrayList<byte[]> receive (DatagramSocket ds)
+    {
+        ArrayList<byte[]> grams = new ArrayList<> ();
+        byte[] buf = new byte[65536];
+        while (true) {
+            DatagramPacket dp = new DatagramPacket (buf, buf.length);
+            try {
+                ds.receive (dp);
+            } catch (SocketTimeoutException ste) {
+                return grams;
+            } catch (IOException ioe) {
+                throw new RuntimeException (ioe);
+            }
+            grams.add (Arrays.copyOf (buf, dp.getLength ()));
+        }
+    }
+}
@@ -0,0 +1,222 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+
+package com.outerworldapps.gpsblue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check WebSocket and Server-Sent Events framing
+ * and the answers to client control frames.
+ */
+public class WebSocketTest {
+    private TransportHub hub;
+    private Connection conn;
+
+    @Before
+    public void setUp ()
+            throws IOException
+    {
+        hub = new TransportHub (new TransportHub.Host () {
+            @Override  // Host
+            public long elapsedRealtimeNanos ()
+            {
+                return System.nanoTime ();
+            }
+
+            @Override  // Host
+            public void info (String msg)
+            { }
+
+            @Override  // Host
+            public void warn (String msg, Throwable t)
+            { }
+        });
+        hub.startup ();
+        conn = new Connection ("test", null, null) {
+            @Override
+            protected void closeSocket ()
+            { }
+        };
+    }
+
+    @After
+    public void tearDown ()
+    {
+        hub.shutdown ();
+    }
+
+    // example given in RFC 6455 section 1.3
+    @Test
+    public void acceptKeyMatchesRfcExample ()
+    {
+        assertEquals ("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", WebSocketReader.AcceptKey ("dGhlIHNhbXBsZSBub25jZQ=="));
+    }
+
+    @Test
+    public void textFramePerLine ()
+    {
+        byte[] out = encode (new WebSocketEncoder (new Fixed ("ab\ncde\n"), true));
+        assertArrayEquals (new byte[] { (byte) 0x81, 2, 'a', 'b', (byte) 0x81, 3, 'c', 'd', 'e' }, out);
+    }
+
+    @Test
+    public void binaryFramePerEpoch ()
+    {
+        byte[] out = encode (new WebSocketEncoder (new Fixed ("ab\ncd"), false));
+        assertArrayEquals (new byte[] { (byte) 0x82, 5, 'a', 'b', '\n', 'c', 'd' }, out);
+    }
+
+    @Test
+    public void extendedLength ()
+    {
+        char[] line = new char[300];
+        Arrays.fill (line, 'x');
+        byte[] out = encode (new WebSocketEncoder (new Fixed (new String (line) + "\n"), true));
+        assertEquals (4 + 300, out.length);
+        assertEquals (0x81, out[0] & 0xFF);
+        assertEquals (126, out[1]);
+        assertEquals (300, ((out[2] & 0xFF) << 8) | (out[3] & 0xFF));
+        assertEquals ('x', out[4]);
+    }
+
+    @Test
+    public void sseEventPerLine ()
+    {
+        byte[] out = encode (new SSEEncoder (new Fixed ("{\"a\":1}\n{\"b\":2}")));
+        assertEquals ("data: {\"a\":1}\n\ndata: {\"b\":2}\n\n", new String (out));
+    }
+
+    @Test
+    public void pingAnsweredWithPong ()
+    {
+        // masked ping "hi", one byte at a time
+        byte[] ping = masked (0x89, "hi".getBytes ());
+        WebSocketReader reader = new WebSocketReader (hub);
+        for (byte b : ping) reader.received (conn, new byte[] { b }, 1);
+        assertArrayEquals (new byte[] { (byte) 0x8A, 2, 'h', 'i' }, poll ());
+        assertFalse (conn.closeWhenSent);
+    }
+
+    @Test
+    public void dataFramesSkipped ()
+    {
+        // masked text frame with extended length then a ping in the same read
+        byte[] text = masked (0x81, new byte[200]);
+        byte[] ping = masked (0x89, new byte[0]);
+        byte[] both = new byte[text.length+ping.length];
+        System.arraycopy (text, 0, both, 0, text.length);
+        System.arraycopy (ping, 0, both, text.length, ping.length);
+        assertEquals (126, both[1] & 0x7F);
+        new WebSocketReader (hub).received (conn, both, both.length);
+        assertArrayEquals (new byte[] { (byte) 0x8A, 0 }, poll ());
+        assertNull (conn.queue.poll ());
+    }
+
+    @Test
+    public void closeEchoedThenClosed ()
+    {
+        conn.format = new OutputFormat (new Fixed ("x"));
+        byte[] close = masked (0x88, new byte[] { 0x03, (byte) 0xE8, 'b', 'y', 'e' });
+        new WebSocketReader (hub).received (conn, close, close.length);
+        assertArrayEquals (new byte[] { (byte) 0x88, 2, 0x03, (byte) 0xE8 }, poll ());
+        assertNull (conn.format);
+        assertTrue (conn.closeWhenSent);
+    }
+
+    @Test
+    public void oversizeControlFrameCloses ()
+    {
+        byte[] ping = masked (0x89, new byte[126]);
+        new WebSocketReader (hub).received (conn, ping, ping.length);
+        assertTrue (conn.closeRequested);
+        assertNull (conn.queue.poll ());
+    }
+
+    private static byte[] encode (OutputEncoder enc)
+    {
+        EpochBuffer eb = new EpochBuffer ();
+        enc.encode (new GpsEpoch (), eb);
+        return Arrays.copyOf (eb.bytes, eb.length);
+    }
+
+    private byte[] poll ()
+    {
+        EpochBuffer eb = conn.queue.poll ();
+        return (eb == null) ? null : Arrays.copyOf (eb.bytes, eb.length);
+    }
+
+    // build a client frame, masked as clients must
+    private static byte[] masked (int op, byte[] payload)
+    {
+        byte[] mask = { 0x12, 0x34, 0x56, 0x78 };
+        int len = payload.length;
+        int hdr = (len < 126) ? 2 : 4;
+        byte[] frame = new byte[hdr+4+len];
+        frame[0] = (byte) op;
+        if (len < 126) {
+            frame[1] = (byte) (0x80 | len);
+        } else {
+            frame[1] = (byte) (0x80 | 126);
+            frame[2] = (byte) (len >> 8);
+            frame[3] = (byte) len;
+        }
+        System.arraycopy (mask, 0, frame, hdr, 4);
+        for (int i = 0; i < len; i ++) {
+            frame[hdr+4+i] = (byte) (payload[i] ^ mask[i&3]);
+        }
+        return frame;
+    }
+
+    // encoder that always outputs the same text
+    private static class Fixed implements OutputEncoder {
+        private final String text;
+
+        public Fixed (String text)
+        {
+            this.text = text;
+        }
+
+        @Override  // OutputEncoder
+        public String getName ()
+        {
+            return "FIXED";
+        }
+
+        @Override  // OutputEncoder
+        public void encode (GpsEpoch epoch, EpochBuffer out)
+        {
+            out.ensure (text.length ());
+            for (int i = 0; i < text.length (); i ++) out.bytes[out.length++] = (byte) text.charAt (i);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+/**
+ * Benchmark the per-epoch NMEA generation and fan-out path on a plain JVM.
+ * Needs only the Android-free classes of the app, so runs on a build box:
+ *
+ *   cd bench
+ *   mkdir -p classes
+ *   javac -d classes -sourcepath ../app/src/main/java GPSBlueBench.java
+ *   java -cp classes GPSBlueBench [seconds-per-case]
+ *
+ * Reports ns/op and bytes allocated/op for each case.
+ * The filter case runs PositionFilter on a noisy 10Hz track.
+ * The fan-out cases replicate TransportHub.write() queuing to each
+ * client, then drain the queues into output streams that discard everything.
+ */
+
+import com.outerworldapps.gpsblue.ClientQueue;
+import com.outerworldapps.gpsblue.EpochBuffer;
+import com.outerworldapps.gpsblue.GpsEpoch;
+import com.outerworldapps.gpsblue.MyGpsSatellite;
+import com.outerworldapps.gpsblue.NMEAEncoder;
+import com.outerworldapps.gpsblue.OutputFormat;
+import com.outerworldapps.gpsblue.PositionFilter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+public class GPSBlueBench {
+    private final static int[] satcounts = { 0, 4, 12, 24, 40, 64 };
+    private final static int[] clientcounts = { 1, 2, 4, 8, 16, 32 };
+
+    private static com.sun.management.ThreadMXBean threadMXBean;
+    private static double secondsPerCase;
+    private static long sink;
+
+    public static void main (String[] args)
+            throws Exception
+    {
+        secondsPerCase = (args.length > 0) ? Double.parseDouble (args[0]) : 1.0;
+        threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean ();
+        threadMXBean.setThreadAllocatedMemoryEnabled (true);
+
+        System.out.println (String.format (Locale.US, "%-32s %12s %12s", "case", "ns/op", "bytes/op"));
+
+        runCase ("location", new Case () {
+            private GpsEpoch epoch = makeEpoch (12);
+            private NMEAEncoder enc = new NMEAEncoder ("NMEA", NMEAEncoder.STANDARD);
+            private EpochBuffer eb = new EpochBuffer ();
+
+            @Override
+            public void op ()
+            {
+                nextLocation (epoch);
+                eb.length = 0;
+                enc.encode (epoch, eb);
+                sink += eb.length;
+            }
+        });
+
+        runCase ("location/extended", new Case () {
+            private GpsEpoch epoch = makeEpoch (12);
+            private NMEAEncoder enc = new NMEAEncoder ("NMEA-EXT", NMEAEncoder.EXTENDED);
+            private EpochBuffer eb = new EpochBuffer ();
+
+            @Override
+            public void op ()
+            {
+                nextLocation (epoch);
+                eb.length = 0;
+                enc.encode (epoch, eb);
+                sink += eb.length;
+            }
+        });
+
+        runCase ("filter", new Case () {
+            private GpsEpoch epoch = makeEpoch (12);
+            private PositionFilter filter = new PositionFilter ();
+            private double truelat = epoch.latitude;
+            private int step;
+
+            @Override
+            public void op ()
+            {
+                // 10Hz fixes heading north at 51.4 m/s with a few metres of noise
+                step ++;
+                truelat += 51.4 / 10 / 111195.0;
+                epoch.seq ++;
+                epoch.elapsedNanos += 100000000L;
+                epoch.latitude  = truelat + ((step * 7919) % 11 - 5) * 1.0E-5;
+                epoch.longitude = -71.1234567 + ((step * 104729) % 13 - 6) * 1.0E-5;
+                epoch.altitude  = 123.45 + (step * 31) % 7;
+                epoch.speed     = 51.4 + (step % 5) * 0.1;
+                epoch.bearing   = (step % 3) * 0.5;
+                filter.filter (epoch);
+                sink += (long) epoch.altitude;
+            }
+        });
+
+        for (int nsats : satcounts) {
+            final GpsEpoch epoch = makeEpoch (nsats);
+            runCase ("satellites/sats=" + nsats, new Case () {
+                private NMEAEncoder enc = new NMEAEncoder ("NMEA", NMEAEncoder.STANDARD);
+                private EpochBuffer eb = new EpochBuffer ();
+
+                @Override
+                public void op ()
+                {
+                    epoch.seq ++;
+                    epoch.parts = GpsEpoch.SATELLITES;
+                    eb.length = 0;
+                    enc.encode (epoch, eb);
+                    sink += eb.length;
+                }
+            });
+        }
+
+        for (int nsats : satcounts) {
+            for (int nclients : clientcounts) {
+                final GpsEpoch epoch = makeEpoch (nsats);
+                final OutputFormat format = new OutputFormat (new NMEAEncoder ("NMEA", NMEAEncoder.STANDARD));
+                final Client[] clients = new Client[nclients];
+                for (int i = 0; i < nclients; i ++) clients[i] = new Client (format);
+                runCase ("epoch/sats=" + nsats + "/clients=" + nclients, new Case () {
+                    @Override
+                    public void op ()
+                            throws IOException
+                    {
+                        // location and satellites assembled into one epoch
+                        nextLocation (epoch);
+                        epoch.parts |= GpsEpoch.SATELLITES;
+                        write (clients, epoch);
+                    }
+                });
+            }
+        }
+
+        if (sink == 42) System.out.println ();
+    }
+
+    // same loop as TransportHub.write() then what its threads do
+    private static void write (Client[] clients, GpsEpoch epoch)
+            throws IOException
+    {
+        for (Client client : clients) {
+            EpochBuffer eb = client.format.getEncoded (epoch);
+            if (eb.length > 0) client.queue.put (eb);
+        }
+        for (Client client : clients) {
+            EpochBuffer eb;
+            while ((eb = client.queue.poll ()) != null) {
+                client.os.write (eb.bytes, 0, eb.length);
+                eb.release ();
+            }
+        }
+    }
+
+    private static GpsEpoch makeEpoch (int nsats)
+    {
+        MyGpsSatellite[] sats = new MyGpsSatellite[nsats];
+        for (int i = 0; i < nsats; i ++) {
+            MyGpsSatellite sat = new MyGpsSatellite ();
+            sat.setLegacyPrn ((i < 24) ? i + 1 : (i < 40) ? i + 41 : i + 161);  // GPS, GLONASS, BeiDou
+            sat.elev = (i * 37) % 90;
+            sat.azim = (i * 83) % 360;
+            sat.snr  = 15 + (i * 7) % 35;
+            sat.used = (i % 3) != 0;
+            sats[i] = sat;
+        }
+        GpsEpoch epoch = new GpsEpoch ();
+        epoch.satellites  = sats;
+        epoch.hasLocation = true;
+        epoch.hasAltitude = true;
+        epoch.hasSpeed    = true;
+        epoch.hasBearing  = true;
+        epoch.hasAccuracy = true;
+        epoch.accuracy    = 5.0;
+        epoch.time        = 1592000000000L;
+        epoch.latitude    = 42.5012345;
+        epoch.longitude   = -71.1234567;
+        epoch.altitude    = 123.45;
+        epoch.speed       = 51.4;
+        epoch.bearing     = 271.3;
+        return epoch;
+    }
+
+    // step epoch to next location one second later
+    private static void nextLocation (GpsEpoch epoch)
+    {
+        epoch.seq ++;
+        epoch.parts = GpsEpoch.LOCATION;
+        epoch.time += 1000;
+        epoch.latitude += 0.0001;
+    }
+
+    /**
+     * Run the case until timing settles, then time it and measure allocation.
+     */
+    private static void runCase (String name, Case cas)
+            throws Exception
+    {
+        // warm up for the same time as we measure, also finds a batch size of about 10mS
+        int batch = 1;
+        long warmupEnd = System.nanoTime () + (long) (secondsPerCase * 1.0E9);
+        while (System.nanoTime () < warmupEnd) {
+            long started = System.nanoTime ();
+            for (int i = 0; i < batch; i ++) cas.op ();
+            if (System.nanoTime () - started < 10000000L) batch *= 2;
+        }
+
+        long threadId = Thread.currentThread ().getId ();
+        long ops = 0;
+        long bytesStart = threadMXBean.getThreadAllocatedBytes (threadId);
+        long timeStart = System.nanoTime ();
+        long timeEnd = timeStart + (long) (secondsPerCase * 1.0E9);
+        long now;
+        do {
+            for (int i = 0; i < batch; i ++) cas.op ();
+            ops += batch;
+            now = System.nanoTime ();
+        } while (now < timeEnd);
+        long bytesEnd = threadMXBean.getThreadAllocatedBytes (threadId);
+
+        System.out.println (String.format (Locale.US, "%-32s %12.1f %12.1f", name,
+                (double) (now - timeStart) / ops, (double) (bytesEnd - bytesStart) / ops));
+    }
+
+    private interface Case {
+        void op () throws Exception;
+    }
+
+    // stands in for a TransportHub Connection
+    private static class Client {
+        public OutputFormat format;
+        public ClientQueue queue = new ClientQueue ();
+        public OutputStream os = new NullStream ();
+
+        public Client (OutputFormat format)
+        {
+            this.format = format;
+        }
+    }
+
+    // stands in for a connected client's BluetoothSocket output stream
+    private static class NullStream extends OutputStream {
+        public long count;
+
+        @Override
+        public void write (int b)
+        {
+            count ++;
+        }
+
+        @Override
+        public void write (byte[] buf, int ofs, int len)
+        {
+            count += len;
+        }
+    }
+}
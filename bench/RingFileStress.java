@@ -0,0 +1,181 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+/**
+ * Stress the ring file seqlock on a plain JVM.
+ * One thread writes epochs as fast as it can while the other threads
+ * keep reading the latest record, checking every record they get is
+ * one whole epoch and never goes backward.  Half the readers map the
+ * file by name, half through an open stream the way apps do with the
+ * descriptor they get from GPSBlue's content provider:
+ *
+ *   cd bench
+ *   mkdir -p classes
+ *   javac -d classes -sourcepath ../app/src/main/java RingFileStress.java
+ *   java -cp classes RingFileStress [seconds] [readers]
+ *
+ * Exits with status 1 if any reader saw a torn or out-of-order record
+ * or the file was written after it was closed.
+ */
+
+import com.outerworldapps.gpsblue.GpsEpoch;
+import com.outerworldapps.gpsblue.MyGpsSatellite;
+import com.outerworldapps.gpsblue.RingFile;
+import com.outerworldapps.gpsblue.RingFileReader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Locale;
+
+public class RingFileStress {
+    private static volatile boolean stop;
+
+    public static void main (String[] args)
+            throws Exception
+    {
+        double seconds = (args.length > 0) ? Double.parseDouble (args[0]) : 5.0;
+        int nreaders   = (args.length > 1) ? Integer.parseInt (args[1]) : 4;
+
+        File file = File.createTempFile ("gpsblue", ".ring");
+        file.deleteOnExit ();
+        final RingFile ringFile = new RingFile (file);
+
+        final Reader[] readers = new Reader[nreaders];
+        for (int i = 0; i < nreaders; i ++) {
+            RingFileReader rfr = ((i & 1) == 0) ? new RingFileReader (file) :
+                    new RingFileReader (new FileInputStream (file));
+            readers[i] = new Reader (rfr);
+            readers[i].start ();
+        }
+
+        // writer, every field of the epoch is derived from its seq
+        MyGpsSatellite[][] satarrays = new MyGpsSatellite[3][];
+        for (int i = 0; i < 3; i ++) {
+            satarrays[i] = new MyGpsSatellite[i*5];
+            for (int j = 0; j < i * 5; j ++) {
+                satarrays[i][j] = new MyGpsSatellite ();
+                satarrays[i][j].used = (j % 2) == 0;
+            }
+        }
+        GpsEpoch epoch = new GpsEpoch ();
+        epoch.hasLocation = true;
+        long writes = 0;
+        long end = System.nanoTime () + (long) (seconds * 1.0E9);
+        while (System.nanoTime () < end) {
+            for (int i = 0; i < 1000; i ++) {
+                long seq = ++ epoch.seq;
+                epoch.parts         = (int) (seq % 3) + 1;
+                epoch.time          = seq * 100;
+                epoch.elapsedNanos  = seq * 7;
+                epoch.receivedNanos = seq * 11;
+                epoch.latitude      = seq * 1.0E-6;
+                epoch.longitude     = seq * -1.0E-6;
+                epoch.hasAltitude   = (seq & 1) != 0;
+                epoch.altitude      = seq;
+                epoch.hasSpeed      = true;
+                epoch.speed         = seq % 1000;
+                epoch.hasAccuracy   = true;
+                epoch.accuracy      = seq % 97;
+                epoch.satellites    = satarrays[(int)(seq%3)];
+                ringFile.write (epoch);
+            }
+            writes += 1000;
+        }
+        stop = true;
+
+        // nothing gets written once closed
+        boolean ok = true;
+        long latest = readers[0].ringFileReader.getLatest ();
+        ringFile.close ();
+        epoch.seq ++;
+        ringFile.write (epoch);
+        if (readers[0].ringFileReader.getLatest () != latest) {
+            System.out.println ("record written after close");
+            ok = false;
+        }
+
+        long reads = 0;
+        for (Reader reader : readers) {
+            reader.join ();
+            reader.ringFileReader.close ();
+            reads += reader.reads;
+            if (reader.bad != null) {
+                System.out.println (reader.bad);
+                ok = false;
+            }
+        }
+        System.out.println (String.format (Locale.US, "%d writes, %d reads by %d readers, %d retries, %s",
+                writes, reads, nreaders, sumRetries (readers), ok ? "no torn records" : "FAILED"));
+        System.exit (ok ? 0 : 1);
+    }
+
+    private static long sumRetries (Reader[] readers)
+    {
+        long sum = 0;
+        for (Reader reader : readers) sum += reader.retries;
+        return sum;
+    }
+
+    private static class Reader extends Thread {
+        public long reads;
+        public long retries;
+        public String bad;
+
+        private RingFileReader ringFileReader;
+
+        public Reader (RingFileReader rfr)
+        {
+            ringFileReader = rfr;
+        }
+
+        @Override
+        public void run ()
+        {
+            RingFileReader.Record rec = new RingFileReader.Record ();
+            long last = 0;
+            while (! stop && (bad == null)) {
+                if (! ringFileReader.readLatest (rec)) {
+                    retries ++;
+                    continue;
+                }
+                reads ++;
+                long seq = rec.seq;
+                int nsats = (int) (seq % 3) * 5;
+                if ((rec.number != seq) || (seq < last) ||
+                        (rec.parts != (int) (seq % 3) + 1) ||
+                        (rec.time != seq * 100) ||
+                        (rec.elapsedNanos != seq * 7) ||
+                        (rec.receivedNanos != seq * 11) ||
+                        (rec.latitude != seq * 1.0E-6) ||
+                        (rec.longitude != seq * -1.0E-6) ||
+                        (rec.altitude != (((seq & 1) != 0) ? seq : 0)) ||
+                        (rec.speed != seq % 1000) ||
+                        (rec.accuracy != seq % 97) ||
+                        (rec.flags != ((((seq & 1) != 0) ? RingFileReader.FL_ALTITUDE : 0) |
+                                RingFileReader.FL_SPEED | RingFileReader.FL_ACCURACY)) ||
+                        (rec.satellitesInView != nsats) ||
+                        (rec.satellitesUsed != (nsats + 1) / 2)) {
+                    bad = "torn or out-of-order record " + rec.number + " seq " + seq + " after " + last;
+                }
+                last = seq;
+            }
+        }
+    }
+}
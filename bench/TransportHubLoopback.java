@@ -0,0 +1,371 @@
+//    Copyright (C) 2020, Mike Rieker, Beverly, MA USA
+//    www.outerworldapps.com
+//
+//    This program is free software; you can redistribute it and/or modify
+//    it under the terms of the GNU General Public License as published by
+//    the Free Software Foundation; version 2 of the License.
+//
+//    This program is distributed in the hope that it will be useful,
+//    but WITHOUT ANY WARRANTY; without even the implied warranty of
+//    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//    GNU General Public License for more details.
+//
+//    EXPECT it to FAIL when someone's HeALTh or PROpeRTy is at RISk.
+//
+//    You should have received a copy of the GNU General Public License
+//    along with this program; if not, write to the Free Software
+//    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+//
+//    http://www.gnu.org/licenses/gpl-2.0.html
+
+/**
+ * Run the TransportHub and UdpOutput over loopback sockets on a plain JVM.
+ * A writer thread stands in for the GPS receiver thread, sending epochs
+ * with a location and 64 satellites to:
+ *
+ *   TCP clients, serviced by the hub's event loop as non-blocking channels
+ *   stream clients, blocking sockets serviced by the hub's pool threads
+ *     the same way as bluetooth and local sockets
+ *   one TCP client that never reads, which the watchdog must close
+ *   UDP receivers, via UdpOutput
+ *
+ *   cd bench
+ *   mkdir -p classes
+ *   javac -d classes -sourcepath ../app/src/main/java TransportHubLoopback.java
+ *   java -cp classes TransportHubLoopback [seconds] [tcpclients] [streamclients]
+ *
+ * Each client checks every NMEA sentence's checksum and that fixes never
+ * go backward (latest-wins drops are fine).  UDP receivers check every
+ * datagram fits and ends on a sentence, and that the datagrams put back
+ * together are exactly what was encoded.
+ * Exits with status 1 if anything is wrong.
+ */
+
+import com.outerworldapps.gpsblue.Connection;
+import com.outerworldapps.gpsblue.EpochBuffer;
+import com.outerworldapps.gpsblue.GpsEpoch;
+import com.outerworldapps.gpsblue.MyGpsSatellite;
+import com.outerworldapps.gpsblue.NMEAEncoder;
+import com.outerworldapps.gpsblue.OutputFormat;
+import com.outerworldapps.gpsblue.Transport;
+import com.outerworldapps.gpsblue.TransportHub;
+import com.outerworldapps.gpsblue.UdpOutput;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TransportHubLoopback {
+    private final static int WRITE_TIMEOUT_MS = 1000;
+    private final static int EPOCH_HZ = 50;
+
+    private static final AtomicInteger closed = new AtomicInteger ();
+    private static volatile Connection stalledConn;
+    private static volatile boolean stalledClosed;
+
+    public static void main (String[] args)
+            throws Exception
+    {
+        double seconds = (args.length > 0) ? Double.parseDouble (args[0]) : 5.0;
+        int ntcp       = (args.length > 1) ? Integer.parseInt (args[1]) : 50;
+        int nstream    = (args.length > 2) ? Integer.parseInt (args[2]) : 4;
+
+        TransportHub hub = new TransportHub (new TransportHub.Host () {
+            @Override  // TransportHub.Host
+            public long elapsedRealtimeNanos ()
+            {
+                return System.nanoTime ();
+            }
+
+            @Override  // TransportHub.Host
+            public void info (String msg)
+            { }
+
+            @Override  // TransportHub.Host
+            public void warn (String msg, Throwable t)
+            {
+                System.out.println ("hub: " + msg + ((t == null) ? "" : " " + t));
+            }
+        });
+        hub.startup ();
+        hub.setWriteTimeout (WRITE_TIMEOUT_MS);
+
+        final OutputFormat format = new OutputFormat (new NMEAEncoder ("NMEA", NMEAEncoder.STANDARD));
+        final Transport transport = new Transport () {
+            @Override  // Transport
+            public void received (Connection conn, byte[] buf, int len)
+            { }
+
+            @Override  // Transport
+            public void connectionClosed (Connection conn)
+            {
+                closed.incrementAndGet ();
+                if (conn == stalledConn) stalledClosed = true;
+            }
+        };
+
+        InetAddress lo = InetAddress.getLoopbackAddress ();
+
+        // TCP server, channels accepted by the hub's event loop
+        // the last connection accepted is the one that never reads
+        final TransportHub fhub = hub;
+        final int ftcp = ntcp;
+        final AtomicInteger accepted = new AtomicInteger ();
+        ServerSocketChannel ssc = ServerSocketChannel.open ();
+        ssc.socket ().bind (new InetSocketAddress (lo, 0));
+        hub.addServer (ssc, new TransportHub.Acceptor () {
+            @Override  // TransportHub.Acceptor
+            public void accepted (SocketChannel sc)
+            {
+                try {
+                    int n = accepted.incrementAndGet ();
+                    if (n > ftcp) sc.socket ().setSendBufferSize (2048);
+                    Connection conn = fhub.addChannel (sc, "tcp " + n, format, transport);
+                    if (n > ftcp) stalledConn = conn;
+                } catch (IOException ioe) {
+                    throw new RuntimeException (ioe);
+                }
+            }
+        });
+        int tcpport = ssc.socket ().getLocalPort ();
+        ArrayList<Client> clients = new ArrayList<> ();
+        for (int i = 0; i < ntcp; i ++) {
+            Socket s = new Socket (lo, tcpport);
+            clients.add (new Client ("tcp " + (i + 1), s));
+            while (accepted.get () <= i) Thread.sleep (1);
+        }
+        Socket stalled = new Socket ();
+        stalled.setReceiveBufferSize (2048);
+        stalled.connect (new InetSocketAddress (lo, tcpport));
+
+        // stream connections, blocking sockets given to the hub's pool threads
+        ServerSocket ss = new ServerSocket (0, 50, lo);
+        for (int i = 0; i < nstream; i ++) {
+            Socket cs = new Socket (lo, ss.getLocalPort ());
+            Socket as = ss.accept ();
+            hub.addStream (as.getInputStream (), as.getOutputStream (), as, 990, "stream " + (i + 1), format, transport);
+            clients.add (new Client ("stream " + (i + 1), cs));
+        }
+        ss.close ();
+
+        // UDP to two receivers
+        DatagramChannel[] receivers = new DatagramChannel[2];
+        InetSocketAddress[] dests = new InetSocketAddress[receivers.length];
+        for (int i = 0; i < receivers.length; i ++) {
+            receivers[i] = DatagramChannel.open ();
+            receivers[i].socket ().setReceiveBufferSize (1 << 20);
+            receivers[i].bind (new InetSocketAddress (lo, 0));
+            dests[i] = (InetSocketAddress) receivers[i].getLocalAddress ();
+        }
+        OutputFormat udpformat = new OutputFormat (new NMEAEncoder ("NMEA-EXT", NMEAEncoder.EXTENDED));
+        UdpOutput udp = new UdpOutput (DatagramChannel.open (), dests, udpformat);
+        UdpReceiver[] udpreceivers = new UdpReceiver[receivers.length];
+        for (int i = 0; i < receivers.length; i ++) {
+            udpreceivers[i] = new UdpReceiver (receivers[i]);
+            udpreceivers[i].start ();
+        }
+        ByteArrayOutputStream udpsent = new ByteArrayOutputStream ();
+        int udpsplit = 0;
+
+        for (Client c : clients) c.start ();
+
+        // writer, the GPS receiver thread
+        GpsEpoch epoch = makeEpoch (64);
+        long epochs = 0;
+        long end = System.nanoTime () + (long) (seconds * 1.0E9);
+        while (System.nanoTime () < end) {
+            epoch.seq ++;
+            epoch.parts = GpsEpoch.LOCATION | GpsEpoch.SATELLITES;
+            epoch.time += 1000 / EPOCH_HZ;
+            epoch.latitude += 0.00001;
+            hub.write (epoch);
+            udp.write (epoch);
+            EpochBuffer eb = udpformat.getEncoded (epoch);
+            udpsent.write (eb.bytes, 0, eb.length);
+            if (eb.length > UdpOutput.MAX_DATAGRAM) udpsplit ++;
+            epochs ++;
+            Thread.sleep (1000 / EPOCH_HZ);
+        }
+        Thread.sleep (500);
+
+        boolean ok = true;
+        System.out.println (String.format (Locale.US, "%d epochs, %d split for UDP", epochs, udpsplit));
+        if (! stalledClosed) {
+            System.out.println ("FAIL: client that never reads was not closed");
+            ok = false;
+        }
+
+        StringBuilder sb = new StringBuilder ();
+        hub.appendClientStatus (sb);
+        hub.shutdown ();
+        udp.close ();
+        stalled.close ();
+        for (Client c : clients) c.join ();
+        for (Client c : clients) {
+            if (! c.check (epochs)) ok = false;
+        }
+        for (int i = 0; i < receivers.length; i ++) {
+            receivers[i].close ();
+            udpreceivers[i].join ();
+            if (! udpreceivers[i].check (udpsent.toByteArray ())) ok = false;
+        }
+        System.out.println (String.format (Locale.US, "%d connections closed", closed.get ()));
+        System.out.println (ok ? "OK" : "FAILED");
+        System.exit (ok ? 0 : 1);
+    }
+
+    private static GpsEpoch makeEpoch (int nsats)
+    {
+        MyGpsSatellite[] sats = new MyGpsSatellite[nsats];
+        for (int i = 0; i < nsats; i ++) {
+            MyGpsSatellite sat = new MyGpsSatellite ();
+            sat.setLegacyPrn ((i < 32) ? i + 1 : i + 33);  // GPS, GLONASS
+            sat.elev = (i * 37) % 90;
+            sat.azim = (i * 83) % 360;
+            sat.snr  = 15 + (i * 7) % 35;
+            sat.used = (i % 3) != 0;
+            sats[i] = sat;
+        }
+        GpsEpoch epoch = new GpsEpoch ();
+        epoch.satellites  = sats;
+        epoch.hasLocation = true;
+        epoch.hasAltitude = true;
+        epoch.hasSpeed    = true;
+        epoch.hasBearing  = true;
+        epoch.time        = 1592000000000L;
+        epoch.latitude    = 42.5012345;
+        epoch.longitude   = -71.1234567;
+        epoch.altitude    = 123.45;
+        epoch.speed       = 51.4;
+        epoch.bearing     = 271.3;
+        return epoch;
+    }
+
+    // see if line is $...*hh with the right checksum
+    private static boolean checksumOK (String line)
+    {
+        int star = line.lastIndexOf ('*');
+        if (! line.startsWith ("$") || (star < 0) || (star + 3 != line.length ())) return false;
+        int sum = 0;
+        for (int i = 1; i < star; i ++) sum ^= line.charAt (i);
+        return String.format ("%02X", sum).equals (line.substring (star + 1));
+    }
+
+    /**
+     * Reads everything sent to one TCP or stream connection until EOF.
+     */
+    private static class Client extends Thread {
+        private final String name;
+        private final Socket socket;
+        private long lines;
+        private long fixes;
+        private long bad;
+        private long backward;
+
+        public Client (String name, Socket socket)
+        {
+            this.name = name;
+            this.socket = socket;
+        }
+
+        @Override
+        public void run ()
+        {
+            try {
+                InputStream is = socket.getInputStream ();
+                byte[] buf = new byte[8192];
+                StringBuilder line = new StringBuilder ();
+                String lastgga = "";
+                for (int rc; (rc = is.read (buf)) > 0;) {
+                    for (int i = 0; i < rc; i ++) {
+                        char c = (char) buf[i];
+                        if (c != '\n') {
+                            line.append (c);
+                            continue;
+                        }
+                        String l = line.toString ().trim ();
+                        line.setLength (0);
+                        lines ++;
+                        if (! checksumOK (l)) bad ++;
+                        if (l.startsWith ("$GPGGA,")) {
+                            // fix time then latitude, both only increase
+                            String key = l.substring (7, l.indexOf (",N,"));
+                            if (key.compareTo (lastgga) <= 0) backward ++;
+                            lastgga = key;
+                            fixes ++;
+                        }
+                    }
+                }
+                if (line.length () > 0) bad ++;
+            } catch (IOException ioe) {
+                System.out.println (name + ": " + ioe);
+                bad ++;
+            }
+            try { socket.close (); } catch (IOException ignored) { }
+        }
+
+        public boolean check (long epochs)
+        {
+            boolean ok = (bad == 0) && (backward == 0) && (fixes > epochs / 2);
+            if (! ok) {
+                System.out.println (String.format (Locale.US, "FAIL: %s got %d lines, %d fixes of %d epochs, %d bad, %d backward",
+                        name, lines, fixes, epochs, bad, backward));
+            }
+            return ok;
+        }
+    }
+
+    /**
+     * Receives datagrams sent by UdpOutput until its channel is closed.
+     */
+    private static class UdpReceiver extends Thread {
+        private final DatagramChannel channel;
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream ();
+        private long datagrams;
+        private long bad;
+
+        public UdpReceiver (DatagramChannel dc)
+        {
+            channel = dc;
+        }
+
+        @Override
+        public void run ()
+        {
+            ByteBuffer bb = ByteBuffer.allocate (65536);
+            try {
+                while (true) {
+                    bb.clear ();
+                    channel.receive (bb);
+                    int len = bb.position ();
+                    datagrams ++;
+                    if ((len > UdpOutput.MAX_DATAGRAM) || (bb.get (len - 1) != '\n')) bad ++;
+                    received.write (bb.array (), 0, len);
+                }
+            } catch (IOException ioe) {
+                // closed
+            }
+        }
+
+        public boolean check (byte[] sent)
+        {
+            boolean ok = (bad == 0) && java.util.Arrays.equals (sent, received.toByteArray ());
+            if (! ok) {
+                System.out.println (String.format (Locale.US, "FAIL: udp got %d datagrams, %d bytes of %d, %d bad",
+                        datagrams, received.size (), sent.length, bad));
+            }
+            return ok;
+        }
+    }
+}